@@ -32,6 +32,7 @@ import ij.plugin.*;
 
 import de.iftm.dcm4che.dcmie.*;
 import de.iftm.dcm4che.dcmie.imp.*;
+import de.iftm.dcm4che.dcmie.inspect.*;
 import de.iftm.javax.swing.*;
 
 
@@ -50,7 +51,7 @@ import de.iftm.javax.swing.*;
  * Download: ftp://codon.nih.gov/pub/image-j/<br>
  *
  * @author   Thomas Hacklaender
- * @version  2002.8.22
+ * @version  2002.9.30
  */
 public class Dcm_Inspector extends javax.swing.JFrame implements PlugIn {
   
@@ -78,11 +79,27 @@ public class Dcm_Inspector extends javax.swing.JFrame implements PlugIn {
   
   /**
    * This method will only be called, if this frame is run as an application.
-   * ImageJ only calls the method "run".
+   * ImageJ only calls the method "run".<br>
+   * If the first argument is "-batch", the DICOM files are converted without
+   * a GUI. The other arguments are passed to BatchConverter.main. If it is
+   * "-diff", two directory trees are compared by DatasetDiff.main.
    * @param args the command line arguments
    */
   public static void main(String args[]) {
     String    arg = "";
+    String[]  batchArgs;
+    
+    // Konvertierung und Vergleich ohne GUI
+    if ((args.length > 0) && (args[0].equals("-batch") || args[0].equals("-diff"))) {
+      batchArgs = new String[args.length - 1];
+      System.arraycopy(args, 1, batchArgs, 0, batchArgs.length);
+      if (args[0].equals("-batch")) {
+        BatchConverter.main(batchArgs);
+      } else {
+        DatasetDiff.main(batchArgs);
+      }
+      return;
+    }
     
     Dcm_Inspector myself = new Dcm_Inspector();
     runAsApplication = true;
@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie;
+
+import java.io.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * A cache of parsed DICOM files shared by the panels of the inspector. All
+ * panels listening to the same file selection get the same Dataset, so the
+ * file is parsed only once. The entries are keyed by path, modification time
+ * and size, so a modified file is parsed again.<br>
+ * Only the header is parsed. The parser stops at the PixelData element and
+ * records its offset and length, so selecting a large multiframe image does
+ * not read the pixel data.<br>
+ * The cache is bounded by the number of entries and the sum of the header
+ * sizes, i.e. the bytes up to the PixelData element. If a bound is exceeded the least recently used entries are removed.
+ * If several threads request the same file at the same time, it is parsed by
+ * the first one and the others wait for the result.<br>
+ * The Datasets are shared. They must not be modified by the panels.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.28
+ */
+public class DatasetCache {
+  
+  
+  /**
+   * The default maximum number of entries.
+   */
+  public final static int   DEFAULT_CAPACITY = 16;
+  
+  
+  /**
+   * The default maximum sum of the header sizes in bytes.
+   */
+  public final static long  DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  
+  
+  /**
+   * The shared instance.
+   */
+  private static DatasetCache   instance = null;
+  
+  
+  /**
+   * The maximum number of entries.
+   */
+  private int             capacity;
+  
+  
+  /**
+   * The maximum sum of the header sizes in bytes.
+   */
+  private long            maxBytes;
+  
+  
+  /**
+   * The sum of the header sizes of the entries in bytes.
+   */
+  private long            bytes = 0;
+  
+  
+  /**
+   * The entries. Key is the key of the file, value the Entry. The map is in
+   * access order, i.e. the first entry is the least recently used.
+   */
+  private LinkedHashMap   entries = new LinkedHashMap(16, 0.75f, true);
+  
+  
+  /**
+   * The number of requests served from the cache.
+   */
+  private int             hits = 0;
+  
+  
+  /**
+   * The number of requests, which parsed the file.
+   */
+  private int             misses = 0;
+  
+  
+  /**
+   * Creates a new DatasetCache.
+   * @param capacity the maximum number of entries.
+   * @param maxBytes the maximum sum of the header sizes in bytes.
+   */
+  public DatasetCache(int capacity, long maxBytes) {
+    this.capacity = Math.max(1, capacity);
+    this.maxBytes = maxBytes;
+  }
+  
+  
+  /**
+   * Returns the instance shared by the panels of the inspector.
+   * @return the shared cache.
+   */
+  public static synchronized DatasetCache getInstance() {
+    if (instance == null) {
+      instance = new DatasetCache(DEFAULT_CAPACITY, DEFAULT_MAX_BYTES);
+    }
+    return instance;
+  }
+  
+  
+  /**
+   * Returns the Dataset of a file without the PixelData element. The file is
+   * parsed, if it is not in the cache. Only this method counts hits and
+   * misses.
+   * @param f the DICOM file.
+   * @return the Dataset. It must not be modified.
+   * @exception  IOException  if the file could not be parsed
+   */
+  public Dataset getDataset(File f) throws IOException {
+    return getEntry(f, true).dataset;
+  }
+  
+  
+  /**
+   * Returns the format of a file. The file is parsed, if it is not in the
+   * cache.
+   * @param f the DICOM file.
+   * @return the file format.
+   * @exception  IOException  if the file could not be parsed
+   */
+  public FileFormat getFileFormat(File f) throws IOException {
+    return getEntry(f, false).format;
+  }
+  
+  
+  /**
+   * Returns the position of the value of the PixelData element in a file.
+   * @param f the DICOM file.
+   * @return the position in bytes or -1, if the file has no PixelData element.
+   * @exception  IOException  if the file could not be parsed
+   */
+  public long getPixelDataOffset(File f) throws IOException {
+    return getEntry(f, false).pixelDataOffset;
+  }
+  
+  
+  /**
+   * Returns the length of the value of the PixelData element in a file.
+   * @param f the DICOM file.
+   * @return the length in bytes. -1 for encapsulated pixel data of undefined
+   *         length or if the file has no PixelData element.
+   * @exception  IOException  if the file could not be parsed
+   */
+  public int getPixelDataLength(File f) throws IOException {
+    return getEntry(f, false).pixelDataLength;
+  }
+  
+  
+  /**
+   * Returns the value representation of the PixelData element in a file.
+   * @param f the DICOM file.
+   * @return the VR, e.g. VRs.OW, or -1, if the file has no PixelData element.
+   * @exception  IOException  if the file could not be parsed
+   */
+  public int getPixelDataVR(File f) throws IOException {
+    return getEntry(f, false).pixelDataVR;
+  }
+  
+  
+  /**
+   * Returns the number of requests served from the cache.
+   * @return the number of hits.
+   */
+  public synchronized int getHits() {
+    return hits;
+  }
+  
+  
+  /**
+   * Returns the number of requests, which parsed the file.
+   * @return the number of misses.
+   */
+  public synchronized int getMisses() {
+    return misses;
+  }
+  
+  
+  /**
+   * Removes all entries. The counters are not reset.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    bytes = 0;
+  }
+  
+  
+  /**
+   * Returns the entry of a file. If the file is not in the cache, it is
+   * parsed outside of the lock of the cache.
+   * @param f the DICOM file.
+   * @param count true, if the request should be counted as hit or miss.
+   * @return the entry.
+   * @exception  IOException  if the file could not be parsed
+   */
+  private Entry getEntry(File f, boolean count) throws IOException {
+    String    key = f.getAbsolutePath() + "|" + f.lastModified() + "|" + f.length();
+    Entry     e;
+    boolean   parse = false;
+    
+    synchronized (this) {
+      e = (Entry) entries.get(key);
+      if (e == null) {
+        e = new Entry();
+        entries.put(key, e);
+        trim();
+        parse = true;
+        if (count) misses++;
+      } else {
+        if (count) hits++;
+      }
+    }
+    
+    if (parse) {
+      parse(f, e);
+      synchronized (this) {
+        // Das Entry kann inzwischen von trim() entfernt worden sein
+        if (entries.get(key) == e) {
+          if (e.error != null) {
+            entries.remove(key);
+          } else {
+            // Nur der Header belegt Speicher, die Pixel Daten werden nicht gelesen
+            e.size = (e.pixelDataOffset >= 0) ? e.pixelDataOffset : f.length();
+            bytes += e.size;
+            trim();
+          }
+        }
+      }
+    } else {
+      // Warten, bis ein anderer Thread den File geparst hat
+      synchronized (e) {
+        while (!e.done) {
+          try {
+            e.wait();
+          } catch (InterruptedException ex) {
+            throw new InterruptedIOException();
+          }
+        }
+      }
+    }
+    
+    if (e.error != null) throw e.error;
+    return e;
+  }
+  
+  
+  /**
+   * Parses the header of a file into an entry and notifies the waiting
+   * threads. The parser stops at the PixelData element.
+   * @param f the DICOM file.
+   * @param e the entry.
+   */
+  private static void parse(File f, Entry e) {
+    InputStream   in = null;
+    FileFormat    ff = null;
+    Dataset       ds = null;
+    IOException   error = null;
+    
+    try {
+      in = new BufferedInputStream(new FileInputStream(f));
+      DcmParser p = DcmParserFactory.getInstance().newDcmParser(in);
+      ff = p.detectFileFormat();
+      ds = DcmObjectFactory.getInstance().newDataset();
+      p.setDcmHandler(ds.getDcmHandler());
+      p.parseDcmFile(ff, Tags.PixelData);
+      
+      // Nur Position und Laenge der Pixel Daten merken
+      if (p.getReadTag() == Tags.PixelData) {
+        e.pixelDataOffset = p.getStreamPosition();
+        e.pixelDataLength = p.getReadLength();
+        e.pixelDataVR = p.getReadVR();
+      }
+    } catch (IOException ex) {
+      error = ex;
+    } catch (Exception ex) {
+      error = new IOException(ex.toString());
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (Exception ignore) {}
+    }
+    
+    synchronized (e) {
+      e.format = ff;
+      e.dataset = ds;
+      e.error = error;
+      e.done = true;
+      e.notifyAll();
+    }
+  }
+  
+  
+  /**
+   * Removes the least recently used entries, until the bounds are kept. The
+   * most recently used entry is never removed.
+   */
+  private void trim() {
+    Iterator  iter = entries.values().iterator();
+    Entry     e;
+    
+    while (((entries.size() > capacity) || (bytes > maxBytes)) && (entries.size() > 1)) {
+      e = (Entry) iter.next();
+      iter.remove();
+      bytes -= e.size;
+    }
+  }
+  
+  
+  /**
+   * A parsed file.
+   */
+  private static class Entry {
+    
+    /** The size of the header. 0 until the file is parsed. */
+    long          size;
+    
+    /** The file format. */
+    FileFormat    format;
+    
+    /** The Dataset without the PixelData element. */
+    Dataset       dataset;
+    
+    /** The position, length and VR of the PixelData element. */
+    long          pixelDataOffset = -1;
+    int           pixelDataLength = -1;
+    int           pixelDataVR = -1;
+    
+    /** The error, if the file could not be parsed. */
+    IOException   error;
+    
+    /** True, if the file is parsed. */
+    boolean       done = false;
+  }
+  
+}
@@ -684,7 +684,7 @@ public class DcmExportPanel extends javax.swing.JPanel implements java.io.Serial
    * starting with "dir.".
    * @return the DirBuilderPref.
    */
-  private static DirBuilderPref getDirBuilderPref() {
+  static DirBuilderPref getDirBuilderPref() {
     Properties cfg;
      
     cfg = new Properties();
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.exp;
+
+import java.io.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+import org.dcm4che.media.*;
+import org.dcm4che.util.*;
+
+
+/**
+ * Creates a DICOMDIR for the DICOM files of an existing directory tree. The
+ * images are neither decoded nor written again.<br>
+ * The headers of all files are read up to the PixelData element by several
+ * threads in parallel. Then the files are sorted by patient, study, series and
+ * instance number and added to the DICOMDIR by a single DirBuilder. The
+ * DirBuilder uses the preferences of "resources/dcmdir.cfg".<br>
+ * The DICOMDIR is written to a temporary file in the root directory first and
+ * renamed afterwards. An existing DICOMDIR is replaced.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.25
+ */
+public class DicomdirBuilder {
+  
+  
+  /**
+   * The root directory.
+   */
+  private File        dir;
+  
+  
+  /**
+   * The relative paths of the files to parse, separated by '/'.
+   */
+  private Vector      paths;
+  
+  
+  /**
+   * The parsed DICOM files.
+   */
+  private Vector      entries;
+  
+  
+  /**
+   * The next file to be parsed by a worker thread.
+   */
+  private int         next;
+  
+  
+  /**
+   * The number of files, which are no DICOM files or have no SOPInstanceUID.
+   */
+  private int         skipped;
+  
+  
+  /**
+   * The number of IMAGE records added to the DICOMDIR.
+   */
+  private int         added;
+  
+  
+  /**
+   * True, if the build should be abandoned.
+   */
+  private boolean     cancelled = false;
+  
+  
+  /**
+   * Creates a new DicomdirBuilder.
+   * @param dir the root directory. The DICOMDIR is written into this directory.
+   */
+  public DicomdirBuilder(File dir) {
+    this.dir = dir.getAbsoluteFile();
+  }
+  
+  
+  /**
+   * Builds the DICOMDIR.
+   * @param threads the number of threads to parse the files.
+   * @return the DICOMDIR file.
+   * @exception  IOException  in a case of I/O error
+   */
+  public File build(int threads) throws IOException {
+    Thread[]  workers;
+    Entry[]   sorted;
+    
+    synchronized (this) {
+      cancelled = false;
+    }
+    
+    paths = new Vector();
+    entries = new Vector();
+    next = 0;
+    skipped = 0;
+    added = 0;
+    listFiles(dir, "", paths);
+    
+    // Die Header parallel lesen
+    threads = Math.max(1, Math.min(threads, paths.size()));
+    workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread("DicomdirBuilder") {
+        public void run() {
+          parseAll();
+        }
+      };
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+    for (int i = 0; i < threads; i++) {
+      try {
+        workers[i].join();
+      } catch (InterruptedException e) {
+        cancel();
+      }
+    }
+    
+    synchronized (this) {
+      if (cancelled) throw new InterruptedIOException("DICOMDIR build cancelled");
+      sorted = (Entry[]) entries.toArray(new Entry[entries.size()]);
+      entries = null;
+      paths = null;
+    }
+    
+    // Nach Patient, Studie, Serie und Instanz sortiert einfuegen. Der
+    // DirBuilder findet die Records der Eltern so immer am Ende.
+    Arrays.sort(sorted);
+    return write(sorted);
+  }
+  
+  
+  /**
+   * Abandons the build. An existing DICOMDIR is not modified.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+  }
+  
+  
+  /**
+   * Returns the number of files added to the DICOMDIR by the last build.
+   * @return the number of files.
+   */
+  public synchronized int getAddedCount() {
+    return added;
+  }
+  
+  
+  /**
+   * Returns the number of files skipped by the last build, because they are no
+   * DICOM files or could not be added.
+   * @return the number of files.
+   */
+  public synchronized int getSkippedCount() {
+    return skipped;
+  }
+  
+  
+  /**
+   * Lists all files of a directory tree. DICOMDIR files are skipped.
+   * @param d the directory.
+   * @param prefix the path of the directory relative to the root directory.
+   * @param v the Vector to add the relative paths, separated by '/'.
+   */
+  private static void listFiles(File d, String prefix, Vector v) {
+    File[]  files = d.listFiles();
+    String  name;
+    
+    if (files == null) return;
+    
+    for (int i = 0; i < files.length; i++) {
+      name = files[i].getName();
+      if (files[i].isDirectory()) {
+        listFiles(files[i], prefix + name + "/", v);
+      } else if (!name.toUpperCase().startsWith("DICOMDIR")) {
+        v.add(prefix + name);
+      }
+    }
+  }
+  
+  
+  /**
+   * Parses files until all are done. Executed by the worker threads.
+   */
+  private void parseAll() {
+    String  path;
+    Entry   e;
+    
+    while (true) {
+      synchronized (this) {
+        if (cancelled || (next >= paths.size())) return;
+        path = (String) paths.get(next++);
+      }
+      
+      e = parse(path);
+      
+      synchronized (this) {
+        if (e != null) {
+          entries.add(e);
+        } else {
+          skipped++;
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Reads the header of a file up to the PixelData element.
+   * @param path the path of the file relative to the root directory.
+   * @return the entry or null, if the file is not a DICOM file.
+   */
+  private Entry parse(String path) {
+    BufferedInputStream   in = null;
+    Dataset               ds;
+    FileFormat            ff;
+    Entry                 e;
+    
+    try {
+      in = new BufferedInputStream(new FileInputStream(new File(dir, path)));
+      DcmParser p = DcmParserFactory.getInstance().newDcmParser(in);
+      ff = p.detectFileFormat();
+      ds = DcmObjectFactory.getInstance().newDataset();
+      ds.readFile(in, ff, Tags.PixelData);
+      
+      if (ds.getString(Tags.SOPInstanceUID) == null) return null;
+      
+      e = new Entry();
+      e.path = path;
+      e.dataset = ds;
+      e.patientID = ds.getString(Tags.PatientID, "");
+      e.studyUID = ds.getString(Tags.StudyInstanceUID, "");
+      e.seriesUID = ds.getString(Tags.SeriesInstanceUID, "");
+      e.instanceNumber = ds.getInt(Tags.InstanceNumber, 0);
+      return e;
+    } catch (Exception ex) {
+      return null;
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (Exception ignore) {}
+    }
+  }
+  
+  
+  /**
+   * Writes the DICOMDIR.
+   * @param sorted the sorted entries.
+   * @return the DICOMDIR file.
+   * @exception  IOException  in a case of I/O error
+   */
+  private File write(Entry[] sorted) throws IOException {
+    File            dicomdir = new File(dir, "DICOMDIR");
+    File            tmp = new File(dir, "DICOMDIR.TMP");
+    DirWriter       dirWriter;
+    DirBuilder      dirBuilder;
+    StringTokenizer st;
+    String[]        fileIDs;
+    
+    // Neues DICOMDIR mit eigener UID erzeugen
+    tmp.delete();
+    dirWriter = DirBuilderFactory.getInstance().newDirWriter(tmp, UIDGenerator.getInstance().createUID(), 
+                                                             null, null, null, null);
+    dirBuilder = DirBuilderFactory.getInstance().newDirBuilder(dirWriter, DcmExportPanel.getDirBuilderPref());
+    
+    try {
+      for (int i = 0; i < sorted.length; i++) {
+        synchronized (this) {
+          if (cancelled) throw new InterruptedIOException("DICOMDIR build cancelled");
+        }
+        
+        st = new StringTokenizer(sorted[i].path, "/");
+        fileIDs = new String[st.countTokens()];
+        for (int k = 0; k < fileIDs.length; k++) {
+          fileIDs[k] = st.nextToken();
+        }
+        
+        try {
+          if (dirBuilder.addFileRef(fileIDs, sorted[i].dataset) > 0) {
+            synchronized (this) {
+              added++;
+            }
+          }
+        } catch (IOException e) {
+          synchronized (this) {
+            skipped++;
+          }
+        }
+        
+        // Der Header wird nicht mehr benoetigt
+        sorted[i] = null;
+      }
+      
+      // DirBuilder und implizit DirWriter schliessen
+      dirBuilder.close();
+    } catch (IOException e) {
+      try {
+        dirBuilder.close();
+      } catch (Exception ignore) {}
+      tmp.delete();
+      throw e;
+    }
+    
+    dicomdir.delete();
+    if (!tmp.renameTo(dicomdir)) {
+      throw new IOException("Can't rename " + tmp + " to " + dicomdir);
+    }
+    return dicomdir;
+  }
+  
+  
+  /**
+   * Creates a DICOMDIR for a directory tree without a GUI.<br>
+   * Usage: java de.iftm.dcm4che.dcmie.exp.DicomdirBuilder directory [threads]
+   * @param args the command line arguments
+   */
+  public static void main(String args[]) {
+    DicomdirBuilder   builder;
+    int               threads = Runtime.getRuntime().availableProcessors();
+    long              start;
+    File              dicomdir;
+    
+    if (args.length < 1) {
+      System.err.println("Usage: java de.iftm.dcm4che.dcmie.exp.DicomdirBuilder directory [threads]");
+      System.exit(1);
+    }
+    if (args.length > 1) threads = Integer.parseInt(args[1]);
+    
+    builder = new DicomdirBuilder(new File(args[0]));
+    start = System.currentTimeMillis();
+    try {
+      dicomdir = builder.build(threads);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+      return;
+    }
+    
+    System.out.println(dicomdir + ": " + builder.getAddedCount() + " files added, " 
+                       + builder.getSkippedCount() + " skipped in " 
+                       + (System.currentTimeMillis() - start) + " ms");
+  }
+  
+  
+  /**
+   * A parsed DICOM file. Entries are ordered by PatientID, StudyInstanceUID,
+   * SeriesInstanceUID, InstanceNumber and path.
+   */
+  private static class Entry implements Comparable {
+    
+    /** The path relative to the root directory, separated by '/'. */
+    String      path;
+    
+    /** The header up to the PixelData element. */
+    Dataset     dataset;
+    
+    /** The sort keys. */
+    String      patientID;
+    String      studyUID;
+    String      seriesUID;
+    int         instanceNumber;
+    
+    public int compareTo(Object o) {
+      Entry   e = (Entry) o;
+      int     c;
+      
+      if ((c = patientID.compareTo(e.patientID)) != 0) return c;
+      if ((c = studyUID.compareTo(e.studyUID)) != 0) return c;
+      if ((c = seriesUID.compareTo(e.seriesUID)) != 0) return c;
+      if (instanceNumber != e.instanceNumber) return (instanceNumber < e.instanceNumber) ? -1 : 1;
+      return path.compareTo(e.path);
+    }
+  }
+  
+}
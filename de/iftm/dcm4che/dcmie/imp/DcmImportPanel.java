@@ -167,6 +167,14 @@ public class DcmImportPanel extends javax.swing.JPanel implements FileSelectionL
     ijPropGridBagConstraints.weightx = 0.5;
     ijPropGridBagConstraints.weighty = 0.5;
     // add(ijPropertyPanel, ijPropGridBagConstraints);
+    
+    // Die Vorschau nur in der Groesse des Panels dekodieren
+    imageBean.setPreviewMode(true);
+    imageBean.addPropertyChangeListener("decodeTime", new java.beans.PropertyChangeListener() {
+      public void propertyChange(java.beans.PropertyChangeEvent evt) {
+        imageBean.setToolTipText("Preview decoded in " + imageBean.getDecodeTime() + " ms (subsampling 1:" + imageBean.getPreviewSubsampling() + ")");
+      }
+    });
   }
 
   
@@ -73,15 +73,22 @@ public class FileInfoPanel extends javax.swing.JPanel implements java.io.Seriali
     // Wenn File nicht gesetzt nichts tun
     if (f == null) return;
     
+    InputStream in = null;
     try {
-      InputStream in = new BufferedInputStream(new FileInputStream(f));
+      in = new BufferedInputStream(new FileInputStream(f));
       DcmParser p = DcmParserFactory.getInstance().newDcmParser(in);
       FileFormat ff = p.detectFileFormat();
-      ds.readFile(in, ff, -1);
+      
+      // Nur den Header lesen, die Pixel Daten werden nicht benoetigt
+      ds = DcmObjectFactory.getInstance().newDataset();
+      ds.readFile(in, ff, Tags.PixelData);
       addInfo();
-      in.close();
     } catch (Exception e) {
       ((DefaultTableModel) infoTable.getModel()).addRow(new String [] {"No DICOM file selected", ""});
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (Exception ignore) {}
     }
     
    }
@@ -0,0 +1,612 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.inspect;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.sax.*;
+import javax.xml.transform.stream.*;
+
+import gnu.getopt.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * Converts the headers of many DICOM files to XML, HTML or DICOM JSON without
+ * a GUI.<br>
+ * The input may be files, directory trees and lists of files. The files are
+ * converted by several threads in parallel. The stylesheet is compiled once
+ * and shared by all threads. The SAX events of the DcmParser are transformed
+ * directly into the output file, so no document is held in memory. DICOM JSON
+ * is written by a DicomJsonWriter.<br>
+ * The output files are written into the output directory. Each directory tree
+ * gets its own subdirectory, named like its root, in which the relative paths
+ * of the files are preserved. If two inputs would get the same output file,
+ * the name of the second is made unique by appending "_2", "_3" and so on.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.10.1
+ */
+public class BatchConverter {
+  
+  
+  /**
+   * Output format: The XML representation of dcm4che.
+   */
+  public final static int   FORMAT_XML = 0;
+  
+  
+  /**
+   * Output format: HTML, created by the stylesheet MetadataToHTML.xsl.
+   */
+  public final static int   FORMAT_HTML = 1;
+  
+  
+  /**
+   * Output format: Created by a user stylesheet.
+   */
+  public final static int   FORMAT_XSLT = 2;
+  
+  
+  /**
+   * Output format: DICOM JSON Model of PS 3.18 - Annex F.
+   */
+  public final static int   FORMAT_JSON = 3;
+  
+  
+  /**
+   * The file name extensions of the formats.
+   */
+  private final static String[] EXTENSIONS = {".xml", ".html", ".xml", ".json"};
+  
+  
+  /**
+   * Returned by convert, if the input file is not a DICOM file.
+   */
+  private final static long   NOT_DICOM = -2;
+  
+  
+  /**
+   * The output directory.
+   */
+  private File                outDir;
+  
+  
+  /**
+   * The output format.
+   */
+  private int                 format = FORMAT_XML;
+  
+  
+  /**
+   * The compiled stylesheet. null for FORMAT_XML.
+   */
+  private Templates           templates = null;
+  
+  
+  /**
+   * The factory for the TransformerHandlers. Access must be synchronized.
+   */
+  private SAXTransformerFactory saxTF;
+  
+  
+  /**
+   * The Dictionary of the tags.
+   */
+  private TagDictionary       dict;
+  
+  
+  /**
+   * The jobs to convert. Elements are File[] {input file, output file}.
+   */
+  private Vector              jobs = new Vector();
+  
+  
+  /**
+   * The paths of the output files and of the subdirectories of the directory
+   * trees already used.
+   */
+  private HashSet             outputs = new HashSet();
+  
+  
+  /**
+   * The next job to be converted by a worker thread.
+   */
+  private int                 next;
+  
+  
+  /**
+   * Statistics of the last conversion.
+   */
+  private int                 converted;
+  private int                 failed;
+  private int                 skipped;
+  private long                bytesIn;
+  private long                bytesOut;
+  private long                elapsed;
+  
+  
+  /**
+   * True, if the conversion should be abandoned.
+   */
+  private boolean             cancelled = false;
+  
+  
+  /**
+   * Creates a new BatchConverter for XML output.
+   * @param outDir the output directory.
+   */
+  public BatchConverter(File outDir) {
+    this.outDir = outDir.getAbsoluteFile();
+    saxTF = (SAXTransformerFactory) TransformerFactory.newInstance();
+    dict = DictionaryFactory.getInstance().getDefaultTagDictionary();
+  }
+  
+  
+  /**
+   * Sets the output format FORMAT_XML, FORMAT_HTML or FORMAT_JSON.
+   * @param format the format.
+   * @exception  TransformerConfigurationException  if the stylesheet can't be
+   *             compiled.
+   */
+  public void setFormat(int format) throws TransformerConfigurationException {
+    URL   url;
+    
+    switch (format) {
+      case FORMAT_XML:
+      case FORMAT_JSON:
+        templates = null;
+        break;
+        
+      case FORMAT_HTML:
+        url = XMLPanel.class.getResource("resources/MetadataToHTML.xsl");
+        if (url == null) throw new TransformerConfigurationException("Stylesheet not found: MetadataToHTML.xsl");
+        templates = saxTF.newTemplates(new StreamSource(url.toString()));
+        break;
+        
+      default:
+        throw new IllegalArgumentException("Format " + format + " requires a stylesheet");
+    }
+    this.format = format;
+  }
+  
+  
+  /**
+   * Sets a user stylesheet. The output format is FORMAT_XSLT.
+   * @param xsl the stylesheet.
+   * @exception  TransformerConfigurationException  if the stylesheet can't be
+   *             compiled.
+   */
+  public void setStylesheet(File xsl) throws TransformerConfigurationException {
+    templates = saxTF.newTemplates(new StreamSource(xsl));
+    format = FORMAT_XSLT;
+  }
+  
+  
+  /**
+   * Adds a file or directory tree to convert.
+   * @param f the file or directory.
+   */
+  public void addInput(File f) {
+    String  name = f.getAbsoluteFile().getName();
+    
+    // Das Wurzelverzeichnis, z.B. "/", hat keinen Namen
+    if (name.length() == 0) name = "root";
+    
+    if (f.isDirectory()) {
+      addDirectory(f, unique(new File(outDir, name)));
+    } else {
+      addJob(f, new File(outDir, name));
+    }
+  }
+  
+  
+  /**
+   * Adds the files of a list. Each line of the list contains the path of a
+   * file or directory. Empty lines and lines starting with '#' are ignored.
+   * @param list the file with the list.
+   * @exception  IOException  in a case of I/O error
+   */
+  public void addInputList(File list) throws IOException {
+    BufferedReader  reader = new BufferedReader(new FileReader(list));
+    String          line;
+    
+    try {
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if ((line.length() == 0) || line.startsWith("#")) continue;
+        addInput(new File(line));
+      }
+    } finally {
+      reader.close();
+    }
+  }
+  
+  
+  /**
+   * Returns the number of files to convert.
+   * @return the number of files.
+   */
+  public int getInputCount() {
+    return jobs.size();
+  }
+  
+  
+  /**
+   * Converts all files.
+   * @param threads the number of threads.
+   * @exception  IOException  if the conversion was cancelled.
+   */
+  public void convert(int threads) throws IOException {
+    Thread[]  workers;
+    long      start = System.currentTimeMillis();
+    
+    synchronized (this) {
+      cancelled = false;
+      next = 0;
+      converted = 0;
+      failed = 0;
+      skipped = 0;
+      bytesIn = 0;
+      bytesOut = 0;
+    }
+    
+    threads = Math.max(1, Math.min(threads, jobs.size()));
+    workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread("BatchConverter") {
+        public void run() {
+          convertAll();
+        }
+      };
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+    for (int i = 0; i < threads; i++) {
+      try {
+        workers[i].join();
+      } catch (InterruptedException e) {
+        cancel();
+      }
+    }
+    
+    synchronized (this) {
+      elapsed = System.currentTimeMillis() - start;
+      if (cancelled) throw new InterruptedIOException("Conversion cancelled");
+    }
+  }
+  
+  
+  /**
+   * Abandons the conversion. Files already converted are not removed.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+  }
+  
+  
+  /**
+   * Returns the number of files converted by the last conversion.
+   * @return the number of files.
+   */
+  public synchronized int getConvertedCount() {
+    return converted;
+  }
+  
+  
+  /**
+   * Returns the number of files, which could not be converted by the last
+   * conversion.
+   * @return the number of files.
+   */
+  public synchronized int getFailedCount() {
+    return failed;
+  }
+  
+  
+  /**
+   * Returns the number of files of the last conversion, which were skipped,
+   * because they are not DICOM files.
+   * @return the number of files.
+   */
+  public synchronized int getSkippedCount() {
+    return skipped;
+  }
+  
+  
+  /**
+   * Returns a summary of the last conversion with the throughput.
+   * @return the summary.
+   */
+  public synchronized String getSummary() {
+    double  seconds = Math.max(elapsed, 1) / 1000.0;
+    
+    return converted + " files converted, " + skipped + " skipped, " + failed + " failed in " + elapsed + " ms ("
+           + Math.round(converted / seconds) + " files/s, "
+           + Math.round(bytesIn / seconds / 1024.0 / 1024.0 * 10.0) / 10.0 + " MB/s read, "
+           + Math.round(bytesOut / seconds / 1024.0 / 1024.0 * 10.0) / 10.0 + " MB/s written)";
+  }
+  
+  
+  /**
+   * Adds the files of a directory tree.
+   * @param d the directory.
+   * @param out the output directory of the files of d.
+   */
+  private void addDirectory(File d, File out) {
+    File[]  files = d.listFiles();
+    
+    if (files == null) return;
+    
+    for (int i = 0; i < files.length; i++) {
+      if (files[i].isDirectory()) {
+        addDirectory(files[i], new File(out, files[i].getName()));
+      } else {
+        addJob(files[i], new File(out, files[i].getName()));
+      }
+    }
+  }
+  
+  
+  /**
+   * Adds a single file.
+   * @param in the DICOM file.
+   * @param out the output file without extension.
+   */
+  private void addJob(File in, File out) {
+    jobs.add(new File[] {in, unique(out)});
+  }
+  
+  
+  /**
+   * Returns an output path, which is not used by an other input yet, and
+   * marks it as used.
+   * @param f the wanted path.
+   * @return f or, if f is already used, f with appended "_2", "_3" and so on.
+   */
+  private File unique(File f) {
+    File  u = f;
+    
+    for (int k = 2; outputs.contains(u.getPath()); k++) {
+      u = new File(f.getPath() + "_" + k);
+    }
+    outputs.add(u.getPath());
+    return u;
+  }
+  
+  
+  /**
+   * Converts files until all are done. Executed by the worker threads.
+   */
+  private void convertAll() {
+    File[]    job;
+    long      length;
+    
+    while (true) {
+      synchronized (this) {
+        if (cancelled || (next >= jobs.size())) return;
+        job = (File[]) jobs.get(next++);
+      }
+      
+      length = convert(job[0], new File(job[1].getPath() + EXTENSIONS[format]));
+      
+      synchronized (this) {
+        if (length >= 0) {
+          converted++;
+          bytesIn += job[0].length();
+          bytesOut += length;
+        } else if (length == NOT_DICOM) {
+          skipped++;
+        } else {
+          failed++;
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Converts a single file.
+   * @param in the DICOM file.
+   * @param out the output file.
+   * @return the length of the output file, NOT_DICOM, if the file is not a
+   *         DICOM file, or -1, if the file could not be converted.
+   */
+  private long convert(File in, File out) {
+    InputStream         dicomStream = null;
+    OutputStream        resultStream = null;
+    TransformerHandler  handler;
+    DcmParser           parser;
+    boolean             dicom;
+    boolean             ok = false;
+    
+    try {
+      dicomStream = new BufferedInputStream(new FileInputStream(in));
+      parser = DcmParserFactory.getInstance().newDcmParser(dicomStream);
+      
+      // Andere Files in den Eingabe Verzeichnissen sind kein Fehler
+      try {
+        dicom = parser.detectFileFormat() != null;
+      } catch (IOException e) {
+        dicom = false;
+      }
+      if (!dicom) {
+        System.err.println("Skipped " + in + ": not a DICOM file");
+        return NOT_DICOM;
+      }
+      
+      out.getParentFile().mkdirs();
+      resultStream = new BufferedOutputStream(new FileOutputStream(out));
+      
+      if (format == FORMAT_JSON) {
+        dicomStream.close();
+        dicomStream = null;
+        new DicomJsonWriter(new OutputStreamWriter(resultStream, "UTF-8")).writeFile(in);
+        resultStream.close();
+        resultStream = null;
+        ok = true;
+        return out.length();
+      }
+      
+      handler = newTransformerHandler();
+      handler.setResult(new StreamResult(resultStream));
+      
+      // Die SAX Events des Parsers direkt in den Ausgabefile transformieren
+      parser.setSAXHandler(handler, dict);
+      parser.parseDcmFile(null, Tags.PixelData);
+      
+      resultStream.close();
+      resultStream = null;
+      ok = true;
+      return out.length();
+      
+    } catch (Exception e) {
+      System.err.println("*** Warning: Can't convert " + in + ": " + e.getMessage());
+      return -1;
+      
+    } finally {
+      try {
+        if (dicomStream != null) dicomStream.close();
+      } catch (IOException ignore) {}
+      try {
+        if (resultStream != null) resultStream.close();
+      } catch (IOException ignore) {}
+      if (!ok) out.delete();
+    }
+  }
+  
+  
+  /**
+   * Creates a TransformerHandler for the output format. The Templates are
+   * shared by all threads, the TransformerHandler is used by one thread only.
+   * @return the TransformerHandler.
+   * @exception  TransformerConfigurationException  if the handler can't be
+   *             created.
+   */
+  private TransformerHandler newTransformerHandler() throws TransformerConfigurationException {
+    TransformerHandler  handler;
+    
+    synchronized (saxTF) {
+      if (templates != null) return saxTF.newTransformerHandler(templates);
+      handler = saxTF.newTransformerHandler();
+    }
+    handler.getTransformer().setOutputProperty(OutputKeys.INDENT, "yes");
+    handler.getTransformer().setOutputProperty(OutputKeys.METHOD, "xml");
+    return handler;
+  }
+  
+  
+  /**
+   * Converts DICOM files without a GUI. The options are:<br>
+   * -o directory  The output directory. Required.<br>
+   * -f format     xml, html or json. Default is xml.<br>
+   * -x file       A user stylesheet. Overrides -f.<br>
+   * -l file       A file with a list of input files or directories.<br>
+   * -t threads    The number of threads. Default is the number of processors.<br>
+   * All other arguments are input files or directories.
+   * @param args the command line arguments
+   */
+  public static void main(String args[]) {
+    Getopt          g;
+    int             c;
+    File            out = null;
+    String          formatName = "xml";
+    File            xsl = null;
+    Vector          lists = new Vector();
+    int             threads = Runtime.getRuntime().availableProcessors();
+    boolean         usage = false;
+    BatchConverter  converter;
+    
+    g = new Getopt("BatchConverter", args, "o:f:x:l:t:");
+    while ((c = g.getopt()) != -1) {
+      switch (c) {
+        case 'o':
+          out = new File(g.getOptarg());
+          break;
+        case 'f':
+          formatName = g.getOptarg();
+          break;
+        case 'x':
+          xsl = new File(g.getOptarg());
+          break;
+        case 'l':
+          lists.add(new File(g.getOptarg()));
+          break;
+        case 't':
+          try {
+            threads = Integer.parseInt(g.getOptarg());
+          } catch (NumberFormatException e) {
+            usage = true;
+          }
+          break;
+        default:
+          usage = true;
+      }
+    }
+    
+    if (usage || (out == null) || ((g.getOptind() >= args.length) && lists.isEmpty())) {
+      System.err.println("Usage: java de.iftm.dcm4che.dcmie.inspect.BatchConverter -o directory [-f xml|html|json] "
+                         + "[-x stylesheet] [-l list] [-t threads] [file|directory ...]");
+      System.exit(1);
+      return;
+    }
+    
+    converter = new BatchConverter(out);
+    try {
+      if (xsl != null) {
+        converter.setStylesheet(xsl);
+      } else if (formatName.equalsIgnoreCase("html")) {
+        converter.setFormat(FORMAT_HTML);
+      } else if (formatName.equalsIgnoreCase("json")) {
+        converter.setFormat(FORMAT_JSON);
+      } else if (formatName.equalsIgnoreCase("xml")) {
+        converter.setFormat(FORMAT_XML);
+      } else {
+        System.err.println("*** Error: Unknown format " + formatName);
+        System.exit(1);
+        return;
+      }
+      
+      for (int i = 0; i < lists.size(); i++) {
+        converter.addInputList((File) lists.get(i));
+      }
+      for (int i = g.getOptind(); i < args.length; i++) {
+        converter.addInput(new File(args[i]));
+      }
+      
+      converter.convert(threads);
+    } catch (Exception e) {
+      e.printStackTrace();
+      System.exit(1);
+      return;
+    }
+    
+    System.out.println(converter.getSummary());
+    System.exit((converter.getFailedCount() > 0) ? 2 : 0);
+  }
+  
+}
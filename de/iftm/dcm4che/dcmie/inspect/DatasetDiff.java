@@ -0,0 +1,616 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.inspect;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * Compares two Datasets element by element. The elements of both Datasets
+ * are walked in one pass in the order of the tags, sequences are compared
+ * item by item. The values are compared as bytes, strings are only created
+ * to describe a difference. Binary values are described by length and hash.
+ * <br>
+ * The main method compares the DICOM files of two directory trees with equal
+ * relative paths in parallel.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.10.2
+ */
+public class DatasetDiff {
+  
+  
+  /**
+   * Difference type: The element exists only in the second Dataset.
+   */
+  public final static int   ADDED = 0;
+  
+  
+  /**
+   * Difference type: The element exists only in the first Dataset.
+   */
+  public final static int   REMOVED = 1;
+  
+  
+  /**
+   * Difference type: The VR or the value of the element differs.
+   */
+  public final static int   CHANGED = 2;
+  
+  
+  /**
+   * The names of the difference types.
+   */
+  public final static String[] TYPE_NAMES = {"added", "removed", "changed"};
+  
+  
+  /**
+   * Maximum number of values shown in the description of a value.
+   */
+  private final static int  MAX_VALUES = 16;
+  
+  
+  /**
+   * The usage of the main method.
+   */
+  private final static String USAGE = 
+    "Usage: java de.iftm.dcm4che.dcmie.inspect.DatasetDiff directory1 directory2 [threads] [-i tag ...]";
+  
+  
+  /**
+   * The tags not to compare.
+   */
+  private HashSet           ignored = new HashSet();
+  
+  
+  /**
+   * The differences found by the last compare.
+   */
+  private Vector            differences;
+  
+  
+  /**
+   * Creates a new DatasetDiff.
+   */
+  public DatasetDiff() {
+  }
+  
+  
+  /**
+   * Excludes a tag from the compare, e.g. a UID changed by the export. The
+   * tag is also ignored in items of sequences.
+   * @param tag the tag.
+   */
+  public void ignore(int tag) {
+    ignored.add(new Integer(tag));
+  }
+  
+  
+  /**
+   * Compares two Datasets.
+   * @param ds1 the first Dataset, e.g. the original.
+   * @param ds2 the second Dataset, e.g. the exported.
+   * @return the differences. Elements of the Vector are Difference objects.
+   *         The Vector is empty, if the Datasets are equal.
+   */
+  public Vector compare(Dataset ds1, Dataset ds2) {
+    differences = new Vector();
+    compareDatasets(ds1, ds2, "");
+    return differences;
+  }
+  
+  
+  /**
+   * Reads the headers of two DICOM files up to the PixelData element and
+   * compares them.
+   * @param f1 the first file.
+   * @param f2 the second file.
+   * @return the differences. Elements of the Vector are Difference objects.
+   * @exception  IOException  in a case of I/O error
+   */
+  public Vector compare(File f1, File f2) throws IOException {
+    return compare(readHeader(f1), readHeader(f2));
+  }
+  
+  
+  /**
+   * Walks the elements of two Datasets in the order of the tags.
+   * @param ds1 the first Dataset.
+   * @param ds2 the second Dataset.
+   * @param path the path of the Datasets, e.g. "(0008,1140)[1]." for an item.
+   */
+  private void compareDatasets(Dataset ds1, Dataset ds2, String path) {
+    Iterator    i1 = ds1.iterator();
+    Iterator    i2 = ds2.iterator();
+    DcmElement  e1 = next(i1);
+    DcmElement  e2 = next(i2);
+    int         t1, t2;
+    
+    // Merge der beiden nach Tags sortierten Folgen
+    while ((e1 != null) || (e2 != null)) {
+      t1 = (e1 == null) ? 0 : e1.tag();
+      t2 = (e2 == null) ? 0 : e2.tag();
+      
+      if ((e2 == null) || ((e1 != null) && (compareTags(t1, t2) < 0))) {
+        add(REMOVED, path, e1, ds1, null, null);
+        e1 = next(i1);
+      } else if ((e1 == null) || (compareTags(t1, t2) > 0)) {
+        add(ADDED, path, null, null, e2, ds2);
+        e2 = next(i2);
+      } else {
+        if (!ignored.contains(new Integer(t1))) compareElements(e1, ds1, e2, ds2, path);
+        e1 = next(i1);
+        e2 = next(i2);
+      }
+    }
+  }
+  
+  
+  /**
+   * Compares two elements with equal tag.
+   * @param e1 the element of the first Dataset.
+   * @param ds1 the first Dataset.
+   * @param e2 the element of the second Dataset.
+   * @param ds2 the second Dataset.
+   * @param path the path of the Datasets.
+   */
+  private void compareElements(DcmElement e1, Dataset ds1, DcmElement e2, Dataset ds2, String path) {
+    String  itemPath;
+    int     n1, n2;
+    
+    // Ignorierte Elemente, auch Sequenzen mit ihren Items, nicht vergleichen
+    if (ignored.contains(new Integer(e1.tag()))) return;
+    
+    if (e1.vr() != e2.vr()) {
+      add(CHANGED, path, e1, ds1, e2, ds2);
+      return;
+    }
+    
+    if (e1.vr() == VRs.SQ) {
+      n1 = e1.vm();
+      n2 = e2.vm();
+      for (int k = 0; k < Math.max(n1, n2); k++) {
+        itemPath = path + tagToString(e1.tag()) + "[" + (k + 1) + "]";
+        if (k >= n2) {
+          differences.add(new Difference(REMOVED, itemPath, "item", null));
+        } else if (k >= n1) {
+          differences.add(new Difference(ADDED, itemPath, null, "item"));
+        } else {
+          compareDatasets(e1.getItem(k), e2.getItem(k), itemPath + ".");
+        }
+      }
+      return;
+    }
+    
+    // Die Werte als Bytes vergleichen
+    if (!equalValues(e1, e2)) add(CHANGED, path, e1, ds1, e2, ds2);
+  }
+  
+  
+  /**
+   * Compares the values of two elements byte by byte.
+   * @param e1 the first element.
+   * @param e2 the second element.
+   * @return true, if the values are equal.
+   */
+  private static boolean equalValues(DcmElement e1, DcmElement e2) {
+    if (e1.length() != e2.length()) return false;
+    if (e1.hasDataFragments() || e2.hasDataFragments()) {
+      if (e1.vm() != e2.vm()) return false;
+      for (int k = 0; k < e1.vm(); k++) {
+        if (!equalBuffers(e1.getDataFragment(k), e2.getDataFragment(k))) return false;
+      }
+      return true;
+    }
+    return equalBuffers(e1.getByteBuffer(), e2.getByteBuffer());
+  }
+  
+  
+  /**
+   * Compares the remaining bytes of two buffers.
+   * @param b1 the first buffer. May be null.
+   * @param b2 the second buffer. May be null.
+   * @return true, if the bytes are equal.
+   */
+  private static boolean equalBuffers(ByteBuffer b1, ByteBuffer b2) {
+    if ((b1 == null) || (b2 == null)) return b1 == b2;
+    return b1.equals(b2);
+  }
+  
+  
+  /**
+   * Adds a difference of an element.
+   * @param type the type of the difference.
+   * @param path the path of the Datasets.
+   * @param e1 the element of the first Dataset or null.
+   * @param ds1 the first Dataset or null.
+   * @param e2 the element of the second Dataset or null.
+   * @param ds2 the second Dataset or null.
+   */
+  private void add(int type, String path, DcmElement e1, Dataset ds1, DcmElement e2, Dataset ds2) {
+    int   tag = (e1 != null) ? e1.tag() : e2.tag();
+    
+    if (ignored.contains(new Integer(tag))) return;
+    differences.add(new Difference(type, path + tagToString(tag), 
+                                   (e1 == null) ? null : describe(e1, ds1), 
+                                   (e2 == null) ? null : describe(e2, ds2)));
+  }
+  
+  
+  /**
+   * Describes the value of an element. Binary values are described by their
+   * length and hash, not by their values.
+   * @param e the element.
+   * @param ds the Dataset containing the element.
+   * @return the description.
+   */
+  private static String describe(DcmElement e, Dataset ds) {
+    StringBuffer  sb = new StringBuffer();
+    String[]      values;
+    ByteBuffer    bb;
+    
+    sb.append(VRs.toString(e.vr())).append(' ');
+    switch (e.vr()) {
+      case VRs.SQ:
+        return sb.append(e.vm()).append(" items").toString();
+        
+      case VRs.OB:
+      case VRs.OW:
+      case VRs.OF:
+      case VRs.UN:
+        sb.append("length ").append(e.length());
+        bb = e.hasDataFragments() ? null : e.getByteBuffer();
+        if (bb != null) sb.append(", hash ").append(Integer.toHexString(bb.hashCode()));
+        return sb.toString();
+    }
+    
+    try {
+      values = e.getStrings(ds.getCharset());
+      for (int k = 0; (k < values.length) && (k < MAX_VALUES); k++) {
+        if (k > 0) sb.append('\\');
+        sb.append(values[k]);
+      }
+      if (values.length > MAX_VALUES) sb.append("\\...");
+    } catch (Exception ex) {
+      sb.append("length ").append(e.length());
+    }
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Compares two tags as unsigned values.
+   * @param t1 the first tag.
+   * @param t2 the second tag.
+   * @return a negative value, zero or a positive value, if t1 is less, equal
+   *         or greater than t2.
+   */
+  private static int compareTags(int t1, int t2) {
+    if (t1 == t2) return 0;
+    return ((t1 ^ 0x80000000) < (t2 ^ 0x80000000)) ? -1 : 1;
+  }
+  
+  
+  /**
+   * Returns the next element of an iterator.
+   * @param i the iterator.
+   * @return the next element or null, if there is none.
+   */
+  private static DcmElement next(Iterator i) {
+    return i.hasNext() ? (DcmElement) i.next() : null;
+  }
+  
+  
+  /**
+   * Returns the tag in the form (gggg,eeee).
+   * @param tag the tag.
+   * @return the string.
+   */
+  private static String tagToString(int tag) {
+    String  s = "0000000" + Integer.toHexString(tag);
+    s = s.substring(s.length() - 8);
+    return "(" + s.substring(0, 4) + "," + s.substring(4) + ")";
+  }
+  
+  
+  /**
+   * Reads the header of a DICOM file up to the PixelData element.
+   * @param f the file.
+   * @return the Dataset.
+   * @exception  IOException  in a case of I/O error
+   */
+  private static Dataset readHeader(File f) throws IOException {
+    InputStream   in = null;
+    Dataset       ds;
+    DcmParser     p;
+    
+    try {
+      in = new BufferedInputStream(new FileInputStream(f));
+      p = DcmParserFactory.getInstance().newDcmParser(in);
+      ds = DcmObjectFactory.getInstance().newDataset();
+      p.setDcmHandler(ds.getDcmHandler());
+      p.parseDcmFile(p.detectFileFormat(), Tags.PixelData);
+      return ds;
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException ignore) {}
+    }
+  }
+  
+  
+  /**
+   * Compares the DICOM files of two directory trees without a GUI. Files are
+   * paired by their relative paths.<br>
+   * Usage: java de.iftm.dcm4che.dcmie.inspect.DatasetDiff directory1 directory2 
+   * [threads] [-i tag ...]<br>
+   * The exit code is 0, if all pairs are equal, 2 if differences were found
+   * and 1 in case of an error.
+   * @param args the command line arguments
+   */
+  public static void main(String args[]) {
+    int           threads = Runtime.getRuntime().availableProcessors();
+    int           argIndex = 2;
+    DirectoryDiff dd;
+    long          start;
+    
+    if (args.length < 2) {
+      System.err.println(USAGE);
+      System.exit(1);
+      return;
+    }
+    
+    dd = new DirectoryDiff(new File(args[0]), new File(args[1]));
+    try {
+      if ((args.length > argIndex) && !args[argIndex].equals("-i")) {
+        threads = Integer.parseInt(args[argIndex++]);
+      }
+      if ((args.length > argIndex) && args[argIndex].equals("-i")) {
+        for (int i = argIndex + 1; i < args.length; i++) {
+          try {
+            dd.ignored.add(new Integer(Tags.forName(args[i])));
+          } catch (Exception e) {
+            // Kein Name des Dictionary: Als Hex Zahl interpretieren
+            dd.ignored.add(new Integer((int) Long.parseLong(args[i], 16)));
+          }
+        }
+      }
+    } catch (NumberFormatException e) {
+      System.err.println("*** Error: Invalid thread count or tag: " + e.getMessage());
+      System.err.println(USAGE);
+      System.exit(1);
+      return;
+    }
+    
+    start = System.currentTimeMillis();
+    dd.run(threads);
+    System.out.println(dd.pairs + " pairs compared in " + (System.currentTimeMillis() - start) + " ms: " 
+                       + dd.equal + " equal, " + dd.different + " different, " 
+                       + dd.unpaired + " without partner, " + dd.failed + " not readable");
+    System.exit(((dd.different > 0) || (dd.unpaired > 0) || (dd.failed > 0)) ? 2 : 0);
+  }
+  
+  
+  /**
+   * A difference between two Datasets.
+   */
+  public static class Difference {
+    
+    /** The type: ADDED, REMOVED or CHANGED. */
+    private int     type;
+    
+    /** The path of the element, e.g. "(0008,1140)[1].(0008,1150)". */
+    private String  path;
+    
+    /** The description of the values. null, if the element is missing. */
+    private String  value1;
+    private String  value2;
+    
+    Difference(int type, String path, String value1, String value2) {
+      this.type = type;
+      this.path = path;
+      this.value1 = value1;
+      this.value2 = value2;
+    }
+    
+    /**
+     * Returns the type of the difference.
+     * @return ADDED, REMOVED or CHANGED.
+     */
+    public int getType() {
+      return type;
+    }
+    
+    /**
+     * Returns the path of the element.
+     * @return the path, e.g. "(0008,1140)[1].(0008,1150)".
+     */
+    public String getPath() {
+      return path;
+    }
+    
+    /**
+     * Returns the description of the value in the first Dataset.
+     * @return the description or null, if the element was added.
+     */
+    public String getValue1() {
+      return value1;
+    }
+    
+    /**
+     * Returns the description of the value in the second Dataset.
+     * @return the description or null, if the element was removed.
+     */
+    public String getValue2() {
+      return value2;
+    }
+    
+    public String toString() {
+      switch (type) {
+        case ADDED:   return path + " added: " + value2;
+        case REMOVED: return path + " removed: " + value1;
+        default:      return path + " changed: " + value1 + " -> " + value2;
+      }
+    }
+  }
+  
+  
+  /**
+   * Compares the files of two directory trees in parallel.
+   */
+  private static class DirectoryDiff {
+    
+    File      dir1;
+    File      dir2;
+    HashSet   ignored = new HashSet();
+    Vector    paths = new Vector();
+    int       next = 0;
+    int       pairs = 0;
+    int       equal = 0;
+    int       different = 0;
+    int       unpaired = 0;
+    int       failed = 0;
+    
+    DirectoryDiff(File dir1, File dir2) {
+      this.dir1 = dir1;
+      this.dir2 = dir2;
+    }
+    
+    /**
+     * Compares all pairs.
+     * @param threads the number of threads.
+     */
+    void run(int threads) {
+      Thread[]  workers;
+      
+      listFiles(dir1, "", paths);
+      
+      // Files, die nur im zweiten Verzeichnis vorhanden sind
+      Vector v2 = new Vector();
+      listFiles(dir2, "", v2);
+      HashSet s1 = new HashSet(paths);
+      for (int i = 0; i < v2.size(); i++) {
+        if (!s1.contains(v2.get(i))) {
+          System.out.println(v2.get(i) + ": only in " + dir2);
+          unpaired++;
+        }
+      }
+      
+      threads = Math.max(1, Math.min(threads, paths.size()));
+      workers = new Thread[threads];
+      for (int i = 0; i < threads; i++) {
+        workers[i] = new Thread("DatasetDiff") {
+          public void run() {
+            compareAll();
+          }
+        };
+        workers[i].setDaemon(true);
+        workers[i].start();
+      }
+      for (int i = 0; i < threads; i++) {
+        try {
+          workers[i].join();
+        } catch (InterruptedException ignore) {}
+      }
+    }
+    
+    /**
+     * Compares pairs until all are done. Executed by the worker threads.
+     */
+    private void compareAll() {
+      DatasetDiff   diff = new DatasetDiff();
+      String        path;
+      File          f2;
+      Vector        result;
+      StringBuffer  sb = new StringBuffer();
+      
+      diff.ignored = ignored;
+      while (true) {
+        synchronized (this) {
+          if (next >= paths.size()) return;
+          path = (String) paths.get(next++);
+        }
+        
+        f2 = new File(dir2, path);
+        sb.setLength(0);
+        if (!f2.isFile()) {
+          sb.append(path).append(": only in ").append(dir1);
+          synchronized (this) {
+            unpaired++;
+            System.out.println(sb);
+          }
+          continue;
+        }
+        
+        try {
+          result = diff.compare(new File(dir1, path), f2);
+        } catch (Exception e) {
+          synchronized (this) {
+            failed++;
+            System.out.println(path + ": " + e.getMessage());
+          }
+          continue;
+        }
+        
+        // Die Ausgabe eines Paares zusammenhaengend schreiben
+        for (int i = 0; i < result.size(); i++) {
+          sb.append(path).append(": ").append(result.get(i)).append('\n');
+        }
+        synchronized (this) {
+          pairs++;
+          if (result.isEmpty()) {
+            equal++;
+          } else {
+            different++;
+            System.out.print(sb);
+          }
+        }
+      }
+    }
+    
+    /**
+     * Lists all files of a directory tree.
+     * @param d the directory.
+     * @param prefix the path of the directory relative to the root directory.
+     * @param v the Vector to add the relative paths, separated by '/'.
+     */
+    private static void listFiles(File d, String prefix, Vector v) {
+      File[]  files = d.listFiles();
+      
+      if (files == null) return;
+      
+      for (int i = 0; i < files.length; i++) {
+        if (files[i].isDirectory()) {
+          listFiles(files[i], prefix + files[i].getName() + "/", v);
+        } else {
+          v.add(prefix + files[i].getName());
+        }
+      }
+    }
+  }
+  
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.inspect;
+
+import java.nio.charset.*;
+import java.util.*;
+import javax.swing.table.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * A tree-table model of the elements of a Dataset. Initially only the
+ * elements of the top level are rows. The items of a sequence and the
+ * elements of an item become rows, when the sequence or item is expanded by
+ * toggle(). The values are formatted, when a row is painted the first time.
+ * So the time to show a Dataset does not depend on the depth and number of
+ * its sequence items.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.29
+ */
+public class DatasetTableModel extends AbstractTableModel {
+  
+  
+  /**
+   * The names of the columns.
+   */
+  private final static String[] COLUMN_NAMES = {"Name", "Tag", "VR", "VM", "Length", "Data"};
+  
+  
+  /**
+   * The maximum number of values of a multi-valued element, which are
+   * formatted.
+   */
+  private final static int      MAX_VALUES = 64;
+  
+  
+  /**
+   * The dictionary of the tags.
+   */
+  private TagDictionary   dict;
+  
+  
+  /**
+   * The visible rows. The elements are Nodes. The descendants of an expanded
+   * node follow the node.
+   */
+  private Vector          rows = new Vector();
+  
+  
+  /**
+   * Creates a new DatasetTableModel.
+   * @param dict the dictionary of the tags.
+   */
+  public DatasetTableModel(TagDictionary dict) {
+    this.dict = dict;
+  }
+  
+  
+  /**
+   * Shows the elements of a Dataset. All sequences are collapsed.
+   * @param ds the Dataset. null clears the table.
+   */
+  public void setDataset(Dataset ds) {
+    rows.clear();
+    if (ds != null) rows.addAll(getChildren(ds, 0));
+    fireTableDataChanged();
+  }
+  
+  
+  /**
+   * Appends a row with fixed values at the top level.
+   * @param col the values of the columns.
+   */
+  public void addRow(String[] col) {
+    Node  n = new Node();
+    
+    n.cols = col;
+    rows.add(n);
+    fireTableRowsInserted(rows.size() - 1, rows.size() - 1);
+  }
+  
+  
+  /**
+   * Removes all rows.
+   */
+  public void clear() {
+    rows.clear();
+    fireTableDataChanged();
+  }
+  
+  
+  /**
+   * Tests, if a row is a sequence or an item, which can be expanded.
+   * @param row the row.
+   * @return true, if the row can be expanded.
+   */
+  public boolean isExpandable(int row) {
+    return getNode(row).isExpandable();
+  }
+  
+  
+  /**
+   * Tests, if a row is expanded.
+   * @param row the row.
+   * @return true, if the row is expanded.
+   */
+  public boolean isExpanded(int row) {
+    return getNode(row).expanded;
+  }
+  
+  
+  /**
+   * Expands or collapses a sequence or item.
+   * @param row the row.
+   */
+  public void toggle(int row) {
+    Node    n = getNode(row);
+    Vector  children;
+    int     end;
+    
+    if (!n.isExpandable()) return;
+    
+    if (n.expanded) {
+      // Alle Nachkommen entfernen
+      end = row + 1;
+      while ((end < rows.size()) && (((Node) rows.get(end)).depth > n.depth)) end++;
+      n.expanded = false;
+      if (n.cols != null) n.cols[0] = null;
+      if (end > row + 1) {
+        rows.subList(row + 1, end).clear();
+        fireTableRowsDeleted(row + 1, end - 1);
+      }
+    } else {
+      // Nur die direkten Kinder einfuegen
+      if (n.item != null) {
+        children = getChildren(n.item, n.depth + 1);
+      } else {
+        children = new Vector();
+        for (int i = 0, c = n.element.vm(); i < c; i++) {
+          Node item = new Node();
+          item.depth = n.depth + 1;
+          item.item = n.element.getItem(i);
+          item.itemIndex = i;
+          children.add(item);
+        }
+      }
+      n.expanded = true;
+      if (n.cols != null) n.cols[0] = null;
+      rows.addAll(row + 1, children);
+      if (children.size() > 0) fireTableRowsInserted(row + 1, row + children.size());
+    }
+    fireTableRowsUpdated(row, row);
+  }
+  
+  
+  /**
+   * Returns the number of rows.
+   * @return the number of rows.
+   */
+  public int getRowCount() {
+    return rows.size();
+  }
+  
+  
+  /**
+   * Returns the number of columns.
+   * @return the number of columns.
+   */
+  public int getColumnCount() {
+    return COLUMN_NAMES.length;
+  }
+  
+  
+  /**
+   * Returns the name of a column.
+   * @param column the column.
+   * @return the name.
+   */
+  public String getColumnName(int column) {
+    return COLUMN_NAMES[column];
+  }
+  
+  
+  /**
+   * Returns the class of a column.
+   * @param column the column.
+   * @return String.class.
+   */
+  public Class getColumnClass(int column) {
+    return String.class;
+  }
+  
+  
+  /**
+   * Returns a value. The values of a row are formatted, when it is painted
+   * the first time.
+   * @param row the row.
+   * @param column the column.
+   * @return the value.
+   */
+  public Object getValueAt(int row, int column) {
+    Node  n = getNode(row);
+    
+    if (n.cols == null) n.cols = new String[COLUMN_NAMES.length];
+    if ((n.cols[column] == null) && ((n.element != null) || (n.item != null))) format(n);
+    return n.cols[column];
+  }
+  
+  
+  /**
+   * Returns the node of a row.
+   * @param row the row.
+   * @return the node.
+   */
+  private Node getNode(int row) {
+    return (Node) rows.get(row);
+  }
+  
+  
+  /**
+   * Creates the nodes of the elements of a Dataset.
+   * @param ds the Dataset.
+   * @param depth the depth of the nodes.
+   * @return the nodes.
+   */
+  private Vector getChildren(Dataset ds, int depth) {
+    Vector  v = new Vector(ds.size());
+    Node    n;
+    
+    for (Iterator i = ds.iterator(); i.hasNext(); ) {
+      n = new Node();
+      n.depth = depth;
+      n.element = (DcmElement) i.next();
+      n.charset = ds.getCharset();
+      v.add(n);
+    }
+    return v;
+  }
+  
+  
+  /**
+   * Formats the values of a node. Values, which are already formatted, are
+   * kept.
+   * @param n the node.
+   */
+  private void format(Node n) {
+    StringBuffer  sb = new StringBuffer();
+    String        tagString;
+    DcmElement    e = n.element;
+    
+    // Einrueckung und Zustand von Sequenzen und Items
+    for (int i = 0; i < n.depth; i++) sb.append("> ");
+    if (n.isExpandable()) sb.append(n.expanded ? "- " : "+ ");
+    
+    if (n.item != null) {
+      sb.append("Item ").append(n.itemIndex + 1);
+      n.cols[0] = sb.toString();
+      for (int c = 1; c < n.cols.length; c++) {
+        if (n.cols[c] == null) n.cols[c] = "";
+      }
+      n.cols[5] = n.item.size() + " elements";
+      return;
+    }
+    
+    if (n.cols[0] == null) {
+      try {
+        sb.append(dict.lookup(e.tag()).name);
+      } catch (Exception ex) {
+        sb.append("[Private Tag]");
+      }
+      n.cols[0] = sb.toString();
+    }
+    if (n.cols[1] != null) return;
+    
+    tagString = "0000000" + Integer.toHexString(e.tag());
+    tagString = tagString.substring(tagString.length() - 8);
+    n.cols[1] = "(" + tagString.substring(0, 4) + ", " + tagString.substring(4) + ")";
+    n.cols[2] = VRs.toString(e.vr());
+    n.cols[3] = Integer.toString(e.vm());
+    n.cols[4] = Integer.toString(e.length());
+    n.cols[5] = "";
+    
+    if (e.length() == 0) return;
+    
+    if (e.vr() == VRs.SQ) {
+      n.cols[5] = e.vm() + " items";
+      return;
+    }
+    
+    // Hoechstens MAX_VALUES Werte formatieren
+    try {
+      String[] values = e.getStrings(n.charset);
+      sb.setLength(0);
+      for (int i = 0; (i < values.length) && (i < MAX_VALUES); i++) {
+        if (i > 0) sb.append('\\');
+        sb.append(values[i]);
+      }
+      if (values.length > MAX_VALUES) sb.append("\\...");
+      n.cols[5] = sb.toString();
+    } catch (Exception ignore) {}
+  }
+  
+  
+  /**
+   * A row of the table. Either an element, an item of a sequence or a row
+   * with fixed values.
+   */
+  private static class Node {
+    
+    /** The depth in the tree. */
+    int           depth = 0;
+    
+    /** The element or null for an item or a fixed row. */
+    DcmElement    element = null;
+    
+    /** The charset of the Dataset containing the element. */
+    Charset       charset = null;
+    
+    /** The item or null for an element or a fixed row. */
+    Dataset       item = null;
+    
+    /** The index of the item in the sequence. */
+    int           itemIndex = 0;
+    
+    /** True, if the sequence or item is expanded. */
+    boolean       expanded = false;
+    
+    /** The formatted values. null, until the row is painted. */
+    String[]      cols = null;
+    
+    boolean isExpandable() {
+      if (item != null) return true;
+      return (element != null) && (element.vr() == VRs.SQ) && (element.vm() > 0);
+    }
+  }
+  
+}
@@ -42,12 +42,77 @@ public class DcmDirTab extends javax.swing.JPanel implements java.io.Serializabl
   // The last selected DICOM-Directory file
   private File    lastDICOMDIRFile = null;
   
+  // The last selected root directory of a catalog
+  private File    lastCatalogDir = null;
+  
+  // Starts the verification of the DICOMDIR
+  private javax.swing.JButton   verifyBtn;
+  
   
   /**
    * Creates new form DirPanel
    */
   public DcmDirTab() {
     initComponents();
+    myInitComponents();
+  }
+  
+  
+  /**
+   * Adds the components, which are not created by the form editor.
+   */
+  private void myInitComponents() {
+    java.awt.GridBagLayout        layout = (java.awt.GridBagLayout) getLayout();
+    java.awt.GridBagConstraints   gridBagConstraints;
+    javax.swing.JButton           catalogBtn;
+    javax.swing.JButton           folderBtn;
+    
+    catalogBtn = new javax.swing.JButton("Catalog");
+    catalogBtn.setToolTipText("Merge all DICOMDIRs below a directory");
+    catalogBtn.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        catalogBtnActionPerformed(evt);
+      }
+    });
+    
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 2;
+    gridBagConstraints.gridy = 0;
+    gridBagConstraints.insets = new java.awt.Insets(5, 0, 5, 5);
+    add(catalogBtn, gridBagConstraints);
+    
+    folderBtn = new javax.swing.JButton("Folder");
+    folderBtn.setToolTipText("Show the DICOM files below a directory without DICOMDIR");
+    folderBtn.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        folderBtnActionPerformed(evt);
+      }
+    });
+    
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 3;
+    gridBagConstraints.gridy = 0;
+    gridBagConstraints.insets = new java.awt.Insets(5, 0, 5, 5);
+    add(folderBtn, gridBagConstraints);
+    
+    verifyBtn = new javax.swing.JButton("Verify");
+    verifyBtn.setToolTipText("Check the files referenced by the DICOMDIR");
+    verifyBtn.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        verifyBtnActionPerformed(evt);
+      }
+    });
+    
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 4;
+    gridBagConstraints.gridy = 0;
+    gridBagConstraints.insets = new java.awt.Insets(5, 0, 5, 5);
+    add(verifyBtn, gridBagConstraints);
+    
+    // Die Tabelle ueber alle Spalten ausdehnen
+    gridBagConstraints = layout.getConstraints(dirTable);
+    gridBagConstraints.gridwidth = 5;
+    layout.setConstraints(dirTable, gridBagConstraints);
   }
   
   
@@ -72,24 +137,147 @@ public class DcmDirTab extends javax.swing.JPanel implements java.io.Serializabl
   
   
   /**
-   * Set a new DICOMDIR directory file.
-   * @param f the DICOMDIR directory file.
+   * Set a new DICOMDIR directory file. If f is a directory, the DICOM files of
+   * the directory tree are shown. Their headers are stored in an index file,
+   * so only new and modified files are read again.
+   * @param f the DICOMDIR directory file or a directory.
    */
   public void setDICOMDIR(File f) {
     
     if (f == null) return;
     
-    lastDICOMDIRFile = f;
-    
     // Textfeld updaten
     dcmDirText.setText(f.toString());
     
-    dirTable.setDICOMDIR(f);
+    if (f.isDirectory()) {
+      // Verify bezieht sich nur auf einen DICOMDIR File
+      lastDICOMDIRFile = null;
+      lastCatalogDir = f;
+      dirTable.setFolder(f);
+    } else {
+      lastDICOMDIRFile = f;
+      dirTable.setDICOMDIR(f);
+    }
 
     validate();
   }
 
   
+  /**
+   * Set a catalog of all DICOMDIR files below a directory.
+   * @param dir the root directory of the catalog.
+   */
+  public void setCatalog(File dir) {
+    if (dir == null) return;
+    
+    // Verify bezieht sich nur auf einen DICOMDIR File
+    lastDICOMDIRFile = null;
+    lastCatalogDir = dir;
+    
+    // Textfeld updaten
+    dcmDirText.setText(dir.toString() + " (catalog)");
+    
+    // Die DICOMDIRs werden im Hintergrund gesucht
+    dirTable.setCatalog(dir);
+    
+    validate();
+  }
+  
+  
+  private void catalogBtnActionPerformed(java.awt.event.ActionEvent evt) {
+    File  f = null;
+    
+    if (lastCatalogDir == null) {
+      f = FileChooser.openDir("Select the root directory of the DICOMDIRs", new File("/"));
+    } else {
+      f = FileChooser.openDir("Select the root directory of the DICOMDIRs", lastCatalogDir);
+    }
+    
+    setCatalog(f);
+  }
+
+  
+  private void folderBtnActionPerformed(java.awt.event.ActionEvent evt) {
+    File  f = null;
+    
+    if (lastCatalogDir == null) {
+      f = FileChooser.openDir("Select a directory with DICOM files", new File("/"));
+    } else {
+      f = FileChooser.openDir("Select a directory with DICOM files", lastCatalogDir);
+    }
+    
+    setDICOMDIR(f);
+  }
+
+  
+  /**
+   * Checks the files referenced by the current DICOMDIR in the background and
+   * shows the problems found.
+   */
+  private void verifyBtnActionPerformed(java.awt.event.ActionEvent evt) {
+    final DirVerifier   verifier;
+    
+    if ((lastDICOMDIRFile == null) || !lastDICOMDIRFile.isFile()) {
+      javax.swing.JOptionPane.showMessageDialog(this, "No DICOMDIR file selected", 
+                                                "Verify", javax.swing.JOptionPane.WARNING_MESSAGE);
+      return;
+    }
+    
+    verifier = new DirVerifier(lastDICOMDIRFile);
+    verifyBtn.setEnabled(false);
+    Thread t = new Thread("DirVerifier") {
+      public void run() {
+        String  msg;
+        
+        try {
+          verifier.verify(Runtime.getRuntime().availableProcessors());
+          msg = null;
+        } catch (IOException e) {
+          msg = "Could not read DICOMDIR: " + e.getMessage();
+        }
+        
+        final String error = msg;
+        javax.swing.SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            verifyBtn.setEnabled(true);
+            showVerifyResult(verifier, error);
+          }
+        });
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+  
+  
+  /**
+   * Shows the result of a verification.
+   * @param verifier the verifier.
+   * @param error the error message or null, if the verification was completed.
+   */
+  private void showVerifyResult(DirVerifier verifier, String error) {
+    String[]                  problems;
+    javax.swing.JTextArea     text;
+    javax.swing.JScrollPane   scroll;
+    
+    if (error != null) {
+      javax.swing.JOptionPane.showMessageDialog(this, error, "Verify", javax.swing.JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    
+    problems = verifier.getProblems();
+    text = new javax.swing.JTextArea(verifier.getSummary() + "\n", 20, 80);
+    text.setEditable(false);
+    for (int i = 0; i < problems.length; i++) {
+      text.append("\n" + problems[i]);
+    }
+    scroll = new javax.swing.JScrollPane(text);
+    
+    javax.swing.JOptionPane.showMessageDialog(this, scroll, "Verify", 
+      (problems.length > 0) ? javax.swing.JOptionPane.WARNING_MESSAGE : javax.swing.JOptionPane.INFORMATION_MESSAGE);
+  }
+
+  
   public DirTable getDirTable () {
     return dirTable;
   }
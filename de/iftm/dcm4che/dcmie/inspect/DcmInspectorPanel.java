@@ -43,6 +43,18 @@ public class DcmInspectorPanel extends javax.swing.JPanel implements java.io.Ser
 	 * Version number of this plugin
 	 */
 	public final static String    VERSION = "1.0.0";
+  
+  
+  /**
+   * Compares tags across the selected files
+   */
+  private SeriesPanel           seriesPanel;
+  
+  
+  /**
+   * Shows the raw bytes of the selected file
+   */
+  private HexPanel              hexPanel;
  
   
   /**
@@ -77,6 +89,16 @@ public class DcmInspectorPanel extends javax.swing.JPanel implements java.io.Ser
     xmlPanel.setUp(dcmieParam);
     selInputPanel.getFileSystemTab().getTreePanel().addFileSelectionListener(xmlPanel);
     selInputPanel.getDICOMDIRTab().getDirTable().addFileSelectionListener(xmlPanel);
+
+    // SeriesPanel Tabs initialisieren und als fileSelectionListener registrieren
+    seriesPanel.setUp(dcmieParam);
+    selInputPanel.getFileSystemTab().getTreePanel().addFileSelectionListener(seriesPanel);
+    selInputPanel.getDICOMDIRTab().getDirTable().addFileSelectionListener(seriesPanel);
+
+    // HexPanel Tabs initialisieren und als fileSelectionListener registrieren
+    hexPanel.setUp(dcmieParam);
+    selInputPanel.getFileSystemTab().getTreePanel().addFileSelectionListener(hexPanel);
+    selInputPanel.getDICOMDIRTab().getDirTable().addFileSelectionListener(hexPanel);
   }
 
   
@@ -86,6 +108,12 @@ public class DcmInspectorPanel extends javax.swing.JPanel implements java.io.Ser
   private void myInitComponents() {
     thisCopyright.setText("(c) 2002 by Thomas Hacklaender under the GNU General Public License. Version: " + VERSION);
     dcmCopyright.setText("Based on the DICOM library http://sourceforge.net/projects/dcm4che/ by Gunter Zeilinger. Version: " + Implementation.getVersionName());
+    
+    seriesPanel = new SeriesPanel();
+    mainTabPane.addTab("Series View", seriesPanel);
+    
+    hexPanel = new HexPanel();
+    mainTabPane.addTab("Hex View", hexPanel);
   }
 
   
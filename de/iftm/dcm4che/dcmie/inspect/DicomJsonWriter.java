@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.inspect;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * Writes Datasets in the DICOM JSON Model of PS 3.18 - Annex F.<br>
+ * The elements are written one after the other while iterating over the
+ * Dataset, no document is built in memory. Binary values longer than the bulk
+ * data threshold are not written inline, but referenced by a BulkDataURI,
+ * which contains the offset and length of the value in the source file. This
+ * is also done for the PixelData element, which is never read.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.10.1
+ */
+public class DicomJsonWriter {
+  
+  
+  /**
+   * The default maximum length of binary values written inline.
+   */
+  public final static int   DEFAULT_BULK_DATA_THRESHOLD = 1024;
+  
+  
+  /**
+   * The characters of the Base64 encoding.
+   */
+  private final static char[] BASE64 = 
+    "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+  
+  
+  /**
+   * The component names of a person name.
+   */
+  private final static String[] PN_GROUPS = {"Alphabetic", "Ideographic", "Phonetic"};
+  
+  
+  /**
+   * The output.
+   */
+  private Writer        out;
+  
+  
+  /**
+   * The maximum length of binary values written inline.
+   */
+  private int           bulkDataThreshold = DEFAULT_BULK_DATA_THRESHOLD;
+  
+  
+  /**
+   * The URI of the source file of the Dataset written. null, if all values are
+   * written inline.
+   */
+  private String        sourceURI = null;
+  
+  
+  /**
+   * Creates a new DicomJsonWriter.
+   * @param out the output. The Writer should be buffered.
+   */
+  public DicomJsonWriter(Writer out) {
+    this.out = out;
+  }
+  
+  
+  /**
+   * Sets the maximum length of binary values written inline. Longer values
+   * are referenced by a BulkDataURI, if the source file is known.
+   * @param threshold the length in bytes.
+   */
+  public void setBulkDataThreshold(int threshold) {
+    bulkDataThreshold = threshold;
+  }
+  
+  
+  /**
+   * Writes a Dataset. All values are written inline.
+   * @param ds the Dataset.
+   * @exception  IOException  in a case of I/O error
+   */
+  public void write(Dataset ds) throws IOException {
+    sourceURI = null;
+    writeDataset(ds, 0, null);
+    out.write('\n');
+    out.flush();
+  }
+  
+  
+  /**
+   * Reads the header of a DICOM file up to the PixelData element and writes
+   * it. The File Meta Information is not written. The PixelData element is
+   * referenced by a BulkDataURI.
+   * @param f the DICOM file.
+   * @exception  IOException  in a case of I/O error
+   */
+  public void writeFile(File f) throws IOException {
+    InputStream   in = null;
+    Dataset       ds;
+    String        pixelData = null;
+    DcmParser     p;
+    
+    try {
+      in = new BufferedInputStream(new FileInputStream(f));
+      p = DcmParserFactory.getInstance().newDcmParser(in);
+      ds = DcmObjectFactory.getInstance().newDataset();
+      p.setDcmHandler(ds.getDcmHandler());
+      p.parseDcmFile(p.detectFileFormat(), Tags.PixelData);
+      
+      sourceURI = f.getAbsoluteFile().toURI().toString();
+      
+      // Die Pixel Daten werden nicht gelesen, nur referenziert
+      if (p.getReadTag() == Tags.PixelData) {
+        pixelData = "\"" + tagToString(Tags.PixelData) + "\": {\"vr\": \"" + VRs.toString(p.getReadVR()) 
+                    + "\", \"BulkDataURI\": \"" + bulkDataURI(p.getStreamPosition(), p.getReadLength()) + "\"}";
+      }
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException ignore) {}
+    }
+    
+    writeDataset(ds, 0, pixelData);
+    out.write('\n');
+    out.flush();
+    sourceURI = null;
+  }
+  
+  
+  /**
+   * Writes a Dataset as JSON object.
+   * @param ds the Dataset.
+   * @param depth the nesting depth for the indentation.
+   * @param last an already formatted member, written after the elements of
+   *        the Dataset. May be null.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void writeDataset(Dataset ds, int depth, String last) throws IOException {
+    DcmElement  e;
+    boolean     first = true;
+    
+    out.write('{');
+    for (Iterator i = ds.iterator(); i.hasNext(); ) {
+      e = (DcmElement) i.next();
+      
+      // Die File Meta Information gehoert nicht zum Dataset
+      if ((e.tag() >>> 16) == 0x0002) continue;
+      
+      if (!first) out.write(',');
+      first = false;
+      newLine(depth + 1);
+      writeElement(e, ds.getCharset(), depth + 1);
+    }
+    if (last != null) {
+      if (!first) out.write(',');
+      first = false;
+      newLine(depth + 1);
+      out.write(last);
+    }
+    if (!first) newLine(depth);
+    out.write('}');
+  }
+  
+  
+  /**
+   * Writes an element as JSON member.
+   * @param e the element.
+   * @param cs the charset of the Dataset containing the element.
+   * @param depth the nesting depth for the indentation.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void writeElement(DcmElement e, Charset cs, int depth) throws IOException {
+    int   vr = e.vr();
+    
+    out.write('"');
+    out.write(tagToString(e.tag()));
+    out.write("\": {\"vr\": \"");
+    out.write(VRs.toString(vr));
+    out.write('"');
+    
+    if (e.length() == 0) {
+      out.write('}');
+      return;
+    }
+    
+    switch (vr) {
+      case VRs.SQ:
+        if (e.vm() > 0) {
+          out.write(", \"Value\": [");
+          for (int i = 0; i < e.vm(); i++) {
+            if (i > 0) out.write(',');
+            newLine(depth + 1);
+            writeDataset(e.getItem(i), depth + 1, null);
+          }
+          newLine(depth);
+          out.write(']');
+        }
+        break;
+        
+      case VRs.OB:
+      case VRs.OW:
+      case VRs.OF:
+      case VRs.UN:
+        writeBinary(e);
+        break;
+        
+      default:
+        out.write(", \"Value\": [");
+        try {
+          writeValues(e, cs);
+        } catch (DcmValueException ex) {
+          out.write("null");
+        }
+        out.write(']');
+    }
+    out.write('}');
+  }
+  
+  
+  /**
+   * Writes the values of an element, which is no sequence and has no binary
+   * VR.
+   * @param e the element.
+   * @param cs the charset of the Dataset containing the element.
+   * @exception  DcmValueException  if the values can't be decoded.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void writeValues(DcmElement e, Charset cs) throws DcmValueException, IOException {
+    String[]  values;
+    int       vm = e.vm();
+    
+    switch (e.vr()) {
+      case VRs.US:
+      case VRs.SS:
+      case VRs.SL:
+        int[] ints = e.getInts();
+        for (int i = 0; i < ints.length; i++) {
+          if (i > 0) out.write(',');
+          out.write(Integer.toString(ints[i]));
+        }
+        return;
+        
+      case VRs.UL:
+        for (int i = 0; i < vm; i++) {
+          if (i > 0) out.write(',');
+          out.write(Long.toString(e.getInt(i) & 0xffffffffL));
+        }
+        return;
+        
+      case VRs.FL:
+        for (int i = 0; i < vm; i++) {
+          if (i > 0) out.write(',');
+          writeNumber(e.getFloat(i));
+        }
+        return;
+        
+      case VRs.FD:
+        for (int i = 0; i < vm; i++) {
+          if (i > 0) out.write(',');
+          writeNumber(e.getDouble(i));
+        }
+        return;
+        
+      case VRs.AT:
+        for (int i = 0; i < vm; i++) {
+          if (i > 0) out.write(',');
+          out.write('"');
+          out.write(tagToString(e.getTag(i)));
+          out.write('"');
+        }
+        return;
+    }
+    
+    values = e.getStrings(cs);
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) out.write(',');
+      if ((values[i] == null) || (values[i].length() == 0)) {
+        out.write("null");
+        continue;
+      }
+      
+      switch (e.vr()) {
+        case VRs.IS:
+        case VRs.DS:
+          writeNumber(values[i]);
+          break;
+          
+        case VRs.PN:
+          writePersonName(values[i]);
+          break;
+          
+        default:
+          writeString(values[i]);
+      }
+    }
+  }
+  
+  
+  /**
+   * Writes the value of an element with binary VR. Either inline as Base64 or
+   * as BulkDataURI.
+   * @param e the element.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void writeBinary(DcmElement e) throws IOException {
+    ByteBuffer  bb;
+    int         b, n, end;
+    
+    if ((sourceURI != null) && (e.length() > bulkDataThreshold) && (e.getStreamPosition() >= 0)) {
+      out.write(", \"BulkDataURI\": \"");
+      out.write(bulkDataURI(e.getStreamPosition(), e.length()));
+      out.write('"');
+      return;
+    }
+    
+    bb = e.getByteBuffer();
+    if (bb == null) return;
+    
+    // Base64 Kodierung ohne Zwischenpuffer
+    out.write(", \"InlineBinary\": \"");
+    end = bb.limit();
+    for (int i = bb.position(); i < end; i += 3) {
+      n = Math.min(3, end - i);
+      b = (bb.get(i) & 0xff) << 16;
+      if (n > 1) b |= (bb.get(i + 1) & 0xff) << 8;
+      if (n > 2) b |= bb.get(i + 2) & 0xff;
+      out.write(BASE64[(b >> 18) & 0x3f]);
+      out.write(BASE64[(b >> 12) & 0x3f]);
+      out.write((n > 1) ? BASE64[(b >> 6) & 0x3f] : '=');
+      out.write((n > 2) ? BASE64[b & 0x3f] : '=');
+    }
+    out.write('"');
+  }
+  
+  
+  /**
+   * Returns the BulkDataURI of a value in the source file.
+   * @param offset the position of the value in the file.
+   * @param length the length of the value. -1 for undefined length.
+   * @return the URI.
+   */
+  private String bulkDataURI(long offset, int length) {
+    if (length < 0) return sourceURI + "?offset=" + offset;
+    return sourceURI + "?offset=" + offset + "&length=" + length;
+  }
+  
+  
+  /**
+   * Writes a person name as object with the component groups.
+   * @param pn the person name.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void writePersonName(String pn) throws IOException {
+    int       start = 0;
+    int       end;
+    boolean   first = true;
+    
+    out.write('{');
+    for (int g = 0; (g < PN_GROUPS.length) && (start <= pn.length()); g++) {
+      end = pn.indexOf('=', start);
+      if (end < 0) end = pn.length();
+      if (end > start) {
+        if (!first) out.write(", ");
+        first = false;
+        out.write('"');
+        out.write(PN_GROUPS[g]);
+        out.write("\": ");
+        writeString(pn.substring(start, end));
+      }
+      start = end + 1;
+    }
+    out.write('}');
+  }
+  
+  
+  /**
+   * Writes a decimal or integer string as JSON number. If the string is no
+   * valid number, it is written as JSON string.
+   * @param s the string.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void writeNumber(String s) throws IOException {
+    String  t = s.trim();
+    
+    if (t.startsWith("+")) t = t.substring(1);
+    try {
+      if (t.indexOf('.') < 0 && t.indexOf('e') < 0 && t.indexOf('E') < 0) {
+        out.write(Long.toString(Long.parseLong(t)));
+      } else {
+        writeNumber(Double.parseDouble(t));
+      }
+    } catch (NumberFormatException ex) {
+      writeString(s);
+    }
+  }
+  
+  
+  /**
+   * Writes a floating point value as JSON number. NaN and infinite values
+   * are written as JSON string.
+   * @param d the value.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void writeNumber(double d) throws IOException {
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      writeString(Double.toString(d));
+    } else {
+      out.write(Double.toString(d));
+    }
+  }
+  
+  
+  /**
+   * Writes a JSON string.
+   * @param s the string.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void writeString(String s) throws IOException {
+    char  c;
+    
+    out.write('"');
+    for (int i = 0; i < s.length(); i++) {
+      c = s.charAt(i);
+      switch (c) {
+        case '"':   out.write("\\\""); break;
+        case '\\':  out.write("\\\\"); break;
+        case '\n':  out.write("\\n"); break;
+        case '\r':  out.write("\\r"); break;
+        case '\t':  out.write("\\t"); break;
+        default:
+          if (c < 0x20) {
+            String hex = "000" + Integer.toHexString(c);
+            out.write("\\u" + hex.substring(hex.length() - 4));
+          } else {
+            out.write(c);
+          }
+      }
+    }
+    out.write('"');
+  }
+  
+  
+  /**
+   * Starts a new line with indentation.
+   * @param depth the nesting depth.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void newLine(int depth) throws IOException {
+    out.write('\n');
+    for (int i = 0; i < depth; i++) out.write("  ");
+  }
+  
+  
+  /**
+   * Returns the tag as eight uppercase hex digits.
+   * @param tag the tag.
+   * @return the string.
+   */
+  private static String tagToString(int tag) {
+    String  s = "0000000" + Integer.toHexString(tag).toUpperCase();
+    return s.substring(s.length() - 8);
+  }
+  
+}
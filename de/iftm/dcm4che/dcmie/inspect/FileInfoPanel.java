@@ -67,8 +67,6 @@ public class FileInfoPanel extends javax.swing.JPanel implements java.io.Seriali
    * @param f the input source.
    */
   public void setInput(File f) {
-    InputStream   in = null;
-
     // Inhalt loeschen
     removeAllRows();
     
@@ -76,17 +74,11 @@ public class FileInfoPanel extends javax.swing.JPanel implements java.io.Seriali
     if (f == null) return;
     
     try {
-      in = new BufferedInputStream(new FileInputStream(f));
-      DcmParser p = DcmParserFactory.getInstance().newDcmParser(in);
-      FileFormat ff = p.detectFileFormat();
-      ds.readFile(in, ff, -1);
+      // Die anderen Panels verwenden dasselbe Dataset
+      ds = DatasetCache.getInstance().getDataset(f);
       addInfo();
     } catch (Exception e) {
       ((DefaultTableModel) infoTable.getModel()).addRow(new String [] {"No DICOM file selected", ""});
-    } finally {
-      try {
-        in.close();
-      } catch (Exception ignore) {}
     }
     
    }
@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.inspect;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import javax.swing.table.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+import de.iftm.dcm4che.dcmie.*;
+import de.iftm.java.util.*;
+
+
+/**
+ * Shows the raw bytes of a DICOM file as hex dump. The file is mapped into
+ * memory in windows, only the rows visible in the table are formatted. The
+ * table shows one page of PAGE_ROWS rows (16 MB) at a time, because the
+ * height of a JTable is limited to an int. Buttons and the offset field
+ * switch the page, so files of any size can be shown.<br>
+ * The elements of the header, found by parsing the file up to the PixelData
+ * element, are overlaid on the dump: The bytes of consecutive elements are
+ * shown in alternating colors, the first byte of an element in bold, and the
+ * names of the elements starting in a row are listed in the last column.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.10.2
+ */
+public class HexPanel extends javax.swing.JPanel implements FileSelectionListener, java.io.Serializable {
+  
+  
+  /**
+   * Number of bytes in one row.
+   */
+  public final static int     BYTES_PER_ROW = 16;
+  
+  
+  /**
+   * Number of rows in one page of the table.
+   */
+  public final static int     PAGE_ROWS = 1024 * 1024;
+  
+  
+  /**
+   * Size of the mapped window of the file.
+   */
+  private final static int    WINDOW_SIZE = 4 * 1024 * 1024;
+  
+  
+  /**
+   * The colors of the elements.
+   */
+  private final static String[] COLORS = {"#0000c0", "#008000"};
+  
+  
+  /**
+   * Hex digits.
+   */
+  private final static char[] HEX = "0123456789abcdef".toCharArray();
+  
+  
+  // Das Dictionary der Tags
+  private TagDictionary       dict = null;
+  
+  // Der angezeigte File
+  private RandomAccessFile    raf = null;
+  private FileChannel         channel = null;
+  private long                length = 0;
+  
+  // Die erste Zeile der angezeigten Seite im File
+  private long                pageRow = 0;
+  
+  // Der gemappte Ausschnitt des Files
+  private MappedByteBuffer    window = null;
+  private long                windowStart = 0;
+  
+  // Die Elemente des Headers, nach Position sortiert
+  private long[]              elementStart = new long[0];
+  private int[]               elementTag = new int[0];
+  
+  private HexTableModel       model = new HexTableModel();
+  
+  private javax.swing.JTable      table;
+  private javax.swing.JTextField  offsetField;
+  private javax.swing.JLabel      statusLabel;
+  private javax.swing.JButton     prevButton;
+  private javax.swing.JButton     nextButton;
+  private javax.swing.JLabel      pageLabel;
+  
+  
+  /**
+   * Creates new HexPanel.
+   */
+  public HexPanel() {
+    myInitComponents();
+  }
+  
+  
+  /**
+   * Creates the components.
+   */
+  private void myInitComponents() {
+    java.awt.GridBagConstraints gridBagConstraints;
+    
+    setLayout(new java.awt.GridBagLayout());
+    setMinimumSize(new java.awt.Dimension(256, 64));
+    setPreferredSize(new java.awt.Dimension(0, 0));
+    
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 0);
+    add(new javax.swing.JLabel("Go to offset"), gridBagConstraints);
+    
+    offsetField = new javax.swing.JTextField(12);
+    offsetField.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        goToOffset(offsetField.getText());
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 1;
+    gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 0);
+    add(offsetField, gridBagConstraints);
+    
+    statusLabel = new javax.swing.JLabel(" ");
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 2;
+    gridBagConstraints.weightx = 1.0;
+    gridBagConstraints.anchor = java.awt.GridBagConstraints.EAST;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 5);
+    add(statusLabel, gridBagConstraints);
+    
+    prevButton = new javax.swing.JButton("<");
+    prevButton.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        showPage(pageRow / PAGE_ROWS - 1);
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 3;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 0);
+    add(prevButton, gridBagConstraints);
+    
+    pageLabel = new javax.swing.JLabel(" ");
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 4;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 0);
+    add(pageLabel, gridBagConstraints);
+    
+    nextButton = new javax.swing.JButton(">");
+    nextButton.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        showPage(pageRow / PAGE_ROWS + 1);
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 5;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 5);
+    add(nextButton, gridBagConstraints);
+    
+    table = new javax.swing.JTable(model);
+    table.setFont(new java.awt.Font("Monospaced", 0, 12));
+    table.setShowGrid(false);
+    table.setAutoResizeMode(javax.swing.JTable.AUTO_RESIZE_LAST_COLUMN);
+    table.getTableHeader().setReorderingAllowed(false);
+    table.getColumnModel().getColumn(0).setPreferredWidth(90);
+    table.getColumnModel().getColumn(1).setPreferredWidth(380);
+    table.getColumnModel().getColumn(2).setPreferredWidth(140);
+    table.getColumnModel().getColumn(3).setPreferredWidth(200);
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 0;
+    gridBagConstraints.gridy = 1;
+    gridBagConstraints.gridwidth = 6;
+    gridBagConstraints.fill = java.awt.GridBagConstraints.BOTH;
+    gridBagConstraints.weightx = 1.0;
+    gridBagConstraints.weighty = 1.0;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+    add(new javax.swing.JScrollPane(table), gridBagConstraints);
+  }
+  
+  
+  /**
+   * Set up the Panel
+   */
+  public void setUp(DcmieParam dcmieParam) {
+    dict = DictionaryFactory.getInstance().getDefaultTagDictionary();
+  }
+  
+  
+  /**
+   * Implementation of the FileSelectionListener interface.
+   * @param e the FileSelection event.
+   */
+  public void fileSelected(FileSelectionEvent e) {
+    close();
+    
+    if (e.getLastSelectedFile() != null) {
+      try {
+        open(e.getLastSelectedFile());
+      } catch (IOException ex) {
+        close();
+        statusLabel.setText("*** Warning: Can't open file " + e.getLastSelectedFile());
+      }
+    }
+    
+    showPage(0);
+  }
+  
+  
+  /**
+   * Opens a file and finds the positions of the elements.
+   * @param f the file.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void open(File f) throws IOException {
+    Vector    elements = new Vector();
+    long      pixelData;
+    long[][]  sorted;
+    
+    raf = new RandomAccessFile(f, "r");
+    channel = raf.getChannel();
+    length = channel.size();
+    
+    // Die Elemente aus dem gemeinsamen Header der anderen Panels ermitteln.
+    // Ist der File kein DICOM File, wird nur der Hex Dump angezeigt.
+    try {
+      collect(DatasetCache.getInstance().getDataset(f), elements);
+      pixelData = DatasetCache.getInstance().getPixelDataOffset(f);
+      if (pixelData >= 0) elements.add(new long[] {pixelData, Tags.PixelData});
+    } catch (IOException ignore) {}
+    
+    sorted = (long[][]) elements.toArray(new long[elements.size()][]);
+    Arrays.sort(sorted, new Comparator() {
+      public int compare(Object o1, Object o2) {
+        long p1 = ((long[]) o1)[0];
+        long p2 = ((long[]) o2)[0];
+        return (p1 < p2) ? -1 : ((p1 > p2) ? 1 : 0);
+      }
+    });
+    
+    // Spaltenweise speichern
+    elementStart = new long[sorted.length];
+    elementTag = new int[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      elementStart[i] = sorted[i][0];
+      elementTag[i] = (int) sorted[i][1];
+    }
+    
+    statusLabel.setText(length + " bytes, " + sorted.length + " elements");
+  }
+  
+  
+  /**
+   * Closes the file shown.
+   */
+  private void close() {
+    window = null;
+    windowStart = 0;
+    length = 0;
+    elementStart = new long[0];
+    elementTag = new int[0];
+    channel = null;
+    try {
+      if (raf != null) raf.close();
+    } catch (IOException ignore) {}
+    raf = null;
+    statusLabel.setText(" ");
+  }
+  
+  
+  /**
+   * Adds the positions of the elements of a Dataset and its items.
+   * @param ds the Dataset.
+   * @param v the Vector to add long[] {position, tag}.
+   */
+  private void collect(Dataset ds, Vector v) {
+    DcmElement  e;
+    
+    for (Iterator i = ds.iterator(); i.hasNext(); ) {
+      e = (DcmElement) i.next();
+      if (e.getStreamPosition() >= 0) v.add(new long[] {e.getStreamPosition(), e.tag()});
+      if (e.vr() == VRs.SQ) {
+        for (int k = 0; k < e.vm(); k++) {
+          collect(e.getItem(k), v);
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Shows a page of the table.
+   * @param page the number of the page.
+   */
+  private void showPage(long page) {
+    long  pages = getPageCount();
+    
+    if (page >= pages) page = pages - 1;
+    if (page < 0) page = 0;
+    pageRow = page * PAGE_ROWS;
+    
+    prevButton.setEnabled(page > 0);
+    nextButton.setEnabled(page < pages - 1);
+    pageLabel.setText("Page " + (page + 1) + " of " + pages);
+    model.fireTableDataChanged();
+  }
+  
+  
+  /**
+   * Returns the number of pages of the file.
+   * @return the number of pages. At least 1.
+   */
+  private long getPageCount() {
+    long  rows = (length + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+    return Math.max(1, (rows + PAGE_ROWS - 1) / PAGE_ROWS);
+  }
+  
+  
+  /**
+   * Scrolls to the row containing an offset.
+   * @param s the offset, decimal or hex with prefix "0x".
+   */
+  private void goToOffset(String s) {
+    long    offset;
+    int     row;
+    
+    try {
+      s = s.trim();
+      offset = s.toLowerCase().startsWith("0x") ? Long.parseLong(s.substring(2), 16) : Long.parseLong(s);
+    } catch (NumberFormatException e) {
+      statusLabel.setText("*** Invalid offset: " + s);
+      return;
+    }
+    if ((offset < 0) || (offset >= length)) return;
+    
+    // Zuerst die Seite mit dem Offset anzeigen
+    showPage(offset / BYTES_PER_ROW / PAGE_ROWS);
+    row = (int) (offset / BYTES_PER_ROW - pageRow);
+    table.getSelectionModel().setSelectionInterval(row, row);
+    table.scrollRectToVisible(table.getCellRect(row, 0, true));
+  }
+  
+  
+  /**
+   * Reads a byte of the file. The window is mapped again, if the byte is
+   * outside.
+   * @param pos the position in the file.
+   * @return the byte.
+   * @exception  IOException  in a case of I/O error
+   */
+  private int getByte(long pos) throws IOException {
+    if ((window == null) || (pos < windowStart) || (pos >= windowStart + window.limit())) {
+      window = null;
+      windowStart = (pos / WINDOW_SIZE) * WINDOW_SIZE;
+      window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, 
+                           Math.min(WINDOW_SIZE, length - windowStart));
+    }
+    return window.get((int) (pos - windowStart)) & 0xff;
+  }
+  
+  
+  /**
+   * Returns the index of the last element starting at or before a position.
+   * @param pos the position.
+   * @return the index or -1, if no element starts before the position.
+   */
+  private int findElement(long pos) {
+    int   lo = 0;
+    int   hi = elementStart.length - 1;
+    int   mid;
+    
+    while (lo <= hi) {
+      mid = (lo + hi) >>> 1;
+      if (elementStart[mid] <= pos) {
+        lo = mid + 1;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return hi;
+  }
+  
+  
+  /**
+   * Formats the hex bytes of a row as HTML with the element overlay.
+   * @param start the position of the first byte.
+   * @param end the position after the last byte.
+   * @return the HTML string.
+   * @exception  IOException  in a case of I/O error
+   */
+  private String formatHex(long start, long end) throws IOException {
+    StringBuffer  sb = new StringBuffer("<html>");
+    int           el = findElement(start);
+    int           color = -1;
+    int           b;
+    boolean       first;
+    
+    for (long p = start; p < end; p++) {
+      while ((el + 1 < elementStart.length) && (elementStart[el + 1] <= p)) el++;
+      first = (el >= 0) && (elementStart[el] == p);
+      
+      // Farbe nur bei einem Wechsel des Elements aendern
+      if ((el >= 0) && (el % COLORS.length != color)) {
+        if (color >= 0) sb.append("</font>");
+        color = el % COLORS.length;
+        sb.append("<font color=").append(COLORS[color]).append('>');
+      }
+      
+      b = getByte(p);
+      if (first) sb.append("<b>");
+      sb.append(HEX[b >> 4]).append(HEX[b & 0x0f]);
+      if (first) sb.append("</b>");
+      sb.append(' ');
+    }
+    if (color >= 0) sb.append("</font>");
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Formats the bytes of a row as characters. Non printable bytes are shown
+   * as '.'.
+   * @param start the position of the first byte.
+   * @param end the position after the last byte.
+   * @return the string.
+   * @exception  IOException  in a case of I/O error
+   */
+  private String formatAscii(long start, long end) throws IOException {
+    StringBuffer  sb = new StringBuffer(BYTES_PER_ROW);
+    int           b;
+    
+    for (long p = start; p < end; p++) {
+      b = getByte(p);
+      sb.append(((b >= 0x20) && (b < 0x7f)) ? (char) b : '.');
+    }
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Lists the names of the elements starting in a row.
+   * @param start the position of the first byte.
+   * @param end the position after the last byte.
+   * @return the names separated by ", ".
+   */
+  private String formatElements(long start, long end) {
+    StringBuffer  sb = new StringBuffer();
+    String        name;
+    
+    for (int el = findElement(end - 1); (el >= 0) && (elementStart[el] >= start); el--) {
+      try {
+        name = dict.lookup(elementTag[el]).name;
+      } catch (Exception e) {
+        name = Tags.toString(elementTag[el]);
+      }
+      if (sb.length() > 0) sb.insert(0, ", ");
+      sb.insert(0, name);
+    }
+    return sb.toString();
+  }
+  
+  
+  /**
+   * The table model. The rows are formatted when they are shown.
+   */
+  private class HexTableModel extends AbstractTableModel {
+    
+    private final String[]  NAMES = {"Offset", "Hex", "ASCII", "Elements"};
+    
+    public int getRowCount() {
+      long  rows = (length + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+      return (int) Math.max(0, Math.min(PAGE_ROWS, rows - pageRow));
+    }
+    
+    public int getColumnCount() {
+      return NAMES.length;
+    }
+    
+    public String getColumnName(int col) {
+      return NAMES[col];
+    }
+    
+    public Object getValueAt(int row, int col) {
+      long    start = (pageRow + row) * BYTES_PER_ROW;
+      long    end = Math.min(length, start + BYTES_PER_ROW);
+      String  s;
+      
+      try {
+        switch (col) {
+          case 0:
+            // Mindestens 8 Stellen, Offsets ab 4 GB nicht abschneiden
+            s = Long.toHexString(start);
+            if (s.length() < 8) s = "00000000".substring(s.length()) + s;
+            return s;
+          case 1:
+            return formatHex(start, end);
+          case 2:
+            return formatAscii(start, end);
+          default:
+            return formatElements(start, end);
+        }
+      } catch (IOException e) {
+        return "";
+      }
+    }
+  }
+  
+}
@@ -22,7 +22,10 @@
 package de.iftm.dcm4che.dcmie.inspect;
 
 import java.awt.*;
+import java.beans.*;
 import java.io.*;
+import javax.swing.*;
+import javax.swing.event.*;
 
 import de.iftm.dcm4che.image.*;
 import de.iftm.dcm4che.dcmie.*;
@@ -37,11 +40,22 @@ import de.iftm.java.util.*;
 public class ImagePanel extends javax.swing.JPanel implements FileSelectionListener, java.io.Serializable {
 
   
+  // Bedienelemente fuer die Navigation durch die Frames eines Multiframe Image
+  private JLabel          frameLabel;
+  private JButton         prevFrameBtn;
+  private JButton         nextFrameBtn;
+  private JSpinner        frameSpinner;
+  private JLabel          frameCountLabel;
+  private JButton         cineBtn;
+  private JLabel          cineLabel;
+  
+  
   /**
    * Creates new form DirPanel
    */
   public ImagePanel() {
     initComponents();
+    myInitComponents();
   }
   
   
@@ -96,6 +110,157 @@ public class ImagePanel extends javax.swing.JPanel implements FileSelectionListe
         imageBean.setInput((File) null);
       } catch (Exception ex2) {}
     }
+    
+    // Frame Navigation an das neue Bild anpassen
+    updateFrameControls();
+  }
+
+  
+  /** This method is called from within the constructor to
+   * initialize the form.
+   */
+  private void myInitComponents() {
+    GridBagConstraints  gridBagConstraints;
+    JPanel              framePanel;
+    
+    frameLabel = new JLabel("Frame");
+    
+    prevFrameBtn = new JButton("<");
+    prevFrameBtn.setMargin(new Insets(2, 4, 2, 4));
+    prevFrameBtn.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        try {
+          imageBean.previousFrame();
+        } catch (Exception ignore) {}
+      }
+    });
+    
+    frameSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 1, 1));
+    frameSpinner.addChangeListener(new ChangeListener() {
+      public void stateChanged(ChangeEvent evt) {
+        // Der Spinner zaehlt die Frames ab 1
+        try {
+          imageBean.setFrame(((Number) frameSpinner.getValue()).intValue() - 1);
+        } catch (Exception ignore) {}
+      }
+    });
+    
+    nextFrameBtn = new JButton(">");
+    nextFrameBtn.setMargin(new Insets(2, 4, 2, 4));
+    nextFrameBtn.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        try {
+          imageBean.nextFrame();
+        } catch (Exception ignore) {}
+      }
+    });
+    
+    frameCountLabel = new JLabel("/ 1");
+    
+    cineBtn = new JButton("Play");
+    cineBtn.setMargin(new Insets(2, 4, 2, 4));
+    cineBtn.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        if (imageBean.isCinePlaying()) {
+          imageBean.stopCine();
+        } else {
+          imageBean.startCine();
+        }
+      }
+    });
+    
+    cineLabel = new JLabel("");
+    
+    framePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 2, 0));
+    framePanel.add(frameLabel);
+    framePanel.add(prevFrameBtn);
+    framePanel.add(frameSpinner);
+    framePanel.add(nextFrameBtn);
+    framePanel.add(frameCountLabel);
+    framePanel.add(cineBtn);
+    framePanel.add(cineLabel);
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 1;
+    gridBagConstraints.gridy = 8;
+    gridBagConstraints.anchor = java.awt.GridBagConstraints.NORTHWEST;
+    gridBagConstraints.insets = new java.awt.Insets(20, 8, 0, 0);
+    add(framePanel, gridBagConstraints);
+    
+    // Aenderungen des Frames im ImageBean (z.B. durch die Buttons) im Spinner
+    // nachfuehren
+    imageBean.addPropertyChangeListener("frame", new PropertyChangeListener() {
+      public void propertyChange(PropertyChangeEvent evt) {
+        frameSpinner.setValue(new Integer(imageBean.getFrame() + 1));
+      }
+    });
+    
+    // Zustand der Cine Wiedergabe anzeigen
+    imageBean.addPropertyChangeListener(new PropertyChangeListener() {
+      public void propertyChange(PropertyChangeEvent evt) {
+        String  name = evt.getPropertyName();
+        
+        if ("cinePlaying".equals(name)) {
+          updateCineControls();
+        } else if ("cineFps".equals(name) || "cineStalls".equals(name)) {
+          updateCineLabel();
+        }
+      }
+    });
+    
+    updateFrameControls();
+  }
+  
+  
+  /**
+   * Adapts the cine controls to the state of the imageBean.
+   */
+  private void updateCineControls() {
+    boolean playing = imageBean.isCinePlaying();
+    
+    cineBtn.setText(playing ? "Stop" : "Play");
+    
+    // Waehrend der Wiedergabe keine manuelle Navigation
+    prevFrameBtn.setEnabled(!playing && (imageBean.getNumberOfFrames() > 1));
+    nextFrameBtn.setEnabled(!playing && (imageBean.getNumberOfFrames() > 1));
+    frameSpinner.setEnabled(!playing && (imageBean.getNumberOfFrames() > 1));
+    
+    updateCineLabel();
+  }
+  
+  
+  /**
+   * Shows the achieved frame rate and the number of stalls of the cine 
+   * playback.
+   */
+  private void updateCineLabel() {
+    float   fps;
+    
+    if (!imageBean.isCinePlaying()) {
+      cineLabel.setText("");
+      return;
+    }
+    
+    fps = Math.round(imageBean.getCineFps() * 10.0f) / 10.0f;
+    cineLabel.setText(Float.toString(fps) + " fps, " + imageBean.getCineStalls() + " stalls");
+  }
+  
+  
+  /**
+   * Adapts the frame navigation to the current image of the imageBean.
+   */
+  private void updateFrameControls() {
+    int   n = Math.max(1, imageBean.getNumberOfFrames());
+    int   frame = Math.max(0, imageBean.getFrame());
+    
+    frameSpinner.setModel(new SpinnerNumberModel(frame + 1, 1, n, 1));
+    frameCountLabel.setText("/ " + Integer.toString(n));
+    
+    // Navigation nur bei Multiframe Images
+    prevFrameBtn.setEnabled(n > 1);
+    nextFrameBtn.setEnabled(n > 1);
+    frameSpinner.setEnabled(n > 1);
+    cineBtn.setEnabled(n > 1);
+    updateCineControls();
   }
 
   
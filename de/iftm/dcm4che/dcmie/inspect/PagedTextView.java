@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.inspect;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+
+/**
+ * Shows a large text file page by page. Only the region of the current page
+ * is mapped into memory and decoded, so the size of the Swing document does
+ * not depend on the size of the file. Pages start and end at line breaks.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.30
+ */
+public class PagedTextView extends javax.swing.JPanel {
+  
+  
+  /**
+   * Number of bytes in one page.
+   */
+  public final static int   PAGE_SIZE = 256 * 1024;
+  
+  
+  /**
+   * Maximum number of bytes, a page is extended to reach the next line break.
+   */
+  private final static int  MAX_LINE = 16 * 1024;
+  
+  
+  /**
+   * The file shown. null, if a plain text is shown.
+   */
+  private File              file = null;
+  
+  
+  /**
+   * The charset of the file.
+   */
+  private Charset           charset;
+  
+  
+  /**
+   * The length of the file.
+   */
+  private long              length = 0;
+  
+  
+  /**
+   * The current page.
+   */
+  private int               page = 0;
+  
+  
+  private javax.swing.JTextArea     textArea;
+  private javax.swing.JScrollPane   scroll;
+  private javax.swing.JButton       prevButton;
+  private javax.swing.JButton       nextButton;
+  private javax.swing.JLabel        pageLabel;
+  
+  
+  /**
+   * Creates a new PagedTextView.
+   */
+  public PagedTextView() {
+    java.awt.GridBagConstraints gridBagConstraints;
+    
+    setLayout(new java.awt.GridBagLayout());
+    
+    textArea = new javax.swing.JTextArea();
+    textArea.setFont(new java.awt.Font("Monospaced", 0, 12));
+    textArea.setEditable(false);
+    scroll = new javax.swing.JScrollPane(textArea);
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 0;
+    gridBagConstraints.gridy = 0;
+    gridBagConstraints.gridwidth = 3;
+    gridBagConstraints.fill = java.awt.GridBagConstraints.BOTH;
+    gridBagConstraints.weightx = 1.0;
+    gridBagConstraints.weighty = 1.0;
+    add(scroll, gridBagConstraints);
+    
+    prevButton = new javax.swing.JButton("<");
+    prevButton.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        showPage(page - 1);
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 0;
+    gridBagConstraints.gridy = 1;
+    gridBagConstraints.insets = new java.awt.Insets(5, 0, 0, 5);
+    add(prevButton, gridBagConstraints);
+    
+    pageLabel = new javax.swing.JLabel(" ");
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 1;
+    gridBagConstraints.gridy = 1;
+    gridBagConstraints.insets = new java.awt.Insets(5, 0, 0, 5);
+    add(pageLabel, gridBagConstraints);
+    
+    nextButton = new javax.swing.JButton(">");
+    nextButton.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        showPage(page + 1);
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 2;
+    gridBagConstraints.gridy = 1;
+    gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+    gridBagConstraints.insets = new java.awt.Insets(5, 0, 0, 0);
+    add(nextButton, gridBagConstraints);
+    
+    updateControls();
+  }
+  
+  
+  /**
+   * Shows a plain text. The text should be short, e.g. a message.
+   * @param text the text.
+   */
+  public void setText(String text) {
+    file = null;
+    length = 0;
+    page = 0;
+    textArea.setText(text);
+    textArea.setCaretPosition(0);
+    updateControls();
+  }
+  
+  
+  /**
+   * Shows the first page of a text file.
+   * @param f the file.
+   * @param encoding the encoding of the file. If null or not supported,
+   *        UTF-8 is used. Must be a charset, in which a line break is
+   *        encoded as the single byte 0x0a.
+   */
+  public void setFile(File f, String encoding) {
+    file = f;
+    length = f.length();
+    try {
+      charset = Charset.forName((encoding == null) ? "UTF-8" : encoding);
+    } catch (IllegalArgumentException e) {
+      charset = Charset.forName("UTF-8");
+    }
+    showPage(0);
+  }
+  
+  
+  /**
+   * Returns the file shown.
+   * @return the file or null, if a plain text is shown.
+   */
+  public File getFile() {
+    return file;
+  }
+  
+  
+  /**
+   * Returns the number of pages.
+   * @return the number of pages. 1, if a plain text is shown.
+   */
+  public int getPageCount() {
+    if ((file == null) || (length == 0)) return 1;
+    return (int) ((length + PAGE_SIZE - 1) / PAGE_SIZE);
+  }
+  
+  
+  /**
+   * Shows a page of the file.
+   * @param p the number of the page.
+   */
+  public void showPage(int p) {
+    FileInputStream   in = null;
+    FileChannel       channel;
+    MappedByteBuffer  buffer;
+    long              start, end, mapEnd;
+    int               first, last;
+    
+    if (file == null) return;
+    if (p < 0) p = 0;
+    if (p >= getPageCount()) p = getPageCount() - 1;
+    page = p;
+    
+    try {
+      in = new FileInputStream(file);
+      channel = in.getChannel();
+      
+      // Die Seite wird bis zum naechsten Zeilenende verlaengert. Der Beginn
+      // der Seite wird ebenso verschoben, damit keine Zeile doppelt erscheint.
+      start = (long) page * PAGE_SIZE;
+      end = Math.min(length, start + PAGE_SIZE);
+      mapEnd = Math.min(length, end + MAX_LINE);
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, mapEnd - start);
+      
+      first = (page == 0) ? 0 : afterLineBreak(buffer, 0, Math.min(MAX_LINE, buffer.limit()));
+      last = (end == length) ? buffer.limit() : afterLineBreak(buffer, (int) (end - start), buffer.limit());
+      
+      buffer.position(first);
+      buffer.limit(Math.max(first, last));
+      textArea.setText(charset.decode(buffer).toString());
+      textArea.setCaretPosition(0);
+      
+    } catch (IOException e) {
+      textArea.setText("*** Warning: Can't read file " + file.toString());
+      
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException ignore) {}
+    }
+    
+    updateControls();
+  }
+  
+  
+  /**
+   * Searches the first line break in a region of a buffer.
+   * @param buffer the buffer.
+   * @param from the first position to search.
+   * @param to the position after the last to search.
+   * @return the position after the line break or to, if none is found.
+   */
+  private int afterLineBreak(ByteBuffer buffer, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer.get(i) == '\n') return i + 1;
+    }
+    return to;
+  }
+  
+  
+  /**
+   * Updates the page label and the navigation buttons.
+   */
+  private void updateControls() {
+    boolean paged = (file != null) && (getPageCount() > 1);
+    
+    prevButton.setEnabled(paged && (page > 0));
+    nextButton.setEnabled(paged && (page < getPageCount() - 1));
+    if (file == null) {
+      pageLabel.setText(" ");
+    } else {
+      pageLabel.setText("Page " + (page + 1) + " of " + getPageCount() + " (" + length + " bytes)");
+    }
+  }
+  
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.inspect;
+
+import java.io.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * The values of some tags in the headers of many DICOM files, e.g. of a
+ * series. The values are stored column by column, one array per tag, with
+ * one entry per file. The headers are read by several threads in parallel and
+ * only the values of the tags are kept.<br>
+ * The rows may be sorted by a column. Cells, which differ from the value
+ * occurring in most of the files, are marked as outliers.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.10.1
+ */
+public class SeriesColumns {
+  
+  
+  /**
+   * The files.
+   */
+  private File[]        files;
+  
+  
+  /**
+   * The tags.
+   */
+  private int[]         tags;
+  
+  
+  /**
+   * The values as string, multiple values separated by '\'. Index is
+   * [column][file]. null, if the file does not contain the tag.
+   */
+  private String[][]    values;
+  
+  
+  /**
+   * The first value as number. Index is [column][file]. NaN, if the value is
+   * not a number.
+   */
+  private double[][]    numbers;
+  
+  
+  /**
+   * True, if all values of a column are numbers.
+   */
+  private boolean[]     numeric;
+  
+  
+  /**
+   * True, if a cell differs from the most frequent value of its column.
+   * Index is [column][file].
+   */
+  private boolean[][]   outliers;
+  
+  
+  /**
+   * True, if not all values of a column are equal.
+   */
+  private boolean[]     varying;
+  
+  
+  /**
+   * True, if the header of a file could be read.
+   */
+  private boolean[]     readable;
+  
+  
+  /**
+   * The files in the order of the rows.
+   */
+  private int[]         order;
+  
+  
+  /**
+   * The next file to be read by a worker thread.
+   */
+  private int           next;
+  
+  
+  /**
+   * True, if the loading should be abandoned.
+   */
+  private boolean       cancelled = false;
+  
+  
+  /**
+   * Creates new SeriesColumns. The values are empty until load is called.
+   * @param files the files.
+   * @param tags the tags.
+   */
+  public SeriesColumns(File[] files, int[] tags) {
+    this.files = files;
+    this.tags = tags;
+    values = new String[tags.length][files.length];
+    numbers = new double[tags.length][files.length];
+    numeric = new boolean[tags.length];
+    outliers = new boolean[tags.length][files.length];
+    varying = new boolean[tags.length];
+    readable = new boolean[files.length];
+    order = new int[files.length];
+    for (int i = 0; i < order.length; i++) order[i] = i;
+  }
+  
+  
+  /**
+   * Reads the headers of all files.
+   * @param threads the number of threads.
+   * @exception  InterruptedIOException  if the loading was cancelled.
+   */
+  public void load(int threads) throws InterruptedIOException {
+    Thread[]  workers;
+    
+    synchronized (this) {
+      next = 0;
+    }
+    
+    threads = Math.max(1, Math.min(threads, files.length));
+    workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread("SeriesColumns") {
+        public void run() {
+          readAll();
+        }
+      };
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+    for (int i = 0; i < threads; i++) {
+      try {
+        workers[i].join();
+      } catch (InterruptedException e) {
+        cancel();
+      }
+    }
+    
+    synchronized (this) {
+      if (cancelled) throw new InterruptedIOException("Loading cancelled");
+    }
+    
+    for (int c = 0; c < tags.length; c++) {
+      analyse(c);
+    }
+  }
+  
+  
+  /**
+   * Abandons the loading.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+  }
+  
+  
+  /**
+   * Returns the number of rows, one per file.
+   * @return the number of rows.
+   */
+  public int getRowCount() {
+    return files.length;
+  }
+  
+  
+  /**
+   * Returns the number of columns, one per tag.
+   * @return the number of columns.
+   */
+  public int getColumnCount() {
+    return tags.length;
+  }
+  
+  
+  /**
+   * Returns the tag of a column.
+   * @param col the column.
+   * @return the tag.
+   */
+  public int getTag(int col) {
+    return tags[col];
+  }
+  
+  
+  /**
+   * Returns the file of a row.
+   * @param row the row.
+   * @return the file.
+   */
+  public File getFile(int row) {
+    return files[order[row]];
+  }
+  
+  
+  /**
+   * Tests, if the header of the file of a row could be read.
+   * @param row the row.
+   * @return true, if the header was read.
+   */
+  public boolean isReadable(int row) {
+    return readable[order[row]];
+  }
+  
+  
+  /**
+   * Returns a value.
+   * @param row the row.
+   * @param col the column.
+   * @return the value or null, if the file does not contain the tag.
+   */
+  public String getValue(int row, int col) {
+    return values[col][order[row]];
+  }
+  
+  
+  /**
+   * Tests, if a value differs from the value occurring in most of the files.
+   * @param row the row.
+   * @param col the column.
+   * @return true, if the value is an outlier.
+   */
+  public boolean isOutlier(int row, int col) {
+    return outliers[col][order[row]];
+  }
+  
+  
+  /**
+   * Tests, if not all values of a column are equal.
+   * @param col the column.
+   * @return true, if the values differ.
+   */
+  public boolean isVarying(int col) {
+    return varying[col];
+  }
+  
+  
+  /**
+   * Sorts the rows by a column. Numeric columns are sorted by the value of the
+   * first number. Missing values are sorted to the end. The sort is stable.
+   * @param col the column or -1 to sort by file name.
+   * @param ascending true for ascending order.
+   */
+  public void sort(final int col, final boolean ascending) {
+    Integer[]   idx = new Integer[files.length];
+    
+    for (int i = 0; i < idx.length; i++) idx[i] = new Integer(order[i]);
+    
+    Arrays.sort(idx, new Comparator() {
+      public int compare(Object o1, Object o2) {
+        int   i1 = ((Integer) o1).intValue();
+        int   i2 = ((Integer) o2).intValue();
+        int   c;
+        
+        if (col < 0) {
+          c = files[i1].getPath().compareTo(files[i2].getPath());
+          return ascending ? c : -c;
+        }
+        
+        // Fehlende Werte immer am Ende
+        if (values[col][i1] == null) return (values[col][i2] == null) ? 0 : 1;
+        if (values[col][i2] == null) return -1;
+        
+        if (numeric[col]) {
+          c = (numbers[col][i1] < numbers[col][i2]) ? -1 : ((numbers[col][i1] > numbers[col][i2]) ? 1 : 0);
+        } else {
+          c = values[col][i1].compareTo(values[col][i2]);
+        }
+        return ascending ? c : -c;
+      }
+    });
+    
+    for (int i = 0; i < idx.length; i++) order[i] = idx[i].intValue();
+  }
+  
+  
+  /**
+   * Reads files until all are done. Executed by the worker threads.
+   */
+  private void readAll() {
+    int   i;
+    
+    while (true) {
+      synchronized (this) {
+        if (cancelled || (next >= files.length)) return;
+        i = next++;
+      }
+      read(i);
+    }
+  }
+  
+  
+  /**
+   * Reads the header of a file up to the PixelData element and keeps the
+   * values of the tags. Each file is written by one thread only.
+   * @param i the number of the file.
+   */
+  private void read(int i) {
+    InputStream   in = null;
+    Dataset       ds;
+    DcmParser     p;
+    String[]      sa;
+    StringBuffer  sb = new StringBuffer();
+    
+    try {
+      in = new BufferedInputStream(new FileInputStream(files[i]));
+      p = DcmParserFactory.getInstance().newDcmParser(in);
+      ds = DcmObjectFactory.getInstance().newDataset();
+      p.setDcmHandler(ds.getDcmHandler());
+      p.parseDcmFile(p.detectFileFormat(), Tags.PixelData);
+      
+      for (int c = 0; c < tags.length; c++) {
+        if (!ds.contains(tags[c])) continue;
+        try {
+          sa = ds.getStrings(tags[c]);
+        } catch (DcmValueException e) {
+          continue;
+        }
+        if (sa == null) continue;
+        sb.setLength(0);
+        for (int k = 0; k < sa.length; k++) {
+          if (k > 0) sb.append('\\');
+          if (sa[k] != null) sb.append(sa[k]);
+        }
+        values[c][i] = sb.toString();
+      }
+      readable[i] = true;
+    } catch (Exception e) {
+      readable[i] = false;
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException ignore) {}
+    }
+  }
+  
+  
+  /**
+   * Computes the numbers, the outliers and the varying flag of a column.
+   * @param c the column.
+   */
+  private void analyse(int c) {
+    HashMap   counts = new HashMap();
+    int[]     count;
+    String    s;
+    String    mode = null;
+    int       modeCount = 0;
+    int       pos;
+    
+    numeric[c] = true;
+    for (int i = 0; i < files.length; i++) {
+      s = values[c][i];
+      numbers[c][i] = Double.NaN;
+      
+      // Haeufigkeit des Wertes zaehlen. Fehlende Werte zaehlen als ""
+      count = (int[]) counts.get((s == null) ? "" : s);
+      if (count == null) {
+        count = new int[1];
+        counts.put((s == null) ? "" : s, count);
+      }
+      count[0]++;
+      if (count[0] > modeCount) {
+        modeCount = count[0];
+        mode = (s == null) ? "" : s;
+      }
+      
+      if (s == null) continue;
+      pos = s.indexOf('\\');
+      try {
+        numbers[c][i] = Double.parseDouble(((pos < 0) ? s : s.substring(0, pos)).trim());
+      } catch (NumberFormatException e) {
+        numeric[c] = false;
+      }
+    }
+    
+    varying[c] = counts.size() > 1;
+    
+    // Nur markieren, wenn die Mehrzahl der Files denselben Wert hat. Sonst,
+    // z.B. bei SliceLocation, waere jeder Wert ein Ausreisser.
+    for (int i = 0; i < files.length; i++) {
+      s = (values[c][i] == null) ? "" : values[c][i];
+      outliers[c][i] = varying[c] && (modeCount * 2 > files.length) && !s.equals(mode);
+    }
+  }
+  
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU  General Public License as published by the 
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dcmie.inspect;
+
+import java.io.*;
+import java.util.*;
+import javax.swing.table.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+import de.iftm.dcm4che.dcmie.*;
+import de.iftm.java.util.*;
+
+
+/**
+ * Compares the values of some tags across all selected files, e.g. the images
+ * of a series. Each row of the table is a file, each column a tag. A click on
+ * a column header sorts the rows. Values, which differ from the value of most
+ * of the files, are highlighted.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.10.1
+ */
+public class SeriesPanel extends javax.swing.JPanel implements FileSelectionListener, java.io.Serializable {
+  
+  
+  /**
+   * The tags shown by default.
+   */
+  public final static String  DEFAULT_TAGS = 
+    "InstanceNumber SliceLocation ImagePositionPatient AcquisitionTime WindowCenter WindowWidth";
+  
+  
+  /**
+   * The number of threads reading the headers.
+   */
+  private final static int    THREADS = 4;
+  
+  
+  /**
+   * The color of the highlighted values.
+   */
+  private final static java.awt.Color OUTLIER_COLOR = new java.awt.Color(255, 200, 200);
+  
+  
+  // Das Dictionary der Tags
+  private TagDictionary       dict = null;
+  
+  // Die zuletzt ausgewaehlten Files
+  private File[]              selectedFiles = null;
+  
+  // Die Werte der angezeigten Files. null, solange noch geladen wird
+  private SeriesColumns       columns = null;
+  
+  // Wird gerade geladen
+  private SeriesColumns       loading = null;
+  
+  // Die Spalte, nach der sortiert ist, und die Richtung
+  private int                 sortColumn = -1;
+  private boolean             sortAscending = true;
+  
+  private SeriesTableModel    model = new SeriesTableModel();
+  
+  private javax.swing.JTextField  tagsField;
+  private javax.swing.JButton     applyButton;
+  private javax.swing.JLabel      statusLabel;
+  private javax.swing.JTable      table;
+  
+  
+  /**
+   * Creates new SeriesPanel.
+   */
+  public SeriesPanel() {
+    myInitComponents();
+  }
+  
+  
+  /**
+   * Creates the components.
+   */
+  private void myInitComponents() {
+    java.awt.GridBagConstraints gridBagConstraints;
+    
+    setLayout(new java.awt.GridBagLayout());
+    setMinimumSize(new java.awt.Dimension(256, 64));
+    setPreferredSize(new java.awt.Dimension(0, 0));
+    
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 0);
+    add(new javax.swing.JLabel("Tags"), gridBagConstraints);
+    
+    tagsField = new javax.swing.JTextField(DEFAULT_TAGS);
+    tagsField.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        reload();
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 1;
+    gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+    gridBagConstraints.weightx = 1.0;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 0);
+    add(tagsField, gridBagConstraints);
+    
+    applyButton = new javax.swing.JButton("Apply");
+    applyButton.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        reload();
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 2;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 5);
+    add(applyButton, gridBagConstraints);
+    
+    table = new javax.swing.JTable(model);
+    table.setAutoResizeMode(javax.swing.JTable.AUTO_RESIZE_OFF);
+    table.setDefaultRenderer(String.class, new OutlierRenderer());
+    table.getTableHeader().setReorderingAllowed(false);
+    table.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+      public void mouseClicked(java.awt.event.MouseEvent evt) {
+        int column = table.columnAtPoint(evt.getPoint());
+        if (column >= 0) sortBy(table.convertColumnIndexToModel(column) - 1);
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 0;
+    gridBagConstraints.gridy = 1;
+    gridBagConstraints.gridwidth = 3;
+    gridBagConstraints.fill = java.awt.GridBagConstraints.BOTH;
+    gridBagConstraints.weightx = 1.0;
+    gridBagConstraints.weighty = 1.0;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 0, 5);
+    add(new javax.swing.JScrollPane(table), gridBagConstraints);
+    
+    statusLabel = new javax.swing.JLabel(" ");
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 0;
+    gridBagConstraints.gridy = 2;
+    gridBagConstraints.gridwidth = 3;
+    gridBagConstraints.anchor = java.awt.GridBagConstraints.WEST;
+    gridBagConstraints.insets = new java.awt.Insets(5, 5, 5, 5);
+    add(statusLabel, gridBagConstraints);
+  }
+  
+  
+  /**
+   * Set up the Panel
+   */
+  public void setUp(DcmieParam dcmieParam) {
+    dict = DictionaryFactory.getInstance().getDefaultTagDictionary();
+  }
+  
+  
+  /**
+   * Implementation of the FileSelectionListener interface.
+   * @param e the FileSelection event.
+   */
+  public void fileSelected(FileSelectionEvent e) {
+    File[]  fa = e.getSelectedFiles();
+    
+    // Einzelne Files werden nicht verglichen
+    if ((fa == null) && (e.getLastSelectedFile() != null)) {
+      fa = new File[] {e.getLastSelectedFile()};
+    }
+    selectedFiles = fa;
+    reload();
+  }
+  
+  
+  /**
+   * Reads the headers of the selected files in the background.
+   */
+  private void reload() {
+    final SeriesColumns   sc;
+    int[]                 tags;
+    
+    if (loading != null) loading.cancel();
+    loading = null;
+    columns = null;
+    model.fireTableStructureChanged();
+    
+    if ((selectedFiles == null) || (selectedFiles.length == 0)) {
+      statusLabel.setText(" ");
+      return;
+    }
+    
+    try {
+      tags = parseTags(tagsField.getText());
+    } catch (IllegalArgumentException e) {
+      statusLabel.setText("*** Unknown tag: " + e.getMessage());
+      return;
+    }
+    
+    sc = new SeriesColumns(selectedFiles, tags);
+    loading = sc;
+    statusLabel.setText("Reading " + selectedFiles.length + " files...");
+    
+    Thread t = new Thread("SeriesPanel") {
+      public void run() {
+        final long  start = System.currentTimeMillis();
+        
+        try {
+          sc.load(THREADS);
+        } catch (InterruptedIOException e) {
+          return;
+        }
+        
+        javax.swing.SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            // Veraltete Ergebnisse ignorieren
+            if (loading != sc) return;
+            loading = null;
+            columns = sc;
+            if (sortColumn < columns.getColumnCount()) columns.sort(sortColumn, sortAscending);
+            model.fireTableStructureChanged();
+            statusLabel.setText(columns.getRowCount() + " files read in " 
+                                + (System.currentTimeMillis() - start) + " ms");
+          }
+        });
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+  
+  
+  /**
+   * Sorts the rows by a column. A second click on the same column reverses the
+   * order.
+   * @param col the column or -1 to sort by file name.
+   */
+  private void sortBy(int col) {
+    if (columns == null) return;
+    
+    sortAscending = (col == sortColumn) ? !sortAscending : true;
+    sortColumn = col;
+    columns.sort(sortColumn, sortAscending);
+    model.fireTableDataChanged();
+  }
+  
+  
+  /**
+   * Converts a list of tags into the tag values. A tag is given by its name or
+   * by eight hex digits.
+   * @param s the tags separated by white space or commas.
+   * @return the tags.
+   * @exception  IllegalArgumentException  if a tag is unknown.
+   */
+  private int[] parseTags(String s) {
+    StringTokenizer st = new StringTokenizer(s, " \t,;");
+    int[]           tags = new int[st.countTokens()];
+    String          name;
+    
+    for (int i = 0; i < tags.length; i++) {
+      name = st.nextToken();
+      try {
+        tags[i] = Tags.forName(name);
+      } catch (Exception e) {
+        try {
+          if (name.length() != 8) throw new NumberFormatException();
+          tags[i] = (int) Long.parseLong(name, 16);
+        } catch (NumberFormatException e2) {
+          throw new IllegalArgumentException(name);
+        }
+      }
+    }
+    return tags;
+  }
+  
+  
+  /**
+   * The table model. It reads the values directly from the SeriesColumns.
+   */
+  private class SeriesTableModel extends AbstractTableModel {
+    
+    public int getRowCount() {
+      return (columns == null) ? 0 : columns.getRowCount();
+    }
+    
+    public int getColumnCount() {
+      return (columns == null) ? 1 : columns.getColumnCount() + 1;
+    }
+    
+    public String getColumnName(int col) {
+      String  name;
+      
+      if (col == 0) return "File";
+      try {
+        name = dict.lookup(columns.getTag(col - 1)).name;
+      } catch (Exception e) {
+        name = Tags.toString(columns.getTag(col - 1));
+      }
+      
+      // Spalten mit unterschiedlichen Werten kennzeichnen
+      return columns.isVarying(col - 1) ? name + " *" : name;
+    }
+    
+    public Class getColumnClass(int col) {
+      return String.class;
+    }
+    
+    public Object getValueAt(int row, int col) {
+      String  s;
+      
+      if (col == 0) {
+        return columns.isReadable(row) ? columns.getFile(row).getName() 
+                                       : columns.getFile(row).getName() + " (not readable)";
+      }
+      s = columns.getValue(row, col - 1);
+      return (s == null) ? "" : s;
+    }
+  }
+  
+  
+  /**
+   * Renders the outliers with a different background.
+   */
+  private class OutlierRenderer extends DefaultTableCellRenderer {
+    
+    public java.awt.Component getTableCellRendererComponent(javax.swing.JTable t, Object value, 
+                                                            boolean isSelected, boolean hasFocus, 
+                                                            int row, int column) {
+      int col = t.convertColumnIndexToModel(column) - 1;
+      
+      super.getTableCellRendererComponent(t, value, isSelected, hasFocus, row, column);
+      if (!isSelected) {
+        if ((columns != null) && (col >= 0) && columns.isOutlier(row, col)) {
+          setBackground(OUTLIER_COLOR);
+        } else {
+          setBackground(t.getBackground());
+        }
+      }
+      return this;
+    }
+  }
+  
+}
@@ -23,7 +23,6 @@ package de.iftm.dcm4che.dcmie.inspect;
 
 import java.awt.*;
 import java.io.*;
-import java.nio.charset.*;
 import java.util.*;
 import javax.swing.table.*;
 
@@ -44,6 +43,9 @@ public class TablePanel extends javax.swing.JPanel implements FileSelectionListe
 
   private String          VERSION = "0.2";
   
+  // Hex Ziffern fuer die Preamble
+  private final static char[] HEX = "0123456789abcdef".toCharArray();
+  
   
   // Das File Formmat
   private FileFormat      ff;
@@ -56,8 +58,9 @@ public class TablePanel extends javax.swing.JPanel implements FileSelectionListe
   private TagDictionary   dict = null;
 
   
-  // Der Indent String fuer SQ Elemente
-  private String          sqIndent;
+  // Das Modell der Dataset Tabelle. Sequenzen werden erst beim Oeffnen
+  // aufgeklappt.
+  private DatasetTableModel dsModel;
   
   
   /**
@@ -65,6 +68,39 @@ public class TablePanel extends javax.swing.JPanel implements FileSelectionListe
    */
   public TablePanel() {
     initComponents();
+    myInitComponents();
+  }
+  
+  
+  /**
+   * Replaces the DefaultTableModel of the Dataset table by a tree-table model.
+   * A click into the name column or a double click expands or collapses a
+   * sequence or item.
+   */
+  private void myInitComponents() {
+    dict = DictionaryFactory.getInstance().getDefaultTagDictionary();
+    dsModel = new DatasetTableModel(dict);
+    dsTable.setModel(dsModel);
+    
+    dsTable.addMouseListener(new java.awt.event.MouseAdapter() {
+      public void mouseClicked(java.awt.event.MouseEvent evt) {
+        int row = dsTable.rowAtPoint(evt.getPoint());
+        int column = dsTable.columnAtPoint(evt.getPoint());
+        if (row < 0) return;
+        if ((evt.getClickCount() == 2) || (dsTable.convertColumnIndexToModel(column) == 0)) {
+          dsModel.toggle(row);
+        }
+      }
+    });
+    dsTable.addKeyListener(new java.awt.event.KeyAdapter() {
+      public void keyPressed(java.awt.event.KeyEvent evt) {
+        int row = dsTable.getSelectedRow();
+        if ((row >= 0) && (evt.getKeyCode() == java.awt.event.KeyEvent.VK_SPACE)) {
+          dsModel.toggle(row);
+          evt.consume();
+        }
+      }
+    });
   }
   
   
@@ -82,8 +118,6 @@ public class TablePanel extends javax.swing.JPanel implements FileSelectionListe
    * @param e the FileSelection event.
    */
   public void fileSelected(FileSelectionEvent e) {
-    InputStream   in = null;
-    
     // Altes Dataset ignorierern
     fileDataset = null;
     
@@ -91,27 +125,20 @@ public class TablePanel extends javax.swing.JPanel implements FileSelectionListe
     while (fileTable.getModel().getRowCount() > 0) {
       ((DefaultTableModel) fileTable.getModel()).removeRow(0);
     }
-    while (dsTable.getModel().getRowCount() > 0) {
-      ((DefaultTableModel) dsTable.getModel()).removeRow(0);
-    }
+    dsModel.clear();
     
     // Wenn File nicht gesetzt nichts tun
     if (e.getLastSelectedFile() == null) return;
     
     try {
-      in = new BufferedInputStream(new FileInputStream(e.getLastSelectedFile()));
-      DcmParser p = DcmParserFactory.getInstance().newDcmParser(in);
-      ff = p.detectFileFormat();
-      fileDataset = DcmObjectFactory.getInstance().newDataset();
-      fileDataset.readFile(in, ff, -1);
+      // Die anderen Panels verwenden dasselbe Dataset
+      ff = DatasetCache.getInstance().getFileFormat(e.getLastSelectedFile());
+      fileDataset = DatasetCache.getInstance().getDataset(e.getLastSelectedFile());
       addFileInfo();
-      addFileDatasetInfo();
+      dsModel.setDataset(fileDataset);
+      addPixelDataInfo(e.getLastSelectedFile());
     } catch (Exception e2) {
       ((DefaultTableModel) fileTable.getModel()).addRow(new String [] {"No DICOM file selected", ""});
-    } finally {
-      try {
-        in.close();
-      } catch (Exception ignore) {}
     }
     
   }
@@ -121,8 +148,8 @@ public class TablePanel extends javax.swing.JPanel implements FileSelectionListe
    * Adds file meta information.
    */
   private void addFileInfo() {
-    String    s;
-    String    preamble = "";
+    StringBuffer  preamble = new StringBuffer(128 * 3);
+    byte[]        pa;
     
     FileMetaInfo fmi = fileDataset.getFileMetaInfo();
     
@@ -132,15 +159,13 @@ public class TablePanel extends javax.swing.JPanel implements FileSelectionListe
     // Falls kein File Meta Information Block vorhanden
     if (fmi == null)  return;
     
-    for (int i = 0; i < 128; i++) {
-      s = Integer.toHexString(fmi.getPreamble()[i]);
-      if (s.length() == 1) {
-        s = "0" + s;
-      }
-      preamble += "\\" + s;
+    // Die Bytes ohne Vorzeichen als zweistellige Hex Zahlen ausgeben
+    pa = fmi.getPreamble();
+    for (int i = 0; i < pa.length; i++) {
+      preamble.append('\\').append(HEX[(pa[i] >> 4) & 0x0f]).append(HEX[pa[i] & 0x0f]);
     }
     
-    ((DefaultTableModel) fileTable.getModel()).addRow(new String [] {"Preamble", preamble});
+    ((DefaultTableModel) fileTable.getModel()).addRow(new String [] {"Preamble", preamble.toString()});
     ((DefaultTableModel) fileTable.getModel()).addRow(new String [] {"MediaStorageSOPClassUID", fmi.getMediaStorageSOPClassUID()});
     ((DefaultTableModel) fileTable.getModel()).addRow(new String [] {"MediaStorageSOPInstanceUID", fmi.getMediaStorageSOPInstanceUID()});
     ((DefaultTableModel) fileTable.getModel()).addRow(new String [] {"TransferSyntaxUID", fmi.getTransferSyntaxUID()});
@@ -148,108 +173,29 @@ public class TablePanel extends javax.swing.JPanel implements FileSelectionListe
   
   
   /**
-   * Das Dataset, das im File gefunden wurde, hinzufuegen.
+   * Adds a row for the PixelData element. The pixel data are not read, only
+   * the length and the position in the file are shown.
+   * @param f the DICOM file.
    */
-  private void addFileDatasetInfo() {
+  private void addPixelDataInfo(File f) throws IOException {
+    String[]  col = new String[6];
+    int       length;
+    long      offset;
     
-    // Kein indent-Text vor den Namen
-    sqIndent = "";
+    offset = DatasetCache.getInstance().getPixelDataOffset(f);
+    if (offset < 0) return;
+    length = DatasetCache.getInstance().getPixelDataLength(f);
     
-    // Dataset hinzufuegen
-    addDSInfo(fileDataset);
+    col[0] = dict.lookup(Tags.PixelData).name;
+    col[1] = "(7fe0, 0010)";
+    col[2] = VRs.toString(DatasetCache.getInstance().getPixelDataVR(f));
+    col[3] = "1";
+    col[4] = Integer.toString(length);
+    col[5] = ((length == -1) ? "encapsulated" : "not read") + ", at offset " + offset;
+    dsModel.addRow(col);
   }
   
   
-  /**
-   * Ein dataset hinzufuegen. Achtung: Rekursion moeglich!
-   */
-  private void addDSInfo(Dataset ds) {
-    
-    for (Iterator i = ds.iterator(); i.hasNext(); ) {
-      try {
-        addDSRow((DcmElement) i.next(), ds.getCharset());
-      } catch (Exception e) {}
-    }
-    
-    // Eine Ebene des Indent zurueckgehen
-    if (sqIndent.length() > 0) sqIndent = sqIndent.substring(2);
-  }
-  
-  
-  /**
-   * Adds the singel info row.
-   */
-  private void addDSRow(DcmElement element, Charset cs) {
-    String[]    col = new String[6];
-    String      tagString;
-    String[]    dataStringArray;
-    String      dataString;
-    Dataset     newDataset;
-    
-    try {
-      // Defaultwerte
-      col[0] = "[Private Tag]";
-      col[1] = "";
-      col[2] = "??";
-      col[3] = "?";
-      col[5] = "";
-      col[5] = "";
-      
-      // Column 1 und 4 koennen auch fuer Private Tags erhoben werden
-      tagString = "0000" + Integer.toHexString(element.tag());
-      tagString = tagString.substring(tagString.length() - 8);
-      col[1] = "(" + tagString.substring(0, 4) + ", " + tagString.substring(4) + ")";
-      col[4] = Integer.toString(element.length());
-      
-      // Fuer Private Tags treten hier Exceptions auf
-      col[0] = dict.lookup(element.tag()).name;
-      if (sqIndent.length() > 0) col[0] = sqIndent + col[0];
-      
-      col[2] = VRs.toString(element.vr());
-      col[3] = Integer.toString(element.vm());
-      
-    } catch (Exception ignore) {}
-
-    // Wenn keine Daten vorhanden sind
-    if (element.length() == 0) {
-     ((DefaultTableModel) dsTable.getModel()).addRow(col);
-     return;
-    }
-    
-    // Wenn das Element nicht vom Typ "SQ" ist
-    if (element.vr() != VRs.SQ) {
-      try {
-        dataStringArray = element.getStrings(cs);
-        dataString = "";
-        for (int i = 0, n = element.vm(); i < n; i++) {
-          dataString += "\\" + dataStringArray[i];
-        }
-        col[5] = dataString.substring(1);
-      } catch (Exception ignore) {}
-      // Reihe anhaengen
-      ((DefaultTableModel) dsTable.getModel()).addRow(col);
-      return;
-    }
-    
-    // Rekursiv anhaengen
-    try {
-      for (int i = 0, n = element.vm(); i < n; i++) {
-        newDataset = element.getItem(i);
-        // Das SQ-Element selbst anhaengen
-        col[5] = "> Item " + Integer.toString(i + 1) + " >";
-        ((DefaultTableModel) dsTable.getModel()).addRow(col);
-        
-        // Indent eine Ebene erhoehen
-        sqIndent += "> ";
-        
-        // Inhalt des Dataset anhaengen
-        addDSInfo(newDataset);
-      }
-    } catch (Exception ignore) {}
-    
-  }
-
-  
   /** This method is called from within the constructor to
    * initialize the form.
    * WARNING: Do NOT modify this code. The content of this method is
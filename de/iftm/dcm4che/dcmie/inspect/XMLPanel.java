@@ -24,6 +24,7 @@ package de.iftm.dcm4che.dcmie.inspect;
 import java.awt.*;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.*;
 
 import javax.xml.transform.*;
 import javax.xml.transform.sax.*;
@@ -41,7 +42,7 @@ import de.iftm.java.util.*;
 
 /**
  * @author   Thomas Hacklaender
- * @version  2002.5.30
+ * @version  2002.9.30
  */
 public class XMLPanel extends javax.swing.JPanel implements FileSelectionListener, java.io.Serializable {
 
@@ -53,7 +54,26 @@ public class XMLPanel extends javax.swing.JPanel implements FileSelectionListene
   private TagDictionary     dict = null;
   
   private boolean           isXSLT = false;
-  private Source            xsltSource = null;
+  
+  // Das ausgewaehlte Stylesheet: Ein File oder eine Resource in "resources"
+  private File              xsltFile = null;
+  private String            xsltResource = null;
+  
+  // Die uebersetzten Stylesheets. Key ist der Pfad des Files bzw. der Name
+  // der Resource, Value ein CachedTemplates.
+  private java.util.HashMap templatesCache = new java.util.HashMap();
+  
+  private SAXTransformerFactory saxTF = null;
+  
+  // Das Ergebnis der Transformation wird in diesen File geschrieben
+  private File              spoolFile = null;
+  
+  // Zeigt den spoolFile seitenweise an
+  private PagedTextView     pagedView;
+  
+  // Ausgabe als DICOM JSON statt XML
+  private boolean           isJSON = false;
+  private javax.swing.JRadioButton jsonBtn;
 
   
   /**
@@ -61,6 +81,46 @@ public class XMLPanel extends javax.swing.JPanel implements FileSelectionListene
    */
   public XMLPanel() {
     initComponents();
+    myInitComponents();
+  }
+  
+  
+  /**
+   * Replaces the text area by a paged view of the spooled result, so that
+   * large results do not load into a Swing document. Adds the DICOM JSON
+   * output option.
+   */
+  private void myInitComponents() {
+    java.awt.GridBagConstraints   c;
+    
+    c = ((java.awt.GridBagLayout) getLayout()).getConstraints(scroll);
+    remove(scroll);
+    pagedView = new PagedTextView();
+    add(pagedView, c);
+    
+    jsonBtn = new javax.swing.JRadioButton("DICOM JSON");
+    xsltGroup.add(jsonBtn);
+    jsonBtn.addActionListener(new java.awt.event.ActionListener() {
+      public void actionPerformed(java.awt.event.ActionEvent evt) {
+        isXSLT = false;
+        openXSLTBtn.setEnabled(false);
+        internalHTMLBtn.setEnabled(false);
+      }
+    });
+    
+    // Wird auch beim Auswaehlen eines anderen Buttons der Gruppe aufgerufen
+    jsonBtn.addItemListener(new java.awt.event.ItemListener() {
+      public void itemStateChanged(java.awt.event.ItemEvent evt) {
+        isJSON = jsonBtn.isSelected();
+      }
+    });
+    c = new java.awt.GridBagConstraints();
+    c.gridx = 1;
+    c.gridy = 1;
+    c.gridwidth = 2;
+    c.anchor = java.awt.GridBagConstraints.WEST;
+    c.insets = new java.awt.Insets(15, 5, 0, 0);
+    add(jsonBtn, c);
   }
   
   
@@ -83,27 +143,49 @@ public class XMLPanel extends javax.swing.JPanel implements FileSelectionListene
 
   
   /**
-   *
+   * Converts the header of the last selected file to XML and shows it. The
+   * SAX events of the DcmParser are fed directly into a TransformerHandler,
+   * which applies the selected stylesheet. So the file is parsed only once and
+   * no intermediate XML document is created.
    */
   public void refresh() {
-    DataInputStream           dicomStream = null;
-    ByteArrayOutputStream     xmlStream = null;
-    Source                    source = null;
-    Result                    result = null;
-    ByteArrayOutputStream     resultStream;
+    InputStream               dicomStream = null;
+    OutputStream              resultStream = null;
+    File                      newSpoolFile = null;
+    String                    encoding;
     DcmParser                 parser;
-    Transformer               transformer;
+    TransformerHandler        transformerHandler;
     
     if (lastSelectedFile == null) return;
 
     try {
-      FileInputStream fis = new FileInputStream(lastSelectedFile);
-      BufferedInputStream bis = new BufferedInputStream(fis);
-      dicomStream = new DataInputStream(bis);
-      xmlStream = new ByteArrayOutputStream();
+      dicomStream = new BufferedInputStream(new FileInputStream(lastSelectedFile));
+      
+      // Fuer jede Transformation einen neuen File verwenden, da der alte noch
+      // gemappt sein kann
+      newSpoolFile = File.createTempFile("dcmie", isJSON ? ".json" : ".xml");
+      newSpoolFile.deleteOnExit();
+      resultStream = new BufferedOutputStream(new FileOutputStream(newSpoolFile));
+      
+      if (isJSON) {
+        // JSON direkt aus dem Dataset schreiben. Binaere Werte werden ueber
+        // BulkDataURIs auf den DICOM File referenziert.
+        new DicomJsonWriter(new OutputStreamWriter(resultStream, "UTF-8")).writeFile(lastSelectedFile);
+        resultStream.close();
+        resultStream = null;
+        setSpoolFile(newSpoolFile);
+        newSpoolFile = null;
+        pagedView.setFile(spoolFile, "UTF-8");
+        return;
+      }
 
       try {
         
+        // Der TransformerHandler wendet das Stylesheet direkt auf die SAX
+        // Events an. Ohne XSLT ist es eine Identitaets-Transformation.
+        transformerHandler = getTransformerHandler(new StreamResult(resultStream));
+        encoding = transformerHandler.getTransformer().getOutputProperty(OutputKeys.ENCODING);
+        
         // Eine konkrete Instance eines DcmParser generieren
         parser = DcmParserFactory.getInstance().newDcmParser(dicomStream);
         
@@ -112,135 +194,179 @@ public class XMLPanel extends javax.swing.JPanel implements FileSelectionListene
         // aber nicht von einem SAX-Parser aufgerufen, sondern von der Methode
         // DcmParser.doParse(). Damit verhaelt sich der DcmParser im XML-Umfeld
         // wie ein Parser, der ein XML-Dokument parst.
-        // getTransformerHandler(out) liefert den eigentlichen ContentHandler
         // dict gibt das zu verwendende Dictionary vor
-        parser.setSAXHandler(getTransformerHandler(xmlStream), dict);
+        parser.setSAXHandler(transformerHandler, dict);
 
         // Parst den DICOM File: Da FileFormat = null , wird jeder File bearbeitet
         // stopTag ist Tags.PixelData. Pixel Daten werden nicht mehr eingeschlossen
         parser.parseDcmFile(null, Tags.PixelData);
-
-        // Das Ergebnis des Parsens ist der ByteArrayOutputStream out
-
-      } catch (TransformerException transEx) {
-        textArea.setText("**** Parsing error" + transEx.getMessage());
-      }
-
-      try {
         
-        if (isXSLT) {
+        resultStream.close();
+        resultStream = null;
 
-          // Zunaechst Source, Result und Transformer festlegen
-          source = new StreamSource(new ByteArrayInputStream(xmlStream.toByteArray()));
-          resultStream = new ByteArrayOutputStream();
-          result = new StreamResult(resultStream);
-          transformer = TransformerFactory.newInstance().newTransformer(xsltSource);
-    
-          // Set an output property that will be in effect for the transformation:
-
-          // indent specifies whether the Transformer may add additional whitespace
-          // when outputting the result tree; the value must be yes or no. 
-          // transformer.setOutputProperty(OutputKeys.INDENT,"yes");
-
-          // The method attribute identifies the overall method that should be used
-          // for outputting the result tree; the value must be "xml" or "html" or
-          // "text" or expanded name.
-          // transformer.setOutputProperty(OutputKeys.METHOD,"xml");
-          
-          // Mit XSLT transformieren
-          transformer.transform(source, result);
-          
-          // In TextArea ausgeben
-          textArea.setText(resultStream.toString());
-          
-        } else {
-          
-          // Keine Umwandlung mit XSLT: In TextArea ausgeben
-          textArea.setText(xmlStream.toString());
-          
-        }
+        // Seitenweise ausgeben
+        setSpoolFile(newSpoolFile);
+        newSpoolFile = null;
+        pagedView.setFile(spoolFile, encoding);
 
       } catch (TransformerException transEx) {
-        textArea.setText("**** XSLT transformation error: " + transEx.getMessage());
+        setSpoolFile(null);
+        pagedView.setText("**** XSLT transformation error: " + transEx.getMessage());
       }
-                    
-      // Stream schliessen
-      dicomStream.close();
-      fis.close();
       
     } catch (IOException ioEx) {
-      textArea.setText("*** Warning: Can't open file " + lastSelectedFile.toString());
+      setSpoolFile(null);
+      pagedView.setText("*** Warning: Can't open file " + lastSelectedFile.toString());
       return;
       
     } finally {
-      try { dicomStream.close(); } catch (IOException ignore) {}
-      try { xmlStream.close(); } catch (IOException ignore) {}
+      try { 
+        if (dicomStream != null) dicomStream.close(); 
+      } catch (IOException ignore) {}
+      try { 
+        if (resultStream != null) resultStream.close(); 
+      } catch (IOException ignore) {}
+      if (newSpoolFile != null) newSpoolFile.delete();
     }
 
   }        
+  
+  
+  /**
+   * Replaces the spool file. The old spool file is deleted.
+   * @param f the new spool file or null.
+   */
+  private void setSpoolFile(File f) {
+    if (spoolFile != null) spoolFile.delete();
+    spoolFile = f;
+  }
 
   
   /**
-   * This method returns a non-validating ContentHandler. It converts the
-   * XML input into a well-formed XML document in the outStream. Each element
-   * starts in a new line. 
-   * A TransformerHandler listens for SAX ContentHandler parse events and
-   * transforms them to a Result. [javax.xml.transformer.sax.TransformerHandler 
+   * Returns a TransformerHandler, which listens for SAX ContentHandler parse
+   * events and transforms them to a Result. [javax.xml.transformer.sax.TransformerHandler 
    * extends org.xml.sax.ContentHandler]
+   * If a stylesheet is selected, the compiled Templates of the stylesheet are
+   * used. Otherwise the XML input is converted into a well-formed XML document.
+   * Each element starts in a new line. 
+   * @param result the result of the transformation.
+   * @return the TransformerHandler.
    */
-  private TransformerHandler getTransformerHandler(OutputStream xmlStream) throws TransformerConfigurationException {
-    SAXTransformerFactory     saxTF;
+  private TransformerHandler getTransformerHandler(Result result) throws TransformerConfigurationException {
     TransformerHandler        transformerHandler;
     Transformer               transformer;
-    Source                    xsltSource = null;
-    Result                    result;
+    Templates                 templates;
 
-    // Ergebnis in den Stream outStream schreiben
-    result = new StreamResult(xmlStream);
-    
-    // Eine konkrete Instance einer SAXTransformerFactory erzeugen
-    // [javax.xml.transform.TransformerFactory]
-    // [javax.xml.transform.sax.SAXTransformerFactory]
-    saxTF = (SAXTransformerFactory) TransformerFactory.newInstance();
+    templates = isXSLT ? getTemplates() : null;
     
-    if (xsltSource == null) {
+    if (templates == null) {
       // Get a TransformerHandler object that can process SAX ContentHandler
       // events into a Result. The transformation is defined as an identity
-      // (or copy) transformation, for example to copy a series of SAX parse
-      // events into a DOM tree. [javax.xml.transform.sax.SAXTransformerFactory]
-      transformerHandler = saxTF.newTransformerHandler();
+      // (or copy) transformation. [javax.xml.transform.sax.SAXTransformerFactory]
+      transformerHandler = getTransformerFactory().newTransformerHandler();
+      
+      // Get the Transformer associated with this handler, which is needed in
+      // order to set parameters and output properties.
+      // [javax.xml.transform.Transformer]
+      transformer = transformerHandler.getTransformer();
+      
+      // indent specifies whether the Transformer may add additional whitespace
+      // when outputting the result tree; the value must be yes or no. 
+      transformer.setOutputProperty(OutputKeys.INDENT,"yes");
+      
+      // The method attribute identifies the overall method that should be used
+      // for outputting the result tree; the value must be "xml" or "html" or
+      // "text" or expanded name.
+      transformer.setOutputProperty(OutputKeys.METHOD,"xml");
     } else {
       // Get a TransformerHandler object that can process SAX ContentHandler
-      // events into a Result, based on the transformation instructions
-      // specified by the argument, e.g. a XSLT styleshet.
+      // events into a Result, based on the compiled stylesheet.
+      // The output properties are defined by the stylesheet.
+      transformerHandler = getTransformerFactory().newTransformerHandler(templates);
+    }
+    
+    // Enables the user of the TransformerHandler to set the to set the result
+    // Result result) for the transformation.
+    transformerHandler.setResult(result);
+    
+    return transformerHandler;
+  }
+  
+  
+  /**
+   * Returns the SAXTransformerFactory. The factory is created once.
+   * @return the factory.
+   */
+  private SAXTransformerFactory getTransformerFactory() {
+    if (saxTF == null) {
+      // Eine konkrete Instance einer SAXTransformerFactory erzeugen
+      // [javax.xml.transform.TransformerFactory]
       // [javax.xml.transform.sax.SAXTransformerFactory]
-      transformerHandler = saxTF.newTransformerHandler(xsltSource);
+      saxTF = (SAXTransformerFactory) TransformerFactory.newInstance();
     }
+    return saxTF;
+  }
+  
+  
+  /**
+   * Returns the compiled selected stylesheet. The Templates are cached per
+   * stylesheet. A stylesheet file is compiled again, if it was modified.
+   * @return the Templates or null, if no stylesheet is selected.
+   */
+  private Templates getTemplates() throws TransformerConfigurationException {
+    String            key;
+    long              modified = 0;
+    CachedTemplates   ct;
+    Source            source;
+    InputStream       in = null;
     
-    // Der transformerHandler ist eine Instanz der Default-Implementation
-    // des org.xml.sax.ContentHandler
-
-    // Get the Transformer associated with this handler, which is needed in
-    // order to set parameters and output properties.
-    // [javax.xml.transform.Transformer]
-    transformer = transformerHandler.getTransformer();
+    if (xsltFile != null) {
+      key = xsltFile.getAbsolutePath();
+      modified = xsltFile.lastModified();
+    } else if (xsltResource != null) {
+      key = "resource:" + xsltResource;
+    } else {
+      return null;
+    }
     
-    // Set an output property that will be in effect for the transformation:
+    ct = (CachedTemplates) templatesCache.get(key);
+    if ((ct != null) && (ct.lastModified == modified)) return ct.templates;
     
-    // indent specifies whether the Transformer may add additional whitespace
-    // when outputting the result tree; the value must be yes or no. 
-    transformer.setOutputProperty(OutputKeys.INDENT,"yes");
+    // Stylesheet neu uebersetzen
+    if (xsltFile != null) {
+      source = new StreamSource(xsltFile);
+    } else {
+      URL url = getClass().getResource("resources/" + xsltResource);
+      if (url == null) throw new TransformerConfigurationException("Stylesheet not found: " + xsltResource);
+      in = getClass().getResourceAsStream("resources/" + xsltResource);
+      source = new StreamSource(in, url.toString());
+    }
     
-    // The method attribute identifies the overall method that should be used
-    // for outputting the result tree; the value must be "xml" or "html" or
-    // "text" or expanded name.
-    transformer.setOutputProperty(OutputKeys.METHOD,"xml");
+    try {
+      ct = new CachedTemplates();
+      ct.templates = getTransformerFactory().newTemplates(source);
+      ct.lastModified = modified;
+      templatesCache.put(key, ct);
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (IOException ignore) {}
+    }
     
-    // Enables the user of the TransformerHandler to set the to set the result
-    // Result result) for the transformation.
-    transformerHandler.setResult(result);
+    return ct.templates;
+  }
+  
+  
+  /**
+   * Compiled Templates of a stylesheet.
+   */
+  private static class CachedTemplates {
     
-    return transformerHandler;
+    /** The compiled stylesheet. */
+    Templates   templates;
+    
+    /** The modification time of the stylesheet file. 0 for resources. */
+    long        lastModified;
   }
 
 
@@ -252,18 +378,36 @@ public class XMLPanel extends javax.swing.JPanel implements FileSelectionListene
 	 */
 	public void save() {
 		File							f;
-		DataOutputStream	out;
+		FileInputStream		in = null;
+		FileOutputStream	out = null;
+		FileChannel				src;
+		long							pos, size;
 		String						fName = "XML_View_Dump";;
 
+		if (spoolFile == null) return;
+		
 		f = FileChooser.saveFile("", null, fName);
 		if (f == null) return;
 
     try {
-			out = new DataOutputStream(new FileOutputStream(f));
-			out.writeBytes(textArea.getText());
-			out.close();
+			// Den gespoolten File ohne Umweg ueber den Heap kopieren
+			in = new FileInputStream(spoolFile);
+			out = new FileOutputStream(f);
+			src = in.getChannel();
+			size = src.size();
+			pos = 0;
+			while (pos < size) {
+				pos += src.transferTo(pos, size - pos, out.getChannel());
+			}
 		} catch (IOException ioEx) {
 			ioEx.printStackTrace();
+		} finally {
+			try {
+				if (in != null) in.close();
+			} catch (IOException ignore) {}
+			try {
+				if (out != null) out.close();
+			} catch (IOException ignore) {}
 		}
 	}
 
@@ -427,12 +571,10 @@ public class XMLPanel extends javax.swing.JPanel implements FileSelectionListene
 
   private void internalHTMLBtnActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_internalHTMLBtnActionPerformed
     // Add your handling code here:
-    InputStream   inpStream;
-    
-    inpStream = this.getClass().getResourceAsStream("resources/SimpleDcmMetadata.xsl");
     
     // XSLT Resource als Transformation-Source speichern
-    xsltSource = new StreamSource(inpStream);
+    xsltFile = null;
+    xsltResource = "SimpleDcmMetadata.xsl";
   }//GEN-LAST:event_internalHTMLBtnActionPerformed
 
   
@@ -447,7 +589,8 @@ public class XMLPanel extends javax.swing.JPanel implements FileSelectionListene
     fileTextField.setText(f.toString());
     
     // XSLT File als Transformation-Source speichern
-    xsltSource = new StreamSource(f);
+    xsltResource = null;
+    xsltFile = f;
   }//GEN-LAST:event_openXSLTBtnActionPerformed
 
   
@@ -460,23 +603,22 @@ public class XMLPanel extends javax.swing.JPanel implements FileSelectionListene
     internalHTMLBtn.setEnabled(false);
     
     // XSLT File aus TextField holen und als Transformation-Source speichern
-    xsltSource = new StreamSource(new File(fileTextField.getText()));
+    xsltResource = null;
+    xsltFile = new File(fileTextField.getText());
   }//GEN-LAST:event_fileXSLTBtnActionPerformed
 
   
   private void internalXSLTBtnActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_internalXSLTBtnActionPerformed
     // Add your handling code here:
-    InputStream   inpStream;
     
     isXSLT = true;
     openXSLTBtn.setEnabled(false);
     internalHTMLBtn.setEnabled(true);
     
     if (internalHTMLBtn.isSelected()) {
-      inpStream = this.getClass().getResourceAsStream("resources/MetadataToHTML.xsl");
-    
       // XSLT Resource als Transformation-Source speichern
-      xsltSource = new StreamSource(inpStream);
+      xsltFile = null;
+      xsltResource = "MetadataToHTML.xsl";
     }
   }//GEN-LAST:event_internalXSLTBtnActionPerformed
 
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dirtable;
+
+import java.io.*;
+import java.util.*;
+
+import org.dcm4che.media.*;
+
+import de.iftm.javax.imageio.stream.*;
+
+
+/**
+ * Builds a catalog of several DICOMDIRs, e.g. of CDs copied to a file server.
+ * The DICOMDIRs are loaded in parallel. Their records are merged into one
+ * DirIndex, in which patients, studies, series and images occuring on several
+ * media are listed only once. Patients are identified by PatientID and 
+ * PatientName, studies by StudyInstanceUID, series by SeriesInstanceUID and 
+ * images by the referenced SOPInstanceUID. Each IMAGE record refers to the
+ * media it was found on first.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.23
+ */
+public class DirCatalog {
+  
+  
+  /**
+   * Only records with the in-use flag set are read.
+   */
+  private final static boolean  ONLY_IN_USE = true;
+  
+  
+  /**
+   * The DICOMDIRs to load. null, until the root directory is searched.
+   */
+  private File[]      dicomdirs;
+  
+  
+  /**
+   * The root directory to search for DICOMDIRs. null, if the DICOMDIRs were
+   * given.
+   */
+  private File        root = null;
+  
+  
+  /**
+   * The indexes of the DICOMDIRs. null, if a DICOMDIR could not be read.
+   */
+  private DirIndex[]  indexes;
+  
+  
+  /**
+   * The next DICOMDIR to load by a worker thread.
+   */
+  private int         next = 0;
+  
+  
+  /**
+   * True, if loading should be abandoned.
+   */
+  private boolean     cancelled = false;
+  
+  
+  /**
+   * Creates a new DirCatalog.
+   * @param dicomdirs the DICOMDIR files.
+   */
+  public DirCatalog(File[] dicomdirs) {
+    this.dicomdirs = dicomdirs;
+    indexes = new DirIndex[dicomdirs.length];
+  }
+  
+  
+  /**
+   * Creates a new DirCatalog of all DICOMDIRs below a directory. The directory
+   * tree is searched by load, not by the constructor, because the search may
+   * take a long time on a file server.
+   * @param root the root of the directory tree.
+   */
+  public DirCatalog(File root) {
+    this.root = root;
+    indexes = new DirIndex[0];
+  }
+  
+  
+  /**
+   * Returns the number of DICOMDIRs of the catalog.
+   * @return the number or 0, if the root directory is not searched yet.
+   */
+  public synchronized int getDICOMDIRCount() {
+    return (dicomdirs == null) ? 0 : dicomdirs.length;
+  }
+  
+  
+  /**
+   * Searches a directory tree for DICOMDIR files.
+   * @param root the root of the directory tree.
+   * @return the DICOMDIR files.
+   */
+  public static File[] findDICOMDIRs(File root) {
+    Vector  v = new Vector();
+    
+    findDICOMDIRs(root, v);
+    return (File[]) v.toArray(new File[0]);
+  }
+  
+  
+  /**
+   * Searches a directory tree for DICOMDIR files.
+   * @param dir the directory to search.
+   * @param v the Vector to add the files.
+   */
+  private static void findDICOMDIRs(File dir, Vector v) {
+    File[]  files = dir.listFiles();
+    
+    if (files == null) return;
+    
+    for (int i = 0; i < files.length; i++) {
+      if (files[i].isDirectory()) {
+        findDICOMDIRs(files[i], v);
+      } else if ("DICOMDIR".equalsIgnoreCase(files[i].getName())) {
+        v.add(files[i]);
+      }
+    }
+  }
+  
+  
+  /**
+   * Loads the DICOMDIRs in parallel and merges their records. If the catalog
+   * was created for a root directory, the directory tree is searched first.
+   * @param threads the number of threads.
+   * @return the merged index or null, if no DICOMDIR was found or loading was
+   *         cancelled during the search.
+   */
+  public DirIndex load(int threads) {
+    Thread[]  workers;
+    File[]    found;
+    
+    if (root != null) {
+      found = findDICOMDIRs(root);
+      synchronized (this) {
+        if (cancelled) return null;
+        dicomdirs = found;
+        indexes = new DirIndex[found.length];
+      }
+    }
+    if (dicomdirs.length == 0) return null;
+    
+    threads = Math.max(1, Math.min(threads, dicomdirs.length));
+    workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread() {
+        public void run() {
+          loadAll();
+        }
+      };
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+    
+    for (int i = 0; i < threads; i++) {
+      try {
+        workers[i].join();
+      } catch (InterruptedException e) {
+        cancel();
+      }
+    }
+    
+    return merge();
+  }
+  
+  
+  /**
+   * Abandons loading. The DICOMDIRs loaded so far are merged.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+    for (int i = 0; i < indexes.length; i++) {
+      if (indexes[i] != null) indexes[i].cancel();
+    }
+  }
+  
+  
+  /**
+   * Loads DICOMDIRs until all are loaded. Executed by the worker threads.
+   */
+  private void loadAll() {
+    int                     i;
+    MappedImageInputStream  iis;
+    DirIndex                index;
+    
+    while (true) {
+      synchronized (this) {
+        if (cancelled || (next >= dicomdirs.length)) return;
+        i = next++;
+      }
+      
+      iis = null;
+      index = null;
+      try {
+        iis = new MappedImageInputStream(dicomdirs[i]);
+        DirReader reader = DirBuilderFactory.getInstance().newDirReader(iis);
+        index = new DirIndex(reader, dicomdirs[i].getAbsoluteFile().getParentFile(), ONLY_IN_USE);
+        synchronized (this) {
+          indexes[i] = index;
+          if (cancelled) index.cancel();
+        }
+        index.loadAll();
+      } catch (IOException e) {
+        synchronized (this) {
+          indexes[i] = null;
+        }
+      } finally {
+        // Der DirIndex schliesst den Reader und damit den Stream. Den Stream
+        // nur selbst schliessen, wenn kein DirIndex erzeugt wurde.
+        if (index != null) {
+          index.close();
+        } else if (iis != null) {
+          try {
+            iis.close();
+          } catch (Exception ignore) {}
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Merges the loaded indexes into one catalog.
+   * @return the catalog.
+   */
+  private DirIndex merge() {
+    File[]          mediaDirs = new File[dicomdirs.length];
+    DirIndexMerger  merger = new DirIndexMerger();
+    DirIndexMerger.Node  pn, sn, rn, in;
+    DirIndex        index;
+    String          key;
+    int             s0, s1, r0, r1, i0, i1;
+    
+    for (int m = 0; m < dicomdirs.length; m++) {
+      mediaDirs[m] = dicomdirs[m].getAbsoluteFile().getParentFile();
+    }
+    
+    // Die Records aller Media in einen Baum einsortieren
+    for (int m = 0; m < indexes.length; m++) {
+      index = indexes[m];
+      if (index == null) continue;
+      
+      for (int p = 0; p < index.getCount(DirIndex.PATIENT); p++) {
+        key = index.getValue(DirIndex.PATIENT, DirIndex.PATIENT_ID, p) + "\\" 
+            + index.getValue(DirIndex.PATIENT, DirIndex.PATIENT_NAME, p);
+        pn = getChild(merger.getRoot(), key, index, DirIndex.PATIENT, p);
+        if (!index.isLoaded(DirIndex.PATIENT, p)) continue;
+        
+        s0 = index.getChildStart(DirIndex.PATIENT, p);
+        s1 = s0 + index.getChildCount(DirIndex.PATIENT, p);
+        for (int s = s0; s < s1; s++) {
+          key = uidKey(index.getValue(DirIndex.STUDY, DirIndex.STUDY_INSTANCE_UID, s), m, s);
+          sn = getChild(pn, key, index, DirIndex.STUDY, s);
+          if (!index.isLoaded(DirIndex.STUDY, s)) continue;
+          
+          r0 = index.getChildStart(DirIndex.STUDY, s);
+          r1 = r0 + index.getChildCount(DirIndex.STUDY, s);
+          for (int r = r0; r < r1; r++) {
+            key = uidKey(index.getValue(DirIndex.SERIES, DirIndex.SERIES_INSTANCE_UID, r), m, r);
+            rn = getChild(sn, key, index, DirIndex.SERIES, r);
+            if (!index.isLoaded(DirIndex.SERIES, r)) continue;
+            
+            i0 = index.getChildStart(DirIndex.SERIES, r);
+            i1 = i0 + index.getChildCount(DirIndex.SERIES, r);
+            for (int i = i0; i < i1; i++) {
+              key = uidKey(index.getValue(DirIndex.IMAGE, DirIndex.SOP_INSTANCE_UID, i), m, i);
+              if (rn.getChild(key) != null) continue;
+              in = getChild(rn, key, index, DirIndex.IMAGE, i);
+              in.fileIDs = index.getFileIDs(i);
+              in.media = m;
+            }
+          }
+        }
+      }
+      
+      // Der Index des einzelnen Media wird nicht mehr benoetigt
+      indexes[m] = null;
+    }
+    
+    return merger.build(mediaDirs);
+  }
+  
+  
+  /**
+   * Returns the child of a node with a key. If there is no such child, it is
+   * created from a record of an index.
+   * @param parent the parent node.
+   * @param key the key of the child.
+   * @param index the index.
+   * @param level the level of the record.
+   * @param record the number of the record in the index.
+   * @return the child.
+   */
+  private static DirIndexMerger.Node getChild(DirIndexMerger.Node parent, String key, 
+                                              DirIndex index, int level, int record) {
+    DirIndexMerger.Node   n = parent.getChild(key);
+    String[]              v;
+    
+    if (n != null) return n;
+    
+    v = new String[DirIndex.getColumnCount(level)];
+    for (int c = 0; c < v.length; c++) {
+      v[c] = index.getValue(level, c, record);
+    }
+    return parent.addChild(key, v);
+  }
+  
+  
+  /**
+   * Returns the key of a record. Records without UID are never merged.
+   * @param uid the UID or null.
+   * @param media the number of the media.
+   * @param record the number of the record in the index of the media.
+   * @return the key.
+   */
+  private static String uidKey(String uid, int media, int record) {
+    if (uid != null) return uid;
+    return "#" + media + "#" + record;
+  }
+  
+}
@@ -0,0 +1,783 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dirtable;
+
+import java.io.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+import org.dcm4che.media.*;
+
+
+/**
+ * A compact in-memory index of the PATIENT, STUDY, SERIES and IMAGE records of
+ * a DICOMDIR. The records of each level are numbered in the order they are
+ * loaded. For each record the index holds the number of the parent record,
+ * the range of its child records and the values of the displayed attributes
+ * in primitive arrays. Because the children of a record are always loaded in
+ * one pass, they occupy a contiguous range of numbers.<br>
+ * The index is filled by loadPatients and loadChildren, which may be called 
+ * from a background thread. All accessors are synchronized and may be called
+ * concurrently from the event-dispatch thread.<br>
+ * An index may also be a catalog of several DICOMDIRs (see DirCatalog). Then
+ * it is filled completely by addRecords and each IMAGE record refers to the
+ * media, i.e. the DICOMDIR directory, its file ID is relative to.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.16
+ */
+public class DirIndex {
+  
+  
+  /**
+   * Level of the PATIENT records.
+   */
+  public final static int   PATIENT = 0;
+  
+  
+  /**
+   * Level of the STUDY records.
+   */
+  public final static int   STUDY = 1;
+  
+  
+  /**
+   * Level of the SERIES records.
+   */
+  public final static int   SERIES = 2;
+  
+  
+  /**
+   * Level of the IMAGE records.
+   */
+  public final static int   IMAGE = 3;
+  
+  
+  /**
+   * The directory record types of the levels.
+   */
+  public final static String[] RECORD_TYPES = {"PATIENT", "STUDY", "SERIES", "IMAGE"};
+  
+  
+  // Spalten der PATIENT Records
+  public final static int   PATIENT_NAME = 0;
+  public final static int   PATIENT_ID = 1;
+  
+  // Spalten der STUDY Records
+  public final static int   STUDY_ID = 0;
+  public final static int   STUDY_DESCRIPTION = 1;
+  public final static int   STUDY_DATE = 2;
+  public final static int   STUDY_TIME = 3;
+  public final static int   STUDY_INSTANCE_UID = 4;
+  
+  // Spalten der SERIES Records
+  public final static int   SERIES_NUMBER = 0;
+  public final static int   MODALITY = 1;
+  public final static int   SERIES_INSTANCE_UID = 2;
+  
+  // Spalten der IMAGE Records
+  public final static int   INSTANCE_NUMBER = 0;
+  public final static int   SOP_INSTANCE_UID = 1;
+  
+  
+  /**
+   * The tags of the attributes held for each level. The index of a tag is the
+   * column number.
+   */
+  private final static int[][] COLUMN_TAGS = {
+    {Tags.PatientName, Tags.PatientID},
+    {Tags.StudyID, Tags.StudyDescription, Tags.StudyDate, Tags.StudyTime, Tags.StudyInstanceUID},
+    {Tags.SeriesNumber, Tags.Modality, Tags.SeriesInstanceUID},
+    {Tags.InstanceNumber, Tags.RefSOPInstanceUIDInFile}
+  };
+  
+  
+  /**
+   * Initial capacity of the arrays of each level.
+   */
+  private final static int  INITIAL_CAPACITY = 64;
+  
+  
+  /**
+   * The reader of the DICOMDIR.
+   */
+  private DirReader       reader;
+  
+  
+  /**
+   * Only records with the in-use flag set are indexed.
+   */
+  private boolean         onlyInUse;
+  
+  
+  /**
+   * True, if loading should be abandoned.
+   */
+  private boolean         cancelled = false;
+  
+  
+  /**
+   * Number of records of each level.
+   */
+  private int[]           count = new int[4];
+  
+  
+  /**
+   * Number of the parent record. [level][record]. -1 for PATIENT records.
+   */
+  private int[][]         parent = new int[4][];
+  
+  
+  /**
+   * Number of the first child record. [level][record]. -1, if the children
+   * are not yet loaded.
+   */
+  private int[][]         childStart = new int[3][];
+  
+  
+  /**
+   * Number of child records. [level][record].
+   */
+  private int[][]         childCount = new int[3][];
+  
+  
+  /**
+   * The attribute values. [level][column][record].
+   */
+  private String[][][]    values = new String[4][][];
+  
+  
+  /**
+   * The file IDs of the IMAGE records.
+   */
+  private String[][]      fileIDs;
+  
+  
+  /**
+   * The directories of the media, to which the file IDs are relative.
+   */
+  private File[]          mediaDirs;
+  
+  
+  /**
+   * The media of the IMAGE records as index into mediaDirs.
+   */
+  private int[]           imageMedia;
+  
+  
+  /**
+   * The resolved files of the IMAGE records of each SERIES record. An entry
+   * is null, until the files are requested.
+   */
+  private File[][]        seriesFiles;
+  
+  
+  /**
+   * The DirRecords of the SERIES records. They are kept to read the icons of
+   * the IMAGE records on demand. null for a catalog.
+   */
+  private DirRecord[]     seriesRecords;
+  
+  
+  /**
+   * The DirRecords, whose children are not yet loaded. [level][record]. A
+   * DirRecord is released after its children are loaded.
+   */
+  private DirRecord[][]   records = new DirRecord[3][];
+  
+  
+  /**
+   * The next PATIENT record to load. null, if no PATIENT record is loaded yet
+   * or all PATIENT records are loaded.
+   */
+  private DirRecord       nextPatient = null;
+  
+  
+  /**
+   * True, if all PATIENT records are loaded.
+   */
+  private boolean         patientsComplete = false;
+  
+  
+  /**
+   * Creates a new, empty DirIndex. The file IDs are resolved relative to the
+   * current directory.
+   * @param reader the reader of the DICOMDIR.
+   * @param onlyInUse if true, only records with the in-use flag set are indexed.
+   */
+  public DirIndex(DirReader reader, boolean onlyInUse) {
+    this(reader, null, onlyInUse);
+  }
+  
+  
+  /**
+   * Creates a new, empty DirIndex.
+   * @param reader the reader of the DICOMDIR.
+   * @param baseDir the directory, to which the file IDs are relative. This is
+   *        the directory containing the DICOMDIR.
+   * @param onlyInUse if true, only records with the in-use flag set are indexed.
+   */
+  public DirIndex(DirReader reader, File baseDir, boolean onlyInUse) {
+    this.reader = reader;
+    this.mediaDirs = new File[] {baseDir};
+    this.onlyInUse = onlyInUse;
+    
+    for (int level = PATIENT; level <= IMAGE; level++) {
+      parent[level] = new int[INITIAL_CAPACITY];
+      values[level] = new String[COLUMN_TAGS[level].length][INITIAL_CAPACITY];
+      if (level < IMAGE) {
+        childStart[level] = new int[INITIAL_CAPACITY];
+        childCount[level] = new int[INITIAL_CAPACITY];
+        records[level] = new DirRecord[INITIAL_CAPACITY];
+      }
+    }
+    fileIDs = new String[INITIAL_CAPACITY][];
+    imageMedia = new int[INITIAL_CAPACITY];
+    seriesFiles = new File[INITIAL_CAPACITY][];
+    seriesRecords = new DirRecord[INITIAL_CAPACITY];
+  }
+  
+  
+  /**
+   * Creates a new, empty catalog of several media. The catalog is filled by 
+   * addRecords.
+   * @param mediaDirs the directories of the media, to which the file IDs
+   *        are relative.
+   */
+  DirIndex(File[] mediaDirs) {
+    this(null, null, true);
+    this.mediaDirs = mediaDirs;
+  }
+  
+  
+  /**
+   * Loads all PATIENT records. Does nothing, if they are already loaded.
+   * @exception  IOException  in a case of I/O error
+   */
+  public void loadPatients() throws IOException {
+    while (loadPatients(Integer.MAX_VALUE)) {
+      if (isCancelled()) return;
+    }
+  }
+  
+  
+  /**
+   * Loads the next PATIENT records. This allows to display the first 
+   * patients, before all PATIENT records are read.
+   * @param max the maximum number of records to load.
+   * @return true, if there are more PATIENT records to load.
+   * @exception  IOException  in a case of I/O error
+   */
+  public boolean loadPatients(int max) throws IOException {
+    Vector    recs = new Vector();
+    DirRecord next;
+    
+    // Ein Katalog wird vollstaendig mit addRecords gefuellt
+    if (reader == null) return false;
+    
+    synchronized (reader) {
+      synchronized (this) {
+        if (patientsComplete) return false;
+        next = nextPatient;
+      }
+      
+      if ((next == null) && !isCancelled()) {
+        next = reader.getFirstRecord(onlyInUse);
+      }
+      while ((next != null) && (recs.size() < max) && !isCancelled()) {
+        if (RECORD_TYPES[PATIENT].equals(next.getType())) {
+          recs.add(next);
+        }
+        next = next.getNextSibling(onlyInUse);
+      }
+      
+      append(PATIENT, -1, recs);
+      
+      synchronized (this) {
+        nextPatient = next;
+        patientsComplete = (next == null) && !cancelled;
+        return !patientsComplete && !cancelled;
+      }
+    }
+  }
+  
+  
+  /**
+   * Tests, if all PATIENT records are loaded.
+   * @return true, if all PATIENT records are loaded.
+   */
+  public synchronized boolean isPatientsComplete() {
+    return patientsComplete;
+  }
+  
+  
+  /**
+   * Loads the child records of a record. Does nothing, if they are already 
+   * loaded.
+   * @param level the level of the record: PATIENT, STUDY or SERIES.
+   * @param record the number of the record.
+   * @exception  IOException  in a case of I/O error
+   */
+  public void loadChildren(int level, int record) throws IOException {
+    Vector    recs = new Vector();
+    DirRecord next;
+    
+    // Ein Katalog wird vollstaendig mit addRecords gefuellt
+    if (reader == null) return;
+    
+    synchronized (reader) {
+      synchronized (this) {
+        if (childStart[level][record] >= 0) return;
+        next = records[level][record];
+      }
+      
+      next = next.getFirstChild(onlyInUse);
+      while ((next != null) && !isCancelled()) {
+        if (RECORD_TYPES[level + 1].equals(next.getType())) {
+          recs.add(next);
+        }
+        next = next.getNextSibling(onlyInUse);
+      }
+      
+      // Abgebrochene Records nicht unvollstaendig eintragen
+      if (isCancelled()) return;
+      
+      append(level + 1, record, recs);
+    }
+  }
+  
+  
+  /**
+   * Loads all records level by level.
+   * @exception  IOException  in a case of I/O error
+   */
+  public void loadAll() throws IOException {
+    loadPatients();
+    for (int level = PATIENT; level < IMAGE; level++) {
+      for (int i = 0; (i < getCount(level)) && !isCancelled(); i++) {
+        loadChildren(level, i);
+      }
+    }
+  }
+  
+  
+  /**
+   * Appends records to a level. The Datasets are read outside of the lock
+   * of the index.
+   * @param level the level of the records.
+   * @param parentRecord the number of the parent record.
+   * @param recs the DirRecords.
+   */
+  private void append(int level, int parentRecord, Vector recs) {
+    int         n = recs.size();
+    int[]       tags = COLUMN_TAGS[level];
+    String[][]  v = new String[tags.length][n];
+    String[][]  ids = null;
+    DirRecord   rec;
+    Dataset     ds;
+    
+    // Attribute der Records lesen
+    if (level == IMAGE) {
+      ids = new String[n][];
+    }
+    for (int i = 0; i < n; i++) {
+      rec = (DirRecord) recs.get(i);
+      ds = rec.getDataset();
+      for (int c = 0; c < tags.length; c++) {
+        try {
+          v[c][i] = ds.getString(tags[c]);
+        } catch (Exception e) {}
+      }
+      if (level == IMAGE) {
+        ids[i] = rec.getRefFileIDs();
+      }
+    }
+    
+    store(level, parentRecord, v, ids, null, (DirRecord[]) recs.toArray(new DirRecord[0]));
+  }
+  
+  
+  /**
+   * Adds the children of a record to a catalog. The children of a record must
+   * be added in one call. Records without children must be added with an 
+   * empty array, otherwise they are not regarded as loaded.
+   * @param level the level of the records.
+   * @param parentRecord the number of the parent record. -1 for PATIENT records.
+   * @param v the attribute values: [column][record].
+   * @param ids the file IDs of IMAGE records or null for other levels.
+   * @param media the media of IMAGE records or null for other levels.
+   */
+  void addRecords(int level, int parentRecord, String[][] v, String[][] ids, int[] media) {
+    store(level, parentRecord, v, ids, media, null);
+    if (level == PATIENT) {
+      synchronized (this) {
+        patientsComplete = true;
+      }
+    }
+  }
+  
+  
+  /**
+   * Stores records.
+   * @param level the level of the records.
+   * @param parentRecord the number of the parent record.
+   * @param v the attribute values: [column][record].
+   * @param ids the file IDs of IMAGE records or null for other levels.
+   * @param media the media of IMAGE records. null for other levels or if all
+   *        records are on the first media.
+   * @param recs the DirRecords, whose children are to load later, or null.
+   * @return the number of the first stored record.
+   */
+  private int store(int level, int parentRecord, String[][] v, String[][] ids, int[] media, DirRecord[] recs) {
+    int   n = (v.length > 0) ? v[0].length : 0;
+    int   start;
+    
+    synchronized (this) {
+      start = count[level];
+      ensureCapacity(level, start + n);
+      
+      for (int i = 0; i < n; i++) {
+        parent[level][start + i] = parentRecord;
+        for (int c = 0; c < v.length; c++) {
+          values[level][c][start + i] = v[c][i];
+        }
+        if (level < IMAGE) {
+          childStart[level][start + i] = -1;
+          childCount[level][start + i] = 0;
+          records[level][start + i] = (recs != null) ? recs[i] : null;
+          if (level == SERIES) seriesRecords[start + i] = records[level][start + i];
+        } else {
+          fileIDs[start + i] = ids[i];
+          imageMedia[start + i] = (media != null) ? media[i] : 0;
+        }
+      }
+      count[level] = start + n;
+      
+      // Kinder beim Vater eintragen und den DirRecord freigeben
+      if (level > PATIENT) {
+        childStart[level - 1][parentRecord] = start;
+        childCount[level - 1][parentRecord] = n;
+        records[level - 1][parentRecord] = null;
+      }
+    }
+    return start;
+  }
+  
+  
+  /**
+   * Enlarges the arrays of a level.
+   * @param level the level.
+   * @param capacity the required capacity.
+   */
+  private void ensureCapacity(int level, int capacity) {
+    int   size = parent[level].length;
+    
+    if (capacity <= size) return;
+    
+    while (size < capacity) size *= 2;
+    
+    parent[level] = grow(parent[level], size);
+    for (int c = 0; c < values[level].length; c++) {
+      String[] a = new String[size];
+      System.arraycopy(values[level][c], 0, a, 0, count[level]);
+      values[level][c] = a;
+    }
+    if (level < IMAGE) {
+      childStart[level] = grow(childStart[level], size);
+      childCount[level] = grow(childCount[level], size);
+      DirRecord[] a = new DirRecord[size];
+      System.arraycopy(records[level], 0, a, 0, count[level]);
+      records[level] = a;
+      if (level == SERIES) {
+        File[][] f = new File[size][];
+        System.arraycopy(seriesFiles, 0, f, 0, count[level]);
+        seriesFiles = f;
+        DirRecord[] r = new DirRecord[size];
+        System.arraycopy(seriesRecords, 0, r, 0, count[level]);
+        seriesRecords = r;
+      }
+    } else {
+      String[][] a = new String[size][];
+      System.arraycopy(fileIDs, 0, a, 0, count[level]);
+      fileIDs = a;
+      imageMedia = grow(imageMedia, size);
+    }
+  }
+  
+  
+  /**
+   * Copies an int array into a larger one.
+   * @param a the array.
+   * @param size the new size.
+   * @return the new array.
+   */
+  private int[] grow(int[] a, int size) {
+    int[] b = new int[size];
+    
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+  
+  
+  /**
+   * Returns the number of loaded records of a level.
+   * @param level the level.
+   * @return the number of records.
+   */
+  public synchronized int getCount(int level) {
+    return count[level];
+  }
+  
+  
+  /**
+   * Returns the number of the parent record.
+   * @param level the level of the record.
+   * @param record the number of the record.
+   * @return the number of the parent record. -1 for PATIENT records.
+   */
+  public synchronized int getParent(int level, int record) {
+    return parent[level][record];
+  }
+  
+  
+  /**
+   * Tests, if the children of a record are loaded.
+   * @param level the level of the record: PATIENT, STUDY or SERIES.
+   * @param record the number of the record.
+   * @return true, if the children are loaded.
+   */
+  public synchronized boolean isLoaded(int level, int record) {
+    return childStart[level][record] >= 0;
+  }
+  
+  
+  /**
+   * Returns the number of the first child record. The children of a record
+   * have contiguous numbers.
+   * @param level the level of the record: PATIENT, STUDY or SERIES.
+   * @param record the number of the record.
+   * @return the number of the first child or -1, if the children are not
+   *         yet loaded.
+   */
+  public synchronized int getChildStart(int level, int record) {
+    return childStart[level][record];
+  }
+  
+  
+  /**
+   * Returns the number of child records.
+   * @param level the level of the record: PATIENT, STUDY or SERIES.
+   * @param record the number of the record.
+   * @return the number of children. 0, if the children are not yet loaded.
+   */
+  public synchronized int getChildCount(int level, int record) {
+    return childCount[level][record];
+  }
+  
+  
+  /**
+   * Returns the value of an attribute.
+   * @param level the level of the record.
+   * @param column the column, e.g. PATIENT_NAME.
+   * @param record the number of the record.
+   * @return the value or null, if the attribute is not present.
+   */
+  public synchronized String getValue(int level, int column, int record) {
+    return values[level][column][record];
+  }
+  
+  
+  /**
+   * Returns the file IDs of an IMAGE record.
+   * @param record the number of the IMAGE record.
+   * @return the file IDs or null, if no file is referenced.
+   */
+  public synchronized String[] getFileIDs(int record) {
+    return fileIDs[record];
+  }
+  
+  
+  /**
+   * Returns the file referenced by an IMAGE record.
+   * @param record the number of the IMAGE record.
+   * @return the file or null, if no file is referenced.
+   */
+  public File getFile(int record) {
+    String[]      ids = getFileIDs(record);
+    StringBuffer  sb;
+    
+    if (ids == null) return null;
+    
+    sb = new StringBuffer();
+    for (int i = 0; i < ids.length; i++) {
+      if (i > 0) sb.append(File.separatorChar);
+      sb.append(ids[i]);
+    }
+    return new File(getMediaDir(getMedia(record)), sb.toString());
+  }
+  
+  
+  /**
+   * Returns the items of the IconImageSequence of the IMAGE records of a
+   * series. The icons are not held by the index, but read from the DICOMDIR
+   * on each call.
+   * @param series the number of the SERIES record.
+   * @return the icons in the order of the IMAGE records. An element is null,
+   *         if the record has no icon. Empty, if the IMAGE records are not
+   *         yet loaded.
+   */
+  public Dataset[] getIcons(int series) {
+    Dataset[]   icons;
+    DirRecord   rec;
+    int         n = 0;
+    
+    synchronized (this) {
+      if (childStart[SERIES][series] < 0) return new Dataset[0];
+      icons = new Dataset[childCount[SERIES][series]];
+      rec = seriesRecords[series];
+    }
+    if ((rec == null) || (icons.length == 0)) return icons;
+    
+    // Die IMAGE Records wie in loadChildren durchlaufen
+    synchronized (reader) {
+      try {
+        rec = rec.getFirstChild(onlyInUse);
+        while ((rec != null) && (n < icons.length)) {
+          if (RECORD_TYPES[IMAGE].equals(rec.getType())) {
+            icons[n++] = rec.getDataset().getItem(Tags.IconImageSeq);
+          }
+          rec = rec.getNextSibling(onlyInUse);
+        }
+      } catch (Exception ignore) {}
+    }
+    return icons;
+  }
+  
+  
+  /**
+   * Returns the media of an IMAGE record.
+   * @param record the number of the IMAGE record.
+   * @return the number of the media. Always 0, if the index is not a catalog.
+   */
+  public synchronized int getMedia(int record) {
+    return imageMedia[record];
+  }
+  
+  
+  /**
+   * Returns the number of media.
+   * @return the number of media. 1, if the index is not a catalog.
+   */
+  public int getMediaCount() {
+    return mediaDirs.length;
+  }
+  
+  
+  /**
+   * Returns the directory of a media, to which the file IDs are relative.
+   * @param media the number of the media.
+   * @return the directory.
+   */
+  public File getMediaDir(int media) {
+    return mediaDirs[media];
+  }
+  
+  
+  /**
+   * Returns the number of attribute columns of a level.
+   * @param level the level.
+   * @return the number of columns.
+   */
+  public static int getColumnCount(int level) {
+    return COLUMN_TAGS[level].length;
+  }
+  
+  
+  /**
+   * Returns the files referenced by the IMAGE records of a series. The files
+   * are resolved once and cached for each series.
+   * @param series the number of the SERIES record.
+   * @return the files. Empty, if the IMAGE records are not yet loaded.
+   */
+  public File[] getFiles(int series) {
+    File[]  files;
+    File    f;
+    int     first;
+    int     n = 0;
+    
+    synchronized (this) {
+      if (seriesFiles[series] != null) return seriesFiles[series];
+      if (childStart[SERIES][series] < 0) return new File[0];
+      first = childStart[SERIES][series];
+      files = new File[childCount[SERIES][series]];
+    }
+    
+    // IMAGE Records ohne referenzierten File auslassen
+    for (int i = 0; i < files.length; i++) {
+      f = getFile(first + i);
+      if (f != null) files[n++] = f;
+    }
+    if (n < files.length) {
+      File[] a = new File[n];
+      System.arraycopy(files, 0, a, 0, n);
+      files = a;
+    }
+    
+    synchronized (this) {
+      seriesFiles[series] = files;
+    }
+    return files;
+  }
+  
+  
+  /**
+   * Abandons a running load. The index keeps the records loaded so far.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+  }
+  
+  
+  /**
+   * Tests, if loading was abandoned.
+   * @return true, if cancelled.
+   */
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+  
+  
+  /**
+   * Cancels loading and closes the DirReader.
+   */
+  public void close() {
+    cancel();
+    if (reader == null) return;
+    synchronized (reader) {
+      try {
+        reader.close();
+      } catch (Exception ignore) {}
+    }
+  }
+  
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dirtable;
+
+import java.io.*;
+
+import javax.swing.*;
+
+
+/**
+ * Fills a DirIndex in the background. First the PATIENT records are loaded in
+ * batches, then the subtrees of the patients one after the other. The subtree
+ * of a requested patient, e.g. the selected one, is loaded before all others.
+ * A new request abandons the walk of the previously requested subtree.<br>
+ * After each batch and each loaded subtree the publisher is executed in the
+ * event-dispatch thread. Publications are coalesced, so that the 
+ * event-dispatch thread is not flooded.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.16
+ */
+class DirIndexLoader extends Thread {
+  
+  
+  /**
+   * Number of PATIENT records loaded in one batch.
+   */
+  private final static int  PATIENT_BATCH = 64;
+  
+  
+  /**
+   * Minimum time between two publications in milliseconds.
+   */
+  private final static long PUBLISH_INTERVAL = 100;
+  
+  
+  /**
+   * The index to fill.
+   */
+  private DirIndex    index;
+  
+  
+  /**
+   * Executed in the event-dispatch thread, if new records are loaded.
+   */
+  private Runnable    publisher;
+  
+  
+  /**
+   * The patient, whose subtree should be loaded first. -1, if none.
+   */
+  private int         requested = -1;
+  
+  
+  /**
+   * True, if a publication is waiting for execution.
+   */
+  private boolean     publishPending = false;
+  
+  
+  /**
+   * Time of the last publication.
+   */
+  private long        lastPublish = 0;
+  
+  
+  /**
+   * The search index, built after all records are loaded.
+   */
+  private DirSearchIndex  searchIndex = null;
+  
+  
+  /**
+   * Creates a new DirIndexLoader.
+   * @param index the index to fill.
+   * @param publisher executed in the event-dispatch thread after new records
+   *        are loaded.
+   */
+  public DirIndexLoader(DirIndex index, Runnable publisher) {
+    this.index = index;
+    this.publisher = publisher;
+    setDaemon(true);
+  }
+  
+  
+  /**
+   * Requests to load the subtree of a patient before all others. A walk of a
+   * previously requested subtree is abandoned.
+   * @param patient the number of the PATIENT record.
+   */
+  public synchronized void request(int patient) {
+    requested = patient;
+  }
+  
+  
+  /**
+   * Returns the search index.
+   * @return the search index or null, if not all records are loaded yet.
+   */
+  public synchronized DirSearchIndex getSearchIndex() {
+    return searchIndex;
+  }
+  
+  
+  /**
+   * Terminates the loader. The DirIndex is cancelled.
+   */
+  public void shutdown() {
+    index.cancel();
+  }
+  
+  
+  /**
+   * The only method one can call in a Thread. Invoke by DirIndexLoader.start().
+   */
+  public void run() {
+    int   p;
+    int   next = 0;
+    
+    try {
+      
+      // Zuerst die Patienten, damit die Tabelle sofort gefuellt werden kann
+      while (index.loadPatients(PATIENT_BATCH)) {
+        publish(false);
+      }
+      publish(true);
+      
+      // Dann die Teilbaeume der Patienten, angeforderte Patienten zuerst
+      while (!index.isCancelled()) {
+        synchronized (this) {
+          p = requested;
+        }
+        
+        if (p >= 0) {
+          if (loadSubtree(p)) {
+            synchronized (this) {
+              if (requested == p) requested = -1;
+            }
+            publish(true);
+          }
+          continue;
+        }
+        
+        // Naechsten noch nicht vollstaendig geladenen Patienten suchen
+        if (next >= index.getCount(DirIndex.PATIENT)) break;
+        if (loadSubtree(next)) {
+          next++;
+          publish(false);
+        }
+      }
+      
+      // Den Suchindex aufbauen, wenn alle Records geladen sind
+      if (!index.isCancelled()) {
+        DirSearchIndex si = new DirSearchIndex(index);
+        synchronized (this) {
+          searchIndex = si;
+        }
+      }
+      
+    } catch (IOException ignore) {}
+    
+    publish(true);
+  }
+  
+  
+  /**
+   * Loads the subtree of a patient.
+   * @param patient the number of the PATIENT record.
+   * @return true, if the subtree is completely loaded. false, if the walk was
+   *         abandoned because of an other request.
+   * @exception  IOException  in a case of I/O error
+   */
+  private boolean loadSubtree(int patient) throws IOException {
+    int   s0, s1;
+    int   r0, r1;
+    
+    index.loadChildren(DirIndex.PATIENT, patient);
+    
+    s0 = index.getChildStart(DirIndex.PATIENT, patient);
+    s1 = s0 + index.getChildCount(DirIndex.PATIENT, patient);
+    for (int s = s0; s < s1; s++) {
+      if (isOutdated(patient)) return false;
+      index.loadChildren(DirIndex.STUDY, s);
+      
+      r0 = index.getChildStart(DirIndex.STUDY, s);
+      r1 = r0 + index.getChildCount(DirIndex.STUDY, s);
+      for (int r = r0; r < r1; r++) {
+        if (isOutdated(patient)) return false;
+        index.loadChildren(DirIndex.SERIES, r);
+      }
+    }
+    
+    return !index.isCancelled();
+  }
+  
+  
+  /**
+   * Tests, if the walk of a subtree is outdated.
+   * @param patient the patient of the subtree.
+   * @return true, if an other patient was requested or the index was cancelled.
+   */
+  private synchronized boolean isOutdated(int patient) {
+    if (index.isCancelled()) return true;
+    return (requested >= 0) && (requested != patient);
+  }
+  
+  
+  /**
+   * Executes the publisher in the event-dispatch thread.
+   * @param force if false, the publisher is not executed, if the last
+   *        publication was less than PUBLISH_INTERVAL ago.
+   */
+  private void publish(boolean force) {
+    long  now = System.currentTimeMillis();
+    
+    synchronized (this) {
+      if (!force && (now - lastPublish < PUBLISH_INTERVAL)) return;
+      if (publishPending) return;
+      publishPending = true;
+      lastPublish = now;
+    }
+    
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        synchronized (DirIndexLoader.this) {
+          publishPending = false;
+        }
+        publisher.run();
+      }
+    });
+  }
+  
+}
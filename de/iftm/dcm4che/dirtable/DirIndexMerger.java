@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dirtable;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ * Collects PATIENT, STUDY, SERIES and IMAGE records from several sources and
+ * merges records with the same key. The merged records are written into a
+ * DirIndex, in which the children of each record are contiguous.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.24
+ */
+class DirIndexMerger {
+  
+  
+  /**
+   * The root of the tree. The children are the PATIENT records.
+   */
+  private Node    root = new Node(null);
+  
+  
+  /**
+   * Returns the root of the tree. The children of the root are the PATIENT
+   * records.
+   * @return the root.
+   */
+  public Node getRoot() {
+    return root;
+  }
+  
+  
+  /**
+   * Writes the merged records into a new DirIndex.
+   * @param mediaDirs the base directories of the media.
+   * @return the index.
+   */
+  public DirIndex build(File[] mediaDirs) {
+    DirIndex  index = new DirIndex(mediaDirs);
+    Vector    level = new Vector();
+    Vector    nextLevel;
+    Node      parent;
+    Node[]    children;
+    String[][]  v;
+    String[][]  ids;
+    int[]       media;
+    int       record;
+    
+    // Den Baum Ebene fuer Ebene uebertragen. So bleiben die Kinder eines
+    // Records zusammenhaengend.
+    level.add(root);
+    for (int l = DirIndex.PATIENT; l <= DirIndex.IMAGE; l++) {
+      nextLevel = new Vector();
+      record = 0;
+      for (int k = 0; k < level.size(); k++) {
+        parent = (Node) level.get(k);
+        children = (Node[]) parent.children.values().toArray(new Node[0]);
+        v = new String[DirIndex.getColumnCount(l)][children.length];
+        ids = (l == DirIndex.IMAGE) ? new String[children.length][] : null;
+        media = (l == DirIndex.IMAGE) ? new int[children.length] : null;
+        for (int c = 0; c < children.length; c++) {
+          for (int col = 0; col < v.length; col++) {
+            v[col][c] = children[c].values[col];
+          }
+          if (l == DirIndex.IMAGE) {
+            ids[c] = children[c].fileIDs;
+            media[c] = children[c].media;
+          }
+          nextLevel.add(children[c]);
+        }
+        index.addRecords(l, parent.record, v, ids, media);
+        
+        // Nummern der Records fuer die naechste Ebene vergeben
+        for (int c = 0; c < children.length; c++) {
+          children[c].record = record++;
+        }
+      }
+      level = nextLevel;
+    }
+    
+    return index;
+  }
+  
+  
+  /**
+   * A record of the merged tree.
+   */
+  static class Node {
+    
+    /** The attribute values in the column order of DirIndex. */
+    String[]        values;
+    
+    /** The file IDs of an IMAGE record. */
+    String[]        fileIDs = null;
+    
+    /** The media of an IMAGE record. */
+    int             media = 0;
+    
+    /** The number of the record in the index. -1 for the root. */
+    int             record = -1;
+    
+    /** The children in the order of their first occurence. */
+    LinkedHashMap   children = new LinkedHashMap();
+    
+    Node(String[] values) {
+      this.values = values;
+    }
+    
+    /**
+     * Returns the child with a key.
+     * @param key the key.
+     * @return the child or null, if there is no child with this key.
+     */
+    Node getChild(String key) {
+      return (Node) children.get(key);
+    }
+    
+    /**
+     * Adds a child.
+     * @param key the key.
+     * @param values the attribute values in the column order of DirIndex.
+     * @return the new child.
+     */
+    Node addChild(String key, String[] values) {
+      Node  n = new Node(values);
+      
+      children.put(key, n);
+      return n;
+    }
+  }
+  
+}
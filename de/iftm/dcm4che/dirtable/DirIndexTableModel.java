@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dirtable;
+
+import javax.swing.table.*;
+
+
+/**
+ * A TableModel, which displays a contiguous range of records of one level of
+ * a DirIndex. The cell values are read directly from the column arrays of the
+ * index, so a new range is displayed with a single table event independent of 
+ * the number of records. Alternatively the model displays an arbitrary list
+ * of records, e.g. the result of a search.<br>
+ * Instead of records the model can display a single message row, e.g. if no
+ * DICOMDIR is loaded.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.16
+ */
+public class DirIndexTableModel extends AbstractTableModel {
+  
+  
+  /**
+   * The level of the displayed records.
+   */
+  private int         level;
+  
+  
+  /**
+   * The index columns of the table columns.
+   */
+  private int[]       columns;
+  
+  
+  /**
+   * The names of the table columns.
+   */
+  private String[]    names;
+  
+  
+  /**
+   * The index or null, if no records are displayed.
+   */
+  private DirIndex    index = null;
+  
+  
+  /**
+   * Number of the record in the first row.
+   */
+  private int         first = 0;
+  
+  
+  /**
+   * Number of displayed records.
+   */
+  private int         count = 0;
+  
+  
+  /**
+   * The numbers of the displayed records, if they are not contiguous. null, 
+   * if a range is displayed.
+   */
+  private int[]       records = null;
+  
+  
+  /**
+   * The message displayed instead of records or null.
+   */
+  private String      message = null;
+  
+  
+  /**
+   * Creates a new, empty DirIndexTableModel.
+   * @param level the level of the records, e.g. DirIndex.PATIENT.
+   * @param columns the index columns to display, e.g. DirIndex.PATIENT_NAME.
+   * @param names the names of the table columns.
+   */
+  public DirIndexTableModel(int level, int[] columns, String[] names) {
+    this.level = level;
+    this.columns = columns;
+    this.names = names;
+  }
+  
+  
+  /**
+   * Displays a range of records.
+   * @param index the index.
+   * @param first the number of the first record.
+   * @param count the number of records.
+   */
+  public void setRange(DirIndex index, int first, int count) {
+    this.index = index;
+    this.first = first;
+    this.count = Math.max(0, count);
+    records = null;
+    message = null;
+    fireTableDataChanged();
+  }
+  
+  
+  /**
+   * Displays a list of records, e.g. the result of a search.
+   * @param index the index.
+   * @param records the numbers of the records.
+   */
+  public void setRecords(DirIndex index, int[] records) {
+    this.index = index;
+    this.records = records;
+    first = 0;
+    count = records.length;
+    message = null;
+    fireTableDataChanged();
+  }
+  
+  
+  /**
+   * Extends the displayed range by records appended to the index. Only the
+   * new rows are announced, so the selection is kept.
+   * @param count the new number of records.
+   */
+  public void extend(int count) {
+    int   oldCount = this.count;
+    
+    if ((index == null) || (records != null) || (count <= oldCount)) return;
+    
+    this.count = count;
+    fireTableRowsInserted(oldCount, count - 1);
+  }
+  
+  
+  /**
+   * Tests, if the model displays a message instead of records.
+   * @return true, if a message is displayed.
+   */
+  public boolean isMessage() {
+    return message != null;
+  }
+  
+  
+  /**
+   * Displays a message instead of records.
+   * @param message the message.
+   */
+  public void setMessage(String message) {
+    index = null;
+    count = 0;
+    records = null;
+    this.message = message;
+    fireTableDataChanged();
+  }
+  
+  
+  /**
+   * Removes all rows.
+   */
+  public void clear() {
+    index = null;
+    count = 0;
+    records = null;
+    message = null;
+    fireTableDataChanged();
+  }
+  
+  
+  /**
+   * Returns the number of the record displayed in a row.
+   * @param row the row.
+   * @return the number of the record or -1, if the row displays no record.
+   */
+  public int getRecord(int row) {
+    if ((index == null) || (row < 0) || (row >= count)) return -1;
+    if (records != null) return records[row];
+    return first + row;
+  }
+  
+  
+  /**
+   * Returns the level of the displayed records.
+   * @return the level.
+   */
+  public int getLevel() {
+    return level;
+  }
+  
+  
+  /**
+   * Returns the number of rows.
+   * @return the number of rows.
+   */
+  public int getRowCount() {
+    if (message != null) return 1;
+    return count;
+  }
+  
+  
+  /**
+   * Returns the number of columns.
+   * @return the number of columns.
+   */
+  public int getColumnCount() {
+    return names.length;
+  }
+  
+  
+  /**
+   * Returns the name of a column.
+   * @param column the column.
+   * @return the name.
+   */
+  public String getColumnName(int column) {
+    return names[column];
+  }
+  
+  
+  /**
+   * Returns the class of the cell values.
+   * @param column the column.
+   * @return String.class.
+   */
+  public Class getColumnClass(int column) {
+    return String.class;
+  }
+  
+  
+  /**
+   * Returns the value of a cell.
+   * @param row the row.
+   * @param column the column.
+   * @return the value.
+   */
+  public Object getValueAt(int row, int column) {
+    if (message != null) {
+      return (column == 0) ? message : "";
+    }
+    return index.getValue(level, columns[column], getRecord(row));
+  }
+  
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dirtable;
+
+import java.util.*;
+
+
+/**
+ * A prefix index over the attributes PatientName, PatientID, StudyDate,
+ * StudyDescription and Modality of a DirIndex. The values are split into
+ * lower case words, which are held in a sorted array. A query word matches
+ * all words it is a prefix of, which are found by binary search. So a query
+ * does not walk the records again.<br>
+ * The result of a query is the set of matching SERIES records. A series 
+ * matches, if each query word matches an attribute of the series, its study
+ * or its patient.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.16
+ */
+public class DirSearchIndex {
+  
+  
+  /**
+   * The indexed attributes: level and column of the DirIndex.
+   */
+  private final static int[][] INDEXED = {
+    {DirIndex.PATIENT, DirIndex.PATIENT_NAME},
+    {DirIndex.PATIENT, DirIndex.PATIENT_ID},
+    {DirIndex.STUDY, DirIndex.STUDY_DATE},
+    {DirIndex.STUDY, DirIndex.STUDY_DESCRIPTION},
+    {DirIndex.SERIES, DirIndex.MODALITY}
+  };
+  
+  
+  /**
+   * The indexed DirIndex.
+   */
+  private DirIndex    index;
+  
+  
+  /**
+   * The sorted words.
+   */
+  private String[]    words;
+  
+  
+  /**
+   * The records of the words: record * 4 + level.
+   */
+  private int[]       postings;
+  
+  
+  /**
+   * Creates a new DirSearchIndex.
+   * @param index the DirIndex. All records should be loaded.
+   */
+  public DirSearchIndex(DirIndex index) {
+    Vector    entries = new Vector();
+    Entry[]   ea;
+    int       level;
+    int       column;
+    String    value;
+    
+    this.index = index;
+    
+    // Alle Worte der indizierten Attribute sammeln
+    for (int i = 0; i < INDEXED.length; i++) {
+      level = INDEXED[i][0];
+      column = INDEXED[i][1];
+      for (int r = 0; r < index.getCount(level); r++) {
+        value = index.getValue(level, column, r);
+        if (value == null) continue;
+        
+        String[] w = split(value);
+        for (int k = 0; k < w.length; k++) {
+          entries.add(new Entry(w[k], r * 4 + level));
+        }
+      }
+    }
+    
+    // Sortieren und in kompakte Arrays umwandeln
+    ea = (Entry[]) entries.toArray(new Entry[0]);
+    entries = null;
+    Arrays.sort(ea);
+    
+    words = new String[ea.length];
+    postings = new int[ea.length];
+    for (int i = 0; i < ea.length; i++) {
+      words[i] = ea[i].word;
+      postings[i] = ea[i].posting;
+    }
+  }
+  
+  
+  /**
+   * Returns the SERIES records matching a query.
+   * @param query the query. Words are separated by blanks or punctuation.
+   * @return the matching SERIES records or null, if the query contains no
+   *         word.
+   */
+  public BitSet search(String query) {
+    String[]  qw = split(query);
+    BitSet    result = null;
+    BitSet    matches;
+    
+    if (qw.length == 0) return null;
+    
+    for (int i = 0; i < qw.length; i++) {
+      matches = searchWord(qw[i]);
+      if (result == null) {
+        result = matches;
+      } else {
+        result.and(matches);
+      }
+      if (result.length() == 0) break;
+    }
+    
+    return result;
+  }
+  
+  
+  /**
+   * Returns the SERIES records, which contain a word with a given prefix in an
+   * attribute of the series, its study or its patient.
+   * @param prefix the prefix in lower case.
+   * @return the SERIES records.
+   */
+  private BitSet searchWord(String prefix) {
+    BitSet    series = new BitSet();
+    int       level;
+    int       record;
+    
+    for (int i = firstIndexOf(prefix); (i < words.length) && words[i].startsWith(prefix); i++) {
+      level = postings[i] & 3;
+      record = postings[i] >> 2;
+      addSeries(series, level, record);
+    }
+    
+    return series;
+  }
+  
+  
+  /**
+   * Adds all SERIES records below a record.
+   * @param series the set of SERIES records.
+   * @param level the level of the record.
+   * @param record the number of the record.
+   */
+  private void addSeries(BitSet series, int level, int record) {
+    int   first;
+    
+    if (level == DirIndex.SERIES) {
+      series.set(record);
+      return;
+    }
+    
+    first = index.getChildStart(level, record);
+    for (int i = first; i < first + index.getChildCount(level, record); i++) {
+      addSeries(series, level + 1, i);
+    }
+  }
+  
+  
+  /**
+   * Binary search for the first word which is not less than a prefix.
+   * @param prefix the prefix.
+   * @return the index in the array words.
+   */
+  private int firstIndexOf(String prefix) {
+    int   lo = 0;
+    int   hi = words.length;
+    int   mid;
+    
+    while (lo < hi) {
+      mid = (lo + hi) >>> 1;
+      if (words[mid].compareTo(prefix) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+  
+  
+  /**
+   * Splits a value into lower case words. Letters and digits form words, all
+   * other characters, e.g. blanks or the '^' of person names, separate them.
+   * @param value the value.
+   * @return the words.
+   */
+  private static String[] split(String value) {
+    Vector        v = new Vector();
+    StringBuffer  sb = new StringBuffer();
+    char          c;
+    
+    for (int i = 0; i <= value.length(); i++) {
+      c = (i < value.length()) ? value.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        sb.append(Character.toLowerCase(c));
+      } else if (sb.length() > 0) {
+        v.add(sb.toString());
+        sb.setLength(0);
+      }
+    }
+    
+    return (String[]) v.toArray(new String[0]);
+  }
+  
+  
+  /**
+   * A word and its record during the construction of the index.
+   */
+  private static class Entry implements Comparable {
+    
+    String  word;
+    int     posting;
+    
+    Entry(String word, int posting) {
+      this.word = word;
+      this.posting = posting;
+    }
+    
+    public int compareTo(Object o) {
+      return word.compareTo(((Entry) o).word);
+    }
+  }
+  
+}
@@ -30,6 +30,8 @@ import javax.imageio.*;
 import javax.imageio.stream.*;
 
 import de.iftm.java.util.*;
+import de.iftm.dcm4che.image.*;
+import de.iftm.javax.imageio.stream.*;
 
 import org.dcm4che.data.*;
 import org.dcm4che.dict.*;
@@ -59,16 +61,49 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
   // Der File Descriptor des DICOMDIR
   private File            dicomdirFile = null;
   
-  // Der DICOMDIR Reader
-  private DirReader       dicomdirReader = null;
+  // Der Index der Records des DICOMDIR
+  private DirIndex        dirIndex = null;
   
-  // Byte-Buffer for DICOMDIR File
-  private byte[]          dicomdirBuffer = null;
+  // Fuellt den Index im Hintergrund
+  private DirIndexLoader  dirIndexLoader = null;
   
-  private DirRecord[]     patientArray = null;
-  private DirRecord[]     studyArray = null;
-  private DirRecord[]     seriesArray = null;
-  private DirRecord[]     imageArray = null;
+  // Meldung, solange die Records geladen werden
+  private final String    LOADING = "Loading ...";
+  
+  // Anzahl der Threads, die die DICOMDIRs eines Katalogs laden
+  private final int       CATALOG_THREADS = 4;
+  
+  // Anzahl der Threads, die die Files eines Verzeichnisses lesen
+  private final int       FOLDER_THREADS = 4;
+  
+  // Der Katalog, der gerade geladen wird. null, wenn keiner.
+  private DirCatalog      dirCatalog = null;
+  
+  // Der Index eines Verzeichnisses, der gerade aktualisiert wird. null, wenn keiner.
+  private FolderIndex     folderIndex = null;
+  
+  // True, wenn die selektierten Serien erst nach dem Laden gemeldet werden
+  private boolean         seriesEventPending = false;
+  
+  // Eingabefeld fuer den Filter
+  private JTextField      filterField;
+  
+  // Die zum Filter passenden Records. null, wenn kein Filter gesetzt ist.
+  private BitSet          filterPatients = null;
+  private BitSet          filterStudies = null;
+  private BitSet          filterSeries = null;
+  
+  // Die Thumbnails der Bilder der ausgewaehlten Serie
+  private ThumbnailStrip  thumbnailStrip;
+  
+  // Die IMAGE Records der Thumbnails
+  private int[]           thumbnailRecords = new int[0];
+  
+  // Die Modelle der Tabellen lesen die Werte direkt aus dem Index
+  private DirIndexTableModel  patientModel;
+  private DirIndexTableModel  studyModel;
+  private DirIndexTableModel  seriesModel;
+  private DirIndexTableModel  imageModel;
   
   
   /**
@@ -76,6 +111,7 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
    */
   public DirTable() {
     initComponents();
+    myInitComponents();
     
     patientTable.getSelectionModel().setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
     patientTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
@@ -112,186 +148,513 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
   }
 
   
+  /**
+   * Replaces the DefaultTableModels of the form by models, which read the 
+   * values from the DirIndex.
+   */
+  private void myInitComponents() {
+    
+    patientModel = new DirIndexTableModel(DirIndex.PATIENT,
+                                          new int[] {DirIndex.PATIENT_NAME, DirIndex.PATIENT_ID},
+                                          new String[] {"Patient's Name", "Patients ID"});
+    patientTable.setModel(patientModel);
+    
+    studyModel = new DirIndexTableModel(DirIndex.STUDY,
+                                        new int[] {DirIndex.STUDY_ID, DirIndex.STUDY_DESCRIPTION, DirIndex.STUDY_DATE, DirIndex.STUDY_TIME},
+                                        new String[] {"Study ID", "Study Description", "Study Date", "Study Time"});
+    studyTable.setModel(studyModel);
+    
+    seriesModel = new DirIndexTableModel(DirIndex.SERIES,
+                                         new int[] {DirIndex.SERIES_NUMBER, DirIndex.MODALITY},
+                                         new String[] {"Series Number", "Modality"});
+    seriesTable.setModel(seriesModel);
+    
+    imageModel = new DirIndexTableModel(DirIndex.IMAGE,
+                                        new int[] {DirIndex.INSTANCE_NUMBER},
+                                        new String[] {"Image Instance Number"});
+    imageTable.setModel(imageModel);
+    
+    // Filter ueber Patient, Studie und Serie
+    filterField = new JTextField();
+    filterField.setEnabled(false);
+    filterField.setToolTipText("Filter by patient's name or ID, study date or description and modality");
+    filterField.getDocument().addDocumentListener(new DocumentListener() {
+      public void insertUpdate(DocumentEvent e) {
+        applyFilter();
+      }
+      public void removeUpdate(DocumentEvent e) {
+        applyFilter();
+      }
+      public void changedUpdate(DocumentEvent e) {
+        applyFilter();
+      }
+    });
+    
+    JPanel filterPanel = new JPanel(new java.awt.BorderLayout(5, 0));
+    filterPanel.add(new JLabel("Filter"), java.awt.BorderLayout.WEST);
+    filterPanel.add(filterField, java.awt.BorderLayout.CENTER);
+    java.awt.GridBagConstraints gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 0;
+    gridBagConstraints.gridy = 4;
+    gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+    gridBagConstraints.weightx = 1.0;
+    gridBagConstraints.insets = new java.awt.Insets(5, 0, 0, 0);
+    add(filterPanel, gridBagConstraints);
+    
+    // Thumbnails der Bilder der ausgewaehlten Serie
+    thumbnailStrip = new ThumbnailStrip();
+    thumbnailStrip.addListSelectionListener(new ListSelectionListener() {
+      public void valueChanged(ListSelectionEvent e) {
+        thumbnailSelectionChanged(e);
+      }
+    });
+    gridBagConstraints = new java.awt.GridBagConstraints();
+    gridBagConstraints.gridx = 0;
+    gridBagConstraints.gridy = 5;
+    gridBagConstraints.fill = java.awt.GridBagConstraints.HORIZONTAL;
+    gridBagConstraints.weightx = 1.0;
+    gridBagConstraints.insets = new java.awt.Insets(5, 0, 0, 0);
+    add(thumbnailStrip, gridBagConstraints);
+  }
+  
+  
+  /**
+   * Applies the text of the filter field. If the filter is not empty, the 
+   * patient table displays the patients with matching series and the series
+   * table all matching series. These can be selected directly. Selecting a 
+   * patient or study narrows the tables to its matching studies and series.
+   */
+  private void applyFilter() {
+    DirSearchIndex  si;
+    BitSet          series = null;
+    
+    if (dirIndexLoader == null) return;
+    si = dirIndexLoader.getSearchIndex();
+    if (si == null) return;
+    
+    series = si.search(filterField.getText());
+    
+    if (series == null) {
+      filterPatients = filterStudies = filterSeries = null;
+    } else {
+      // Studien und Patienten der passenden Serien bestimmen
+      filterSeries = series;
+      filterStudies = new BitSet();
+      filterPatients = new BitSet();
+      for (int i = series.nextSetBit(0); i >= 0; i = series.nextSetBit(i + 1)) {
+        int study = dirIndex.getParent(DirIndex.SERIES, i);
+        filterStudies.set(study);
+        filterPatients.set(dirIndex.getParent(DirIndex.STUDY, study));
+      }
+    }
+    
+    // Tabellen mit dem neuen Filter darstellen
+    seriesEventPending = false;
+    updatePatientTable();
+    studyModel.clear();
+    if (filterSeries == null) {
+      seriesModel.clear();
+    } else {
+      seriesModel.setRecords(dirIndex, toRecords(filterSeries, 0, dirIndex.getCount(DirIndex.SERIES)));
+    }
+    imageModel.clear();
+    thumbnailStrip.clear();
+  }
+  
+  
+  /**
+   * Returns the records of a set in a range.
+   * @param set the set of records.
+   * @param first the first record of the range.
+   * @param count the number of records in the range.
+   * @return the numbers of the records.
+   */
+  private int[] toRecords(BitSet set, int first, int count) {
+    int[]   a = new int[count];
+    int     n = 0;
+    
+    for (int i = set.nextSetBit(first); (i >= 0) && (i < first + count); i = set.nextSetBit(i + 1)) {
+      a[n++] = i;
+    }
+    
+    int[] result = new int[n];
+    System.arraycopy(a, 0, result, 0, n);
+    return result;
+  }
+
+  
   /**
    *
    */
   public void setDICOMDIR(File dcmDirFile) {
     ImageInputStream  iis = null;
+    DirReader         reader;
     
     // Den DICOMDIR File speichern
     dicomdirFile = dcmDirFile;
     
-    // Patient-Tabelle loeschen
-    clearTable(patientTable);
+    reset();
 
     try {
-      // Nicht den File sondern ein Bytearray als Stream verwenden.
-      dicomdirBuffer = fileToByteBuffer(dcmDirFile);
-      // Einen Reader fuer das DICOMDIR oeffnen. Der Reader bleibt geoeffnet!
-      iis = ImageIO.createImageInputStream(new ByteArrayInputStream(dicomdirBuffer));
-      dicomdirReader = DirBuilderFactory.getInstance().newDirReader(iis);
-      // Patienten Tabelle updaten
-      updatePatientTable();
+      // Den File nicht kopieren, sondern in den Speicher abbilden. Der Reader
+      // bleibt geoeffnet!
+      iis = new MappedImageInputStream(dcmDirFile);
+      reader = DirBuilderFactory.getInstance().newDirReader(iis);
     } catch (IOException e) {
-			((DefaultTableModel) patientTable.getModel()).addRow(new String [] {"No DICOMDIR file selected", ""});
-    } 
+      try {
+        if (iis != null) iis.close();
+      } catch (IOException ignore) {}
+      patientModel.setMessage("No DICOMDIR file selected");
+      return;
+    }
+    
+    // Den Index im Hintergrund aufbauen. Die Tabellen werden in Portionen
+    // aktualisiert, sobald Records geladen sind.
+    patientModel.setMessage(LOADING);
+    startLoader(new DirIndex(reader, dcmDirFile.getAbsoluteFile().getParentFile(), onlyInUse));
   }
-
+  
   
   /**
-   * Reads the contents of a File into a Byte-Array.
-   * @param f the File to read.
-   * @return the byte array.
-   * @throws IOEception if an error occured during File IO.
+   * Shows a catalog of several DICOMDIRs, e.g. of a collection of CDs. The
+   * DICOMDIRs are loaded and merged in the background. Patients, studies,
+   * series and images contained on several media are listed only once.
+   * @param dicomdirs the DICOMDIR files.
    */
-  private byte[] fileToByteBuffer(File f) throws IOException {
-    byte[]            buf = null;
-    DataInputStream   dis = null;
-    
-    try {
-      // Byte Array hat die Laenge des Fileinhaltes
-      buf = new byte[(int) f.length()];
-      // Fileinhalt einlesen
-      dis = new DataInputStream(new FileInputStream(f));
-      dis.readFully(buf);
-    } finally {
-      // DataInputStream auf jeden Fall schliessen
-      try {
-        if (dis != null) dis.close();
-      } catch (Exception ignore) {}
+  public void setCatalog(File[] dicomdirs) {
+    if ((dicomdirs == null) || (dicomdirs.length == 0)) {
+      dicomdirFile = null;
+      reset();
+      patientModel.setMessage("No DICOMDIR file found");
+      return;
     }
-    // Den Buffer zurueckgeben
-    return buf;
+    
+    loadCatalog(new DirCatalog(dicomdirs));
   }
-
+  
   
   /**
-   *
+   * Shows a catalog of all DICOMDIRs below a directory. The directory tree is
+   * searched in the background.
+   * @param root the root of the directory tree.
    */
-  private void clearTable(JTable table) {
-    while (table.getModel().getRowCount() > 0) {
-      ((DefaultTableModel) table.getModel()).removeRow(0);
-    }
+  public void setCatalog(File root) {
+    loadCatalog(new DirCatalog(root));
   }
   
   
   /**
-   *
+   * Loads a catalog in the background and shows it.
+   * @param catalog the catalog.
    */
-  private void updatePatientTable() {
+  private void loadCatalog(final DirCatalog catalog) {
+    dicomdirFile = null;
     
-    // Patienten DirRecords zunaechst in Vector sammeln
-    Vector patientVector = new Vector();
+    reset();
     
-    try {
-      // Patient-Tabelle neu generieren
-      DirRecord next = dicomdirReader.getFirstRecord(onlyInUse);
-      while (next != null) {
-        if ("PATIENT".equals(next.getType())) {
-          try {
-            Dataset  ds = next.getDataset();
-            String[] patientInfo = new String [] {ds.getString(Tags.PatientName), ds.getString(Tags.PatientID)};
-            ((DefaultTableModel) patientTable.getModel()).addRow(patientInfo);
-            patientVector.add(next);
-          } catch (Exception e) {}
-        }
-        next = next.getNextSibling(onlyInUse);
+    // Die DICOMDIRs parallel laden und zusammenfuehren. Erst der fertige
+    // Katalog wird angezeigt.
+    patientModel.setMessage(LOADING);
+    dirCatalog = catalog;
+    Thread t = new Thread("DirCatalog") {
+      public void run() {
+        final DirIndex index = catalog.load(CATALOG_THREADS);
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            if (catalog != dirCatalog) return;
+            dirCatalog = null;
+            if (index == null) {
+              patientModel.setMessage("No DICOMDIR file found");
+            } else {
+              startLoader(index);
+            }
+          }
+        });
       }
-    } catch (IOException e) {}
+    };
+    t.setDaemon(true);
+    t.start();
+  }
+  
+  
+  /**
+   * Shows the DICOM files of a directory tree without a DICOMDIR. The headers
+   * of the files are read in the background and stored in a persistent index
+   * file. When the directory is shown again, only new and modified files are
+   * read.
+   * @param dir the root directory.
+   */
+  public void setFolder(File dir) {
+    final FolderIndex   fi;
+    
+    dicomdirFile = null;
+    
+    reset();
     
-    // Vector in Array umwandeln
-    patientArray = (DirRecord[]) patientVector.toArray(new DirRecord[0]);
+    if ((dir == null) || !dir.isDirectory()) {
+      patientModel.setMessage("No directory selected");
+      return;
+    }
+    
+    patientModel.setMessage(LOADING);
+    folderIndex = fi = new FolderIndex(dir);
+    Thread t = new Thread("FolderIndex") {
+      public void run() {
+        fi.update(FOLDER_THREADS);
+        final DirIndex index = fi.toDirIndex();
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            if (fi != folderIndex) return;
+            folderIndex = null;
+            startLoader(index);
+          }
+        });
+      }
+    };
+    t.setDaemon(true);
+    t.start();
   }
   
   
   /**
-   *
+   * Abandons the loading of the current DICOMDIR, catalog or folder and clears
+   * the tables.
    */
-  private void updateStudyTable(DirRecord patientRecord) {
+  private void reset() {
     
-    // Study DirRecords zunaechst in Vector sammeln
-    Vector studyVector = new Vector();
+    // Das Laden des bisherigen DICOMDIR abbrechen
+    if (dirCatalog != null) {
+      dirCatalog.cancel();
+      dirCatalog = null;
+    }
+    if (folderIndex != null) {
+      folderIndex.cancel();
+      folderIndex = null;
+    }
+    if (dirIndex != null) {
+      dirIndexLoader.shutdown();
+      dirIndex.close();
+      dirIndex = null;
+      dirIndexLoader = null;
+    }
+    seriesEventPending = false;
     
-    try {
-      // Study-Tabelle neu generieren
-      DirRecord next = patientRecord.getFirstChild(onlyInUse);
-      while (next != null) {
-        if ("STUDY".equals(next.getType())) {
-          try {
-            Dataset  ds = next.getDataset();
-            String[] studyInfo = new String [] {ds.getString(Tags.StudyID),
-                                                ds.getString(Tags.StudyDescription),
-                                                ds.getString(Tags.StudyDate),
-                                                ds.getString(Tags.StudyTime)};
-            ((DefaultTableModel) studyTable.getModel()).addRow(studyInfo);
-            studyVector.add(next);
-          } catch (Exception e) {}
-        }
-        next = next.getNextSibling(onlyInUse);
+    // Filter zuruecksetzen
+    filterPatients = filterStudies = filterSeries = null;
+    filterField.setText("");
+    filterField.setEnabled(false);
+    
+    // Tabellen loeschen
+    patientModel.clear();
+    studyModel.clear();
+    seriesModel.clear();
+    imageModel.clear();
+    thumbnailStrip.clear();
+  }
+  
+  
+  /**
+   * Installs an index and starts to load its records in the background.
+   * @param index the index.
+   */
+  private void startLoader(final DirIndex index) {
+    dirIndex = index;
+    dirIndexLoader = new DirIndexLoader(index, new Runnable() {
+      public void run() {
+        if (index == dirIndex) indexLoaded();
       }
-    } catch (IOException e) {}
+    });
+    dirIndexLoader.start();
+  }
+  
+  
+  /**
+   * Called in the event-dispatch thread, if new records are loaded into the
+   * index. Tables, which wait for their records, are filled.
+   */
+  private void indexLoaded() {
+    int   n = dirIndex.getCount(DirIndex.PATIENT);
+    int   record;
+    
+    // Neue Patienten anhaengen
+    if (patientModel.isMessage()) {
+      if ((n > 0) || dirIndex.isPatientsComplete()) updatePatientTable();
+    } else {
+      patientModel.extend(n);
+    }
+    
+    // Tabellen, die auf ihre Records warten, fuellen
+    if (studyModel.isMessage()) {
+      record = patientModel.getRecord(patientTable.getSelectionModel().getMinSelectionIndex());
+      if ((record != -1) && dirIndex.isLoaded(DirIndex.PATIENT, record)) updateStudyTable(record);
+    }
+    if (seriesModel.isMessage()) {
+      record = studyModel.getRecord(studyTable.getSelectionModel().getMinSelectionIndex());
+      if ((record != -1) && dirIndex.isLoaded(DirIndex.STUDY, record)) updateSeriesTable(record);
+    }
+    if (imageModel.isMessage()) {
+      record = seriesModel.getRecord(seriesTable.getSelectionModel().getMinSelectionIndex());
+      if ((record != -1) && dirIndex.isLoaded(DirIndex.SERIES, record)) updateImageTable(record);
+    }
+    
+    // Filter freigeben, sobald der Suchindex aufgebaut ist
+    if (!filterField.isEnabled() && (dirIndexLoader.getSearchIndex() != null)) {
+      filterField.setEnabled(true);
+    }
+    
+    // Selektierte Serien melden, sobald ihre Bilder geladen sind
+    if (seriesEventPending && isSelectedSeriesLoaded()) {
+      seriesEventPending = false;
+      fireSeriesSelectionEvent();
+    }
+  }
+  
+  
+  /**
+   * Tests, if the IMAGE records of all selected series are loaded.
+   * @return true, if all are loaded.
+   */
+  private boolean isSelectedSeriesLoaded() {
+    int[]   rows = seriesTable.getSelectedRows();
+    int     series;
     
-    // Vector in Array umwandeln
-    studyArray = (DirRecord[]) studyVector.toArray(new DirRecord[0]);
+    for (int i = 0; i < rows.length; i++) {
+      series = seriesModel.getRecord(rows[i]);
+      if ((series != -1) && !dirIndex.isLoaded(DirIndex.SERIES, series)) return false;
+    }
+    return true;
+  }
+
+  
+  /**
+   *
+   */
+  private void updatePatientTable() {
+    if (filterPatients != null) {
+      patientModel.setRecords(dirIndex, toRecords(filterPatients, 0, dirIndex.getCount(DirIndex.PATIENT)));
+      return;
+    }
+    patientModel.setRange(dirIndex, 0, dirIndex.getCount(DirIndex.PATIENT));
+  }
+  
+  
+  /**
+   *
+   */
+  private void updateStudyTable(int patient) {
+    if (!dirIndex.isLoaded(DirIndex.PATIENT, patient)) {
+      studyModel.setMessage(LOADING);
+      return;
+    }
+    if (filterStudies != null) {
+      studyModel.setRecords(dirIndex, toRecords(filterStudies, dirIndex.getChildStart(DirIndex.PATIENT, patient),
+                                                dirIndex.getChildCount(DirIndex.PATIENT, patient)));
+      return;
+    }
+    studyModel.setRange(dirIndex, dirIndex.getChildStart(DirIndex.PATIENT, patient), 
+                        dirIndex.getChildCount(DirIndex.PATIENT, patient));
+  }
+  
+  
+  /**
+   *
+   */
+  private void updateSeriesTable(int study) {
+    if (!dirIndex.isLoaded(DirIndex.STUDY, study)) {
+      seriesModel.setMessage(LOADING);
+      return;
+    }
+    if (filterSeries != null) {
+      seriesModel.setRecords(dirIndex, toRecords(filterSeries, dirIndex.getChildStart(DirIndex.STUDY, study),
+                                                 dirIndex.getChildCount(DirIndex.STUDY, study)));
+      return;
+    }
+    seriesModel.setRange(dirIndex, dirIndex.getChildStart(DirIndex.STUDY, study), 
+                         dirIndex.getChildCount(DirIndex.STUDY, study));
   }
   
   
   /**
    *
    */
-  private void updateSeriesTable(DirRecord studyRecord) {
+  private void updateImageTable(int series) {
+    if (!dirIndex.isLoaded(DirIndex.SERIES, series)) {
+      imageModel.setMessage(LOADING);
+      return;
+    }
+    imageModel.setRange(dirIndex, dirIndex.getChildStart(DirIndex.SERIES, series), 
+                        dirIndex.getChildCount(DirIndex.SERIES, series));
+    updateThumbnails(series);
+  }
+  
+  
+  /**
+   * Shows the thumbnails of the images of a series. The icons of the directory
+   * records are used, if present. IMAGE records without referenced file are
+   * skipped.
+   * @param series the number of the SERIES record.
+   */
+  private void updateThumbnails(int series) {
+    int         first = dirIndex.getChildStart(DirIndex.SERIES, series);
+    int         count = dirIndex.getChildCount(DirIndex.SERIES, series);
+    File[]      files = new File[count];
+    String[]    uids = new String[count];
+    Dataset[]   icons = new Dataset[count];
+    Dataset[]   items = dirIndex.getIcons(series);
+    int[]       records = new int[count];
+    File        f;
+    int         n = 0;
     
-    // Series DirRecords zunaechst in Vector sammeln
-    Vector seriesVector = new Vector();
+    // File, UID und Icon immer aus demselben Record nehmen
+    for (int i = 0; i < count; i++) {
+      f = dirIndex.getFile(first + i);
+      if (f == null) continue;
+      files[n] = f;
+      uids[n] = dirIndex.getValue(DirIndex.IMAGE, DirIndex.SOP_INSTANCE_UID, first + i);
+      icons[n] = (i < items.length) ? items[i] : null;
+      records[n] = first + i;
+      n++;
+    }
     
-    try {
-      // Series-Tabelle neu generieren
-      DirRecord next = studyRecord.getFirstChild(onlyInUse);
-      while (next != null) {
-        if ("SERIES".equals(next.getType())) {
-          try {
-            Dataset  ds = next.getDataset();
-            String[] seriesInfo = new String [] {ds.getString(Tags.SeriesNumber),
-                                                 ds.getString(Tags.Modality)};
-            ((DefaultTableModel) seriesTable.getModel()).addRow(seriesInfo);
-            seriesVector.add(next);
-          } catch (Exception e) {}
-        }
-        next = next.getNextSibling(onlyInUse);
-      }
-    } catch (IOException e) {}
+    if (n < count) {
+      File[] fa = new File[n];
+      String[] ua = new String[n];
+      Dataset[] ia = new Dataset[n];
+      int[] ra = new int[n];
+      System.arraycopy(files, 0, fa, 0, n);
+      System.arraycopy(uids, 0, ua, 0, n);
+      System.arraycopy(icons, 0, ia, 0, n);
+      System.arraycopy(records, 0, ra, 0, n);
+      files = fa;
+      uids = ua;
+      icons = ia;
+      records = ra;
+    }
     
-    // Vector in Array umwandeln
-    seriesArray = (DirRecord[]) seriesVector.toArray(new DirRecord[0]);
+    thumbnailRecords = records;
+    thumbnailStrip.setImages(files, uids, icons);
   }
   
   
   /**
-   *
+   * Selects the image of the selected thumbnail in the image table.
    */
-  private void updateImageTable(DirRecord seriesRecord) {
+  private void thumbnailSelectionChanged(ListSelectionEvent e) {
+    int   index;
     
-    // Series DirRecords zunaechst in Vector sammeln
-    Vector imageVector = new Vector();
+    if (e.getValueIsAdjusting()) return;
     
-    try {
-      // Image-Tabelle neu generieren
-      DirRecord next = seriesRecord.getFirstChild(onlyInUse);
-      while (next != null) {
-        if ("IMAGE".equals(next.getType())) {
-          try {
-            Dataset  ds = next.getDataset();
-            String[] imageInfo = new String [] {ds.getString(Tags.InstanceNumber)};
-            ((DefaultTableModel) imageTable.getModel()).addRow(imageInfo);
-            imageVector.add(next);
-          } catch (Exception e) {}
-        }
-        next = next.getNextSibling(onlyInUse);
-      }
-    } catch (IOException e) {}
+    index = thumbnailStrip.getSelectedIndex();
+    if ((index < 0) || (index >= thumbnailRecords.length)) return;
     
-    // Vector in Array umwandeln
-    imageArray = (DirRecord[]) imageVector.toArray(new DirRecord[0]);
+    // Die Zeile des Records in der Image Tabelle suchen
+    for (int row = 0; row < imageTable.getRowCount(); row++) {
+      if (imageModel.getRecord(row) == thumbnailRecords[index]) {
+        imageTable.getSelectionModel().setSelectionInterval(row, row);
+        imageTable.scrollRectToVisible(imageTable.getCellRect(row, 0, true));
+        return;
+      }
+    }
   }
 
   
@@ -302,13 +665,17 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
     // Deselektieren ignorieren
     if (!e.getValueIsAdjusting()) {
       // Study, Series und Image-Tabellen loeschen
-      clearTable(studyTable);
-      clearTable(seriesTable);
-      clearTable(imageTable);
-      int patientIndex = patientTable.getSelectionModel().getMinSelectionIndex();
+      studyModel.clear();
+      seriesModel.clear();
+      imageModel.clear();
+      thumbnailStrip.clear();
+      seriesEventPending = false;
+      int patient = patientModel.getRecord(patientTable.getSelectionModel().getMinSelectionIndex());
       // Nur dann die untergeordnete Tabelle updaten, wenn die Selektion nich leer
-      if (patientIndex != -1) {
-        updateStudyTable(patientArray[patientIndex]);
+      if (patient != -1) {
+        // Den Teilbaum des Patienten vorrangig laden
+        dirIndexLoader.request(patient);
+        updateStudyTable(patient);
       }
     }
   }
@@ -321,12 +688,14 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
     // Deselektieren ignorieren
     if (!e.getValueIsAdjusting()) {
       // Series und Image-Tabellen loeschen
-      clearTable(seriesTable);
-      clearTable(imageTable);
-      int studyIndex = studyTable.getSelectionModel().getMinSelectionIndex();
+      seriesModel.clear();
+      imageModel.clear();
+      thumbnailStrip.clear();
+      seriesEventPending = false;
+      int study = studyModel.getRecord(studyTable.getSelectionModel().getMinSelectionIndex());
       // Nur dann die untergeordnete Tabelle updaten, wenn die Selektion nich leer
-      if (studyIndex != -1) {
-        updateSeriesTable(studyArray[studyIndex]);
+      if (study != -1) {
+        updateSeriesTable(study);
       }
     }
   }
@@ -341,16 +710,21 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
     if (!e.getValueIsAdjusting()) {
       
       // Series und Image-Tabellen loeschen
-      clearTable(imageTable);
+      imageModel.clear();
+      thumbnailStrip.clear();
+      seriesEventPending = false;
       
-      int seriesIndex = seriesTable.getSelectionModel().getMinSelectionIndex();
+      int series = seriesModel.getRecord(seriesTable.getSelectionModel().getMinSelectionIndex());
       // Nur dann die untergeordnete Tabelle updaten, wenn die Selektion nich leer
-      if (seriesIndex != -1) {
+      if (series != -1) {
+        
+        // Serien erst melden, wenn ihre Bilder geladen sind
+        seriesEventPending = !isSelectedSeriesLoaded();
+        if (!seriesEventPending) fireSeriesSelectionEvent();
         
-        fireSeriesSelectionEvent();
         // Nur wenn eine Serie ausgewaehlt wurde koennen die Bildnummern angezeigt werden
         if (seriesTable.getSelectedRowCount() == 1)  {
-          updateImageTable(seriesArray[seriesIndex]);
+          updateImageTable(series);
         }
           
       }
@@ -363,33 +737,30 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
    *
    */
   private void fireSeriesSelectionEvent () {
-    Vector              fv = new Vector();
+    int[]               rows = seriesTable.getSelectedRows();
+    File[][]            files = new File[rows.length][];
     File[]              fa;
     FileSelectionEvent  fse;
-    DirRecord           seriesRecord;
-    DirRecord           next;
+    int                 series;
+    int                 n = 0;
     
-    // Alle selektierten Serien bearbeiten
-    for (int s = 0; s < seriesTable.getSelectedRowCount(); s++) {
-      seriesRecord = seriesArray[seriesTable.getSelectedRows()[s]];
-      
-      // Alle Bilder einer Serie dem Vector hinzufuegen
-      try {
-        next = seriesRecord.getFirstChild(onlyInUse);
-        while (next != null) {
-          if ("IMAGE".equals(next.getType())) {
-            fv.add(buildFile(dicomdirFile, next.getRefFileIDs()));
-          }
-          next = next.getNextSibling(onlyInUse);
-        }
-      } catch (IOException e) {}
+    // Die Files aller selektierten Serien aus dem Index holen
+    for (int s = 0; s < rows.length; s++) {
+      series = seriesModel.getRecord(rows[s]);
+      files[s] = (series == -1) ? new File[0] : dirIndex.getFiles(series);
+      n += files[s].length;
     }
     
-    // Vector in Array umwandeln
-    if (fv.isEmpty()) {
+    // Zu einem Array zusammenfassen
+    if (n == 0) {
       fa = null;
     } else {
-      fa = (File[]) fv.toArray(new File[0]);
+      fa = new File[n];
+      n = 0;
+      for (int s = 0; s < files.length; s++) {
+        System.arraycopy(files[s], 0, fa, n, files[s].length);
+        n += files[s].length;
+      }
     }
       
     // FileSelectionEvent generieren und feuern
@@ -408,30 +779,30 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
     File[]              fa;
     FileSelectionEvent  fse;
     int                 index;
+    int[]               rows;
     
     // Deselektieren ignorieren
     if (!e.getValueIsAdjusting()) {
       
       // Das File-Objekt zu dem letzten ausgewaehlten Image generieren
-      index = imageTable.getSelectionModel().getLeadSelectionIndex();
+      index = imageModel.getRecord(imageTable.getSelectionModel().getLeadSelectionIndex());
       
       // Falls die Selektion leer ist, nichts tun
       if (index == -1) return;
       
       // File Objekt aus den Angaben des DICOMDIR erzeugen
-      f = buildFile(dicomdirFile, imageArray[index].getRefFileIDs());
+      f = dirIndex.getFile(index);
       
       // Falls kein File-Objekt erzeugt werden konnte nichts tun
       if (f == null) return;
       
       // Ein Array mit den aktuell selektierten Files erzeugen
-      if (imageTable.getSelectedRowCount() > 0) {
+      rows = imageTable.getSelectedRows();
+      if (rows.length > 0) {
         // Ein Array mit allen ausgewaehlten Images erzeugen
-        fa = new File[imageTable.getSelectedRowCount()];
-        for (int i = 0; i < imageTable.getSelectedRowCount(); i++) {
-          index = imageTable.getSelectedRows()[i];
-          f = buildFile(dicomdirFile, imageArray[index].getRefFileIDs());
-          fa[i] = f;
+        fa = new File[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+          fa[i] = dirIndex.getFile(imageModel.getRecord(rows[i]));
         }
       } else {
         fa = null;
@@ -444,20 +815,6 @@ public class DirTable extends javax.swing.JPanel implements java.io.Serializable
       fireFileSelectionEvent(fse);
     }
   }
-  
-  
-  /**
-   * Builds a File from the root file and the path to the file.
-   */
-  private File buildFile(File parent, String[] path) {
-    if (path == null) return null;
-    
-    String s = parent.getParent();
-    for (int i = 0; i < path.length; i++) {
-      s = s + File.separator + path[i];
-    }
-    return new File(s);
-  }
 
   
   /**
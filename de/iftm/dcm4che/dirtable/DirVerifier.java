@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dirtable;
+
+import java.io.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+import org.dcm4che.media.*;
+
+import de.iftm.javax.imageio.stream.*;
+
+
+/**
+ * Checks the consistency of a DICOMDIR and the files of its media. Each
+ * directory record, which references a file, is checked by reading the header
+ * of the file up to the PixelData element. The files are checked by several
+ * threads in parallel. The following problems are reported:<br>
+ * MISSING: the referenced file does not exist.<br>
+ * UNREADABLE: the referenced file is not a readable DICOM file.<br>
+ * MISMATCH: the SOPInstanceUID, SOPClassUID or TransferSyntaxUID of the file
+ * differs from the directory record.<br>
+ * ORPHANED: a file of the media is not referenced by the DICOMDIR.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.26
+ */
+public class DirVerifier {
+  
+  
+  /** The referenced file does not exist. */
+  public final static int     MISSING = 0;
+  
+  /** The referenced file is not a readable DICOM file. */
+  public final static int     UNREADABLE = 1;
+  
+  /** The attributes of the file differ from the directory record. */
+  public final static int     MISMATCH = 2;
+  
+  /** The file is not referenced by the DICOMDIR. */
+  public final static int     ORPHANED = 3;
+  
+  
+  /**
+   * The names of the problem types.
+   */
+  public final static String[] PROBLEM_TYPES = {"MISSING", "UNREADABLE", "MISMATCH", "ORPHANED"};
+  
+  
+  /**
+   * Only records with the in-use flag set are checked.
+   */
+  private final static boolean  ONLY_IN_USE = true;
+  
+  
+  /**
+   * The DICOMDIR file.
+   */
+  private File        dicomdir;
+  
+  
+  /**
+   * The base directory of the media.
+   */
+  private File        baseDir;
+  
+  
+  /**
+   * The references to check.
+   */
+  private Vector      refs;
+  
+  
+  /**
+   * The existing files of the media. Maps the upper case relative path to the
+   * relative path as found in the file system.
+   */
+  private HashMap     existing;
+  
+  
+  /**
+   * The next reference to be checked by a worker thread.
+   */
+  private int         next;
+  
+  
+  /**
+   * The problems found, formatted as "TYPE: path - message".
+   */
+  private Vector      problems = new Vector();
+  
+  
+  /**
+   * The number of problems of each type.
+   */
+  private int[]       problemCount = new int[PROBLEM_TYPES.length];
+  
+  
+  /**
+   * The number of checked files.
+   */
+  private int         checkedCount = 0;
+  
+  
+  /**
+   * The size of the checked files in bytes.
+   */
+  private long        checkedBytes = 0;
+  
+  
+  /**
+   * The duration of the last check in milliseconds.
+   */
+  private long        time = 0;
+  
+  
+  /**
+   * True, if the check should be abandoned.
+   */
+  private boolean     cancelled = false;
+  
+  
+  /**
+   * Creates a new DirVerifier.
+   * @param dicomdir the DICOMDIR file.
+   */
+  public DirVerifier(File dicomdir) {
+    this.dicomdir = dicomdir.getAbsoluteFile();
+    this.baseDir = this.dicomdir.getParentFile();
+  }
+  
+  
+  /**
+   * Checks the DICOMDIR and the files of the media.
+   * @param threads the number of threads to check the files.
+   * @exception  IOException  if the DICOMDIR could not be read
+   */
+  public void verify(int threads) throws IOException {
+    long                    start = System.currentTimeMillis();
+    MappedImageInputStream  iis;
+    DirReader               reader;
+    Thread[]                workers;
+    HashSet                 referenced = new HashSet();
+    Vector                  files = new Vector();
+    String                  path;
+    
+    synchronized (this) {
+      cancelled = false;
+      problems.clear();
+      problemCount = new int[PROBLEM_TYPES.length];
+      checkedCount = 0;
+      checkedBytes = 0;
+    }
+    
+    // Die Records wie die DirTable durchlaufen und die Referenzen sammeln
+    refs = new Vector();
+    next = 0;
+    iis = new MappedImageInputStream(dicomdir);
+    try {
+      reader = DirBuilderFactory.getInstance().newDirReader(iis);
+    } catch (IOException e) {
+      iis.close();
+      throw e;
+    }
+    try {
+      collect(reader.getFirstRecord(ONLY_IN_USE));
+    } finally {
+      try {
+        reader.close();
+      } catch (Exception ignore) {}
+    }
+    
+    // Vorhandene Files auflisten. ISO 9660 File IDs sind in Grossbuchstaben,
+    // daher ohne Beachtung der Schreibweise vergleichen.
+    listFiles(baseDir, "", files);
+    existing = new HashMap();
+    for (int i = 0; i < files.size(); i++) {
+      path = (String) files.get(i);
+      existing.put(path.toUpperCase(), path);
+    }
+    
+    // Die Files parallel pruefen
+    threads = Math.max(1, Math.min(threads, refs.size()));
+    workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread("DirVerifier") {
+        public void run() {
+          checkAll();
+        }
+      };
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+    for (int i = 0; i < threads; i++) {
+      try {
+        workers[i].join();
+      } catch (InterruptedException e) {
+        cancel();
+      }
+    }
+    
+    synchronized (this) {
+      if (cancelled) throw new InterruptedIOException("Verification cancelled");
+    }
+    
+    // Nicht referenzierte Files suchen
+    for (int i = 0; i < refs.size(); i++) {
+      referenced.add(((Ref) refs.get(i)).path.toUpperCase());
+    }
+    for (int i = 0; i < files.size(); i++) {
+      path = (String) files.get(i);
+      if (!referenced.contains(path.toUpperCase())) {
+        addProblem(ORPHANED, path, "not referenced by the DICOMDIR");
+      }
+    }
+    
+    refs = null;
+    existing = null;
+    synchronized (this) {
+      time = System.currentTimeMillis() - start;
+    }
+  }
+  
+  
+  /**
+   * Abandons the check.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+  }
+  
+  
+  /**
+   * Returns the problems found by the last check.
+   * @return the problems, formatted as "TYPE: path - message".
+   */
+  public synchronized String[] getProblems() {
+    return (String[]) problems.toArray(new String[problems.size()]);
+  }
+  
+  
+  /**
+   * Returns the number of problems of a type found by the last check.
+   * @param type the type, e.g. MISSING.
+   * @return the number of problems.
+   */
+  public synchronized int getProblemCount(int type) {
+    return problemCount[type];
+  }
+  
+  
+  /**
+   * Returns the number of files checked by the last check.
+   * @return the number of files.
+   */
+  public synchronized int getCheckedCount() {
+    return checkedCount;
+  }
+  
+  
+  /**
+   * Returns a summary of the last check, including the throughput.
+   * @return the summary.
+   */
+  public synchronized String getSummary() {
+    StringBuffer  sb = new StringBuffer();
+    double        sec = Math.max(time, 1) / 1000.0;
+    
+    sb.append(checkedCount).append(" files checked in ").append(time).append(" ms (");
+    sb.append((int) (checkedCount / sec)).append(" files/s, ");
+    sb.append((int) (checkedBytes / sec / (1024 * 1024))).append(" MB/s)");
+    for (int i = 0; i < PROBLEM_TYPES.length; i++) {
+      sb.append(", ").append(problemCount[i]).append(' ').append(PROBLEM_TYPES[i]);
+    }
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Collects the references of a record, its siblings and their children.
+   * @param rec the first record.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void collect(DirRecord rec) throws IOException {
+    String[]      ids;
+    StringBuffer  sb;
+    Ref           ref;
+    
+    for (; rec != null; rec = rec.getNextSibling(ONLY_IN_USE)) {
+      ids = rec.getRefFileIDs();
+      if (ids != null) {
+        sb = new StringBuffer();
+        for (int i = 0; i < ids.length; i++) {
+          if (i > 0) sb.append('/');
+          sb.append(ids[i]);
+        }
+        ref = new Ref();
+        ref.path = sb.toString();
+        ref.sopInstanceUID = rec.getRefSOPInstanceUID();
+        ref.sopClassUID = rec.getRefSOPClassUID();
+        ref.transferSyntaxUID = rec.getRefSOPTransferSyntaxUID();
+        refs.add(ref);
+      }
+      collect(rec.getFirstChild(ONLY_IN_USE));
+    }
+  }
+  
+  
+  /**
+   * Checks files until all are done. Executed by the worker threads.
+   */
+  private void checkAll() {
+    Ref   ref;
+    
+    while (true) {
+      synchronized (this) {
+        if (cancelled || (next >= refs.size())) return;
+        ref = (Ref) refs.get(next++);
+      }
+      check(ref);
+    }
+  }
+  
+  
+  /**
+   * Checks a referenced file.
+   * @param ref the reference.
+   */
+  private void check(Ref ref) {
+    String                path = (String) existing.get(ref.path.toUpperCase());
+    File                  f;
+    BufferedInputStream   in = null;
+    Dataset               ds;
+    FileFormat            ff;
+    FileMetaInfo          fmi;
+    String                sopInstanceUID;
+    String                sopClassUID;
+    String                transferSyntaxUID = null;
+    
+    if (path == null) {
+      addProblem(MISSING, ref.path, "referenced file does not exist");
+      return;
+    }
+    f = new File(baseDir, path.replace('/', File.separatorChar));
+    
+    try {
+      in = new BufferedInputStream(new FileInputStream(f));
+      DcmParser p = DcmParserFactory.getInstance().newDcmParser(in);
+      ff = p.detectFileFormat();
+      ds = DcmObjectFactory.getInstance().newDataset();
+      ds.readFile(in, ff, Tags.PixelData);
+    } catch (Exception e) {
+      addProblem(UNREADABLE, ref.path, e.toString());
+      return;
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (Exception ignore) {}
+    }
+    
+    synchronized (this) {
+      checkedCount++;
+      checkedBytes += f.length();
+    }
+    
+    // Attribute des Files mit dem Record vergleichen
+    try {
+      sopInstanceUID = ds.getString(Tags.SOPInstanceUID);
+      sopClassUID = ds.getString(Tags.SOPClassUID);
+    } catch (Exception e) {
+      addProblem(UNREADABLE, ref.path, e.toString());
+      return;
+    }
+    fmi = ds.getFileMetaInfo();
+    if (fmi != null) transferSyntaxUID = fmi.getTransferSyntaxUID();
+    
+    compare(ref.path, "SOPInstanceUID", ref.sopInstanceUID, sopInstanceUID);
+    compare(ref.path, "SOPClassUID", ref.sopClassUID, sopClassUID);
+    compare(ref.path, "TransferSyntaxUID", ref.transferSyntaxUID, transferSyntaxUID);
+  }
+  
+  
+  /**
+   * Compares a value of the directory record with the value of the file. A
+   * missing value of the directory record is not reported.
+   * @param path the path of the file.
+   * @param name the name of the attribute.
+   * @param recValue the value of the directory record.
+   * @param fileValue the value of the file.
+   */
+  private void compare(String path, String name, String recValue, String fileValue) {
+    if ((recValue == null) || recValue.equals(fileValue)) return;
+    addProblem(MISMATCH, path, name + " " + fileValue + " != " + recValue + " in DICOMDIR");
+  }
+  
+  
+  /**
+   * Adds a problem.
+   * @param type the type of the problem.
+   * @param path the path of the file.
+   * @param message the description.
+   */
+  private synchronized void addProblem(int type, String path, String message) {
+    problems.add(PROBLEM_TYPES[type] + ": " + path + " - " + message);
+    problemCount[type]++;
+  }
+  
+  
+  /**
+   * Lists all files of a directory tree. DICOMDIR and index files are skipped.
+   * @param d the directory.
+   * @param prefix the path of the directory relative to the base directory.
+   * @param v the Vector to add the relative paths, separated by '/'.
+   */
+  private static void listFiles(File d, String prefix, Vector v) {
+    File[]  files = d.listFiles();
+    String  name;
+    
+    if (files == null) return;
+    
+    for (int i = 0; i < files.length; i++) {
+      name = files[i].getName();
+      if (files[i].isDirectory()) {
+        listFiles(files[i], prefix + name + "/", v);
+      } else if (!name.toUpperCase().startsWith("DICOMDIR") 
+                 && !name.startsWith(FolderIndex.INDEX_FILE_NAME)) {
+        v.add(prefix + name);
+      }
+    }
+  }
+  
+  
+  /**
+   * Checks a DICOMDIR without a GUI. The problems and a summary are printed.
+   * The exit code is 1, if problems are found.<br>
+   * Usage: java de.iftm.dcm4che.dirtable.DirVerifier DICOMDIR [threads]
+   * @param args the command line arguments
+   */
+  public static void main(String args[]) {
+    DirVerifier   verifier;
+    int           threads = Runtime.getRuntime().availableProcessors();
+    String[]      p;
+    
+    if (args.length < 1) {
+      System.err.println("Usage: java de.iftm.dcm4che.dirtable.DirVerifier DICOMDIR [threads]");
+      System.exit(1);
+    }
+    if (args.length > 1) threads = Integer.parseInt(args[1]);
+    
+    verifier = new DirVerifier(new File(args[0]));
+    try {
+      verifier.verify(threads);
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+    
+    p = verifier.getProblems();
+    for (int i = 0; i < p.length; i++) {
+      System.out.println(p[i]);
+    }
+    System.out.println(verifier.getSummary());
+    System.exit((p.length > 0) ? 1 : 0);
+  }
+  
+  
+  /**
+   * A file reference of a directory record.
+   */
+  private static class Ref {
+    
+    /** The file IDs, separated by '/'. */
+    String      path;
+    
+    /** The attributes of the directory record. */
+    String      sopInstanceUID;
+    String      sopClassUID;
+    String      transferSyntaxUID;
+  }
+  
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.dirtable;
+
+import java.io.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * A persistent index of the DICOM files in a directory tree without a
+ * DICOMDIR. Only the headers up to the PixelData element are read. For each
+ * file the path, the modification time, the size and the attributes shown by
+ * the DirTable are stored in an index file.<br>
+ * When the index is updated, only new or modified files are parsed again. The
+ * files are parsed by several threads in parallel.<br>
+ * The index file is a binary file with the following content: the magic
+ * number, the version, the number of entries and the entries. Each entry
+ * contains the path relative to the directory, the modification time, the size,
+ * a flag, if the file is a DICOM file, and for DICOM files the attribute
+ * values.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.24
+ */
+public class FolderIndex {
+  
+  
+  /**
+   * The default name of the index file.
+   */
+  public final static String  INDEX_FILE_NAME = "DCMINDEX";
+  
+  
+  /**
+   * The magic number at the beginning of the index file.
+   */
+  private final static int    MAGIC = 0x44434d49;
+  
+  
+  /**
+   * The version of the file format.
+   */
+  private final static int    VERSION = 1;
+  
+  
+  /**
+   * The tags of the attributes stored for each file. The order corresponds to
+   * the columns of the PATIENT, STUDY, SERIES and IMAGE records of DirIndex.
+   */
+  private final static int[]  TAGS = {
+    Tags.PatientName, Tags.PatientID,
+    Tags.StudyID, Tags.StudyDescription, Tags.StudyDate, Tags.StudyTime, Tags.StudyInstanceUID,
+    Tags.SeriesNumber, Tags.Modality, Tags.SeriesInstanceUID,
+    Tags.InstanceNumber, Tags.SOPInstanceUID
+  };
+  
+  
+  /**
+   * The index of the first attribute of each level in TAGS.
+   */
+  private final static int[]  LEVEL_OFFSET = {0, 2, 7, 10};
+  
+  
+  /**
+   * The root directory.
+   */
+  private File        dir;
+  
+  
+  /**
+   * The index file.
+   */
+  private File        indexFile;
+  
+  
+  /**
+   * The entries. Key is the path relative to the root directory, value the
+   * Entry. Sorted by path.
+   */
+  private TreeMap     entries = new TreeMap();
+  
+  
+  /**
+   * The files to parse by the worker threads.
+   */
+  private Vector      jobs;
+  
+  
+  /**
+   * The next job to be executed by a worker thread.
+   */
+  private int         nextJob;
+  
+  
+  /**
+   * The number of files parsed by the last update.
+   */
+  private int         parsedCount = 0;
+  
+  
+  /**
+   * The number of entries taken from the index file by the last update.
+   */
+  private int         reusedCount = 0;
+  
+  
+  /**
+   * True, if the update should be abandoned.
+   */
+  private boolean     cancelled = false;
+  
+  
+  /**
+   * Creates a new FolderIndex. The index file is stored in the directory. If
+   * the directory is not writable, it is stored in the temporary directory.
+   * @param dir the root directory.
+   */
+  public FolderIndex(File dir) {
+    this(dir, getDefaultIndexFile(dir));
+  }
+  
+  
+  /**
+   * Creates a new FolderIndex.
+   * @param dir the root directory.
+   * @param indexFile the index file.
+   */
+  public FolderIndex(File dir, File indexFile) {
+    this.dir = dir.getAbsoluteFile();
+    this.indexFile = indexFile;
+  }
+  
+  
+  /**
+   * Returns the default index file of a directory.
+   * @param dir the root directory.
+   * @return the index file.
+   */
+  private static File getDefaultIndexFile(File dir) {
+    dir = dir.getAbsoluteFile();
+    if (dir.canWrite()) return new File(dir, INDEX_FILE_NAME);
+    return new File(System.getProperty("java.io.tmpdir"), 
+                    INDEX_FILE_NAME + "-" + Integer.toHexString(dir.getPath().hashCode()));
+  }
+  
+  
+  /**
+   * Updates the index. The index file is read, new and modified files are
+   * parsed in parallel and the index file is written, if anything has changed.
+   * @param threads the number of threads to parse the files.
+   */
+  public void update(int threads) {
+    HashMap   old = new HashMap();
+    Vector    files = new Vector();
+    Thread[]  workers;
+    File      f;
+    String    path;
+    Entry     e;
+    boolean   changed;
+    
+    synchronized (this) {
+      cancelled = false;
+    }
+    
+    // Bisherigen Index lesen
+    try {
+      read(old);
+    } catch (IOException ignore) {
+      old.clear();
+    }
+    
+    // Unveraenderte Files uebernehmen, alle anderen parsen
+    listFiles(dir, "", files);
+    entries.clear();
+    jobs = new Vector();
+    nextJob = 0;
+    for (int i = 0; i < files.size(); i++) {
+      path = (String) files.get(i);
+      f = new File(dir, path);
+      e = (Entry) old.remove(path);
+      if ((e != null) && (e.lastModified == f.lastModified()) && (e.length == f.length())) {
+        entries.put(path, e);
+      } else {
+        jobs.add(path);
+      }
+    }
+    reusedCount = entries.size();
+    changed = (jobs.size() > 0) || (old.size() > 0);
+    
+    // Die Files parallel parsen
+    threads = Math.max(1, Math.min(threads, jobs.size()));
+    workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread("FolderIndex") {
+        public void run() {
+          parseAll();
+        }
+      };
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+    for (int i = 0; i < threads; i++) {
+      try {
+        workers[i].join();
+      } catch (InterruptedException ex) {
+        cancel();
+      }
+    }
+    
+    synchronized (this) {
+      parsedCount = entries.size() - reusedCount;
+      jobs = null;
+      if (cancelled) return;
+    }
+    
+    // Den neuen Index speichern. Fehler sind nicht kritisch, das Verzeichnis
+    // wird dann beim naechsten Mal erneut gelesen.
+    if (changed) {
+      try {
+        write();
+      } catch (IOException ignore) {}
+    }
+  }
+  
+  
+  /**
+   * Abandons the update.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+  }
+  
+  
+  /**
+   * Returns the number of files parsed by the last update.
+   * @return the number of files.
+   */
+  public synchronized int getParsedCount() {
+    return parsedCount;
+  }
+  
+  
+  /**
+   * Returns the number of entries taken unchanged from the index file by the
+   * last update.
+   * @return the number of entries.
+   */
+  public synchronized int getReusedCount() {
+    return reusedCount;
+  }
+  
+  
+  /**
+   * Returns the number of DICOM files in the index.
+   * @return the number of DICOM files.
+   */
+  public synchronized int getDicomCount() {
+    int       n = 0;
+    Iterator  iter = entries.values().iterator();
+    
+    while (iter.hasNext()) {
+      if (((Entry) iter.next()).values != null) n++;
+    }
+    return n;
+  }
+  
+  
+  /**
+   * Returns the index file.
+   * @return the index file.
+   */
+  public File getIndexFile() {
+    return indexFile;
+  }
+  
+  
+  /**
+   * Builds a DirIndex of the DICOM files, which can be shown by a DirTable.
+   * Files are grouped by PatientID and PatientName, StudyInstanceUID and
+   * SeriesInstanceUID.
+   * @return the index.
+   */
+  public synchronized DirIndex toDirIndex() {
+    DirIndexMerger        merger = new DirIndexMerger();
+    DirIndexMerger.Node   node;
+    Iterator              iter = entries.entrySet().iterator();
+    Map.Entry             me;
+    Entry                 e;
+    String                path;
+    String[]              key = new String[4];
+    StringTokenizer       st;
+    String[]              ids;
+    
+    while (iter.hasNext()) {
+      me = (Map.Entry) iter.next();
+      path = (String) me.getKey();
+      e = (Entry) me.getValue();
+      if (e.values == null) continue;
+      
+      key[DirIndex.PATIENT] = e.values[1] + "\\" + e.values[0];
+      key[DirIndex.STUDY] = (e.values[6] != null) ? e.values[6] : path;
+      key[DirIndex.SERIES] = (e.values[9] != null) ? e.values[9] : path;
+      key[DirIndex.IMAGE] = (e.values[11] != null) ? e.values[11] : path;
+      
+      node = merger.getRoot();
+      for (int l = DirIndex.PATIENT; l <= DirIndex.IMAGE; l++) {
+        DirIndexMerger.Node child = node.getChild(key[l]);
+        if (child == null) {
+          String[] v = new String[DirIndex.getColumnCount(l)];
+          System.arraycopy(e.values, LEVEL_OFFSET[l], v, 0, v.length);
+          child = node.addChild(key[l], v);
+          
+          if (l == DirIndex.IMAGE) {
+            st = new StringTokenizer(path, "/");
+            ids = new String[st.countTokens()];
+            for (int i = 0; i < ids.length; i++) {
+              ids[i] = st.nextToken();
+            }
+            child.fileIDs = ids;
+          }
+        }
+        node = child;
+      }
+    }
+    
+    return merger.build(new File[] {dir});
+  }
+  
+  
+  /**
+   * Lists all files of a directory tree. The index file and DICOMDIR files are
+   * skipped.
+   * @param d the directory.
+   * @param prefix the path of the directory relative to the root directory.
+   * @param v the Vector to add the relative paths, separated by '/'.
+   */
+  private void listFiles(File d, String prefix, Vector v) {
+    File[]  files = d.listFiles();
+    String  name;
+    
+    if (files == null) return;
+    
+    for (int i = 0; i < files.length; i++) {
+      name = files[i].getName();
+      if (files[i].isDirectory()) {
+        listFiles(files[i], prefix + name + "/", v);
+      } else if (!files[i].equals(indexFile) && !"DICOMDIR".equalsIgnoreCase(name)) {
+        v.add(prefix + name);
+      }
+    }
+  }
+  
+  
+  /**
+   * Parses files until all jobs are done. Executed by the worker threads.
+   */
+  private void parseAll() {
+    String  path;
+    Entry   e;
+    
+    while (true) {
+      synchronized (this) {
+        if (cancelled || (nextJob >= jobs.size())) return;
+        path = (String) jobs.get(nextJob++);
+      }
+      
+      e = parse(new File(dir, path));
+      
+      synchronized (this) {
+        entries.put(path, e);
+      }
+    }
+  }
+  
+  
+  /**
+   * Reads the header of a file up to the PixelData element.
+   * @param f the file.
+   * @return the entry. The values are null, if the file is not a DICOM file.
+   */
+  private static Entry parse(File f) {
+    Entry                 e = new Entry();
+    BufferedInputStream   in = null;
+    Dataset               ds;
+    FileFormat            ff;
+    
+    e.lastModified = f.lastModified();
+    e.length = f.length();
+    
+    try {
+      in = new BufferedInputStream(new FileInputStream(f));
+      DcmParser p = DcmParserFactory.getInstance().newDcmParser(in);
+      ff = p.detectFileFormat();
+      ds = DcmObjectFactory.getInstance().newDataset();
+      ds.readFile(in, ff, Tags.PixelData);
+      
+      e.values = new String[TAGS.length];
+      for (int i = 0; i < TAGS.length; i++) {
+        e.values[i] = ds.getString(TAGS[i]);
+      }
+    } catch (Exception ex) {
+      // Kein DICOM File
+      e.values = null;
+    } finally {
+      try {
+        if (in != null) in.close();
+      } catch (Exception ignore) {}
+    }
+    
+    return e;
+  }
+  
+  
+  /**
+   * Reads the index file.
+   * @param map the map to add the entries. Key is the relative path.
+   * @exception  IOException  in a case of I/O error or if the file is not an index file
+   */
+  private void read(Map map) throws IOException {
+    DataInputStream   in;
+    int               n;
+    String            path;
+    Entry             e;
+    
+    if (!indexFile.exists()) return;
+    
+    in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+    try {
+      if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) {
+        throw new IOException("Not a index file: " + indexFile);
+      }
+      n = in.readInt();
+      for (int i = 0; i < n; i++) {
+        path = in.readUTF();
+        e = new Entry();
+        e.lastModified = in.readLong();
+        e.length = in.readLong();
+        if (in.readBoolean()) {
+          e.values = new String[TAGS.length];
+          for (int k = 0; k < TAGS.length; k++) {
+            e.values[k] = in.readBoolean() ? in.readUTF() : null;
+          }
+        }
+        map.put(path, e);
+      }
+    } finally {
+      in.close();
+    }
+  }
+  
+  
+  /**
+   * Writes the index file. The file is written to a temporary file first and
+   * renamed afterwards, so an interrupted write never leaves a corrupted index.
+   * @exception  IOException  in a case of I/O error
+   */
+  private void write() throws IOException {
+    File              tmp = new File(indexFile.getPath() + ".tmp");
+    DataOutputStream  out;
+    Iterator          iter;
+    Map.Entry         me;
+    Entry             e;
+    
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      iter = entries.entrySet().iterator();
+      while (iter.hasNext()) {
+        me = (Map.Entry) iter.next();
+        e = (Entry) me.getValue();
+        out.writeUTF((String) me.getKey());
+        out.writeLong(e.lastModified);
+        out.writeLong(e.length);
+        out.writeBoolean(e.values != null);
+        if (e.values != null) {
+          for (int k = 0; k < TAGS.length; k++) {
+            out.writeBoolean(e.values[k] != null);
+            if (e.values[k] != null) out.writeUTF(e.values[k]);
+          }
+        }
+      }
+    } finally {
+      out.close();
+    }
+    
+    indexFile.delete();
+    if (!tmp.renameTo(indexFile)) {
+      tmp.delete();
+      throw new IOException("Can't write index file: " + indexFile);
+    }
+  }
+  
+  
+  /**
+   * An entry of the index.
+   */
+  private static class Entry {
+    
+    /** The modification time of the file. */
+    long        lastModified;
+    
+    /** The size of the file. */
+    long        length;
+    
+    /** The attribute values in the order of TAGS. null, if not a DICOM file. */
+    String[]    values;
+  }
+  
+}
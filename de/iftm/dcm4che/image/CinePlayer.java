@@ -0,0 +1,495 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.image;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.*;
+import javax.imageio.*;
+
+
+/**
+ * Plays the frames of a multiframe image as a cine loop. A producer thread
+ * decodes and windows the frames ahead of time into a ring buffer of display
+ * images. A Swing Timer takes the images out of the ring buffer at the frame
+ * rate and passes them to the ImageBean.<br>
+ * If the ring buffer is empty when a frame is due, a stall is counted. The
+ * achieved frame rate is measured once per second.<br>
+ * The ImageReader is shared with the ImageBean. Each access to the reader must
+ * be synchronized on the reader object.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.4
+ */
+class CinePlayer implements ActionListener {
+
+  
+  /**
+   * Default number of display images in the ring buffer.
+   */
+  public final static int     DEFAULT_BUFFER_SIZE = 16;
+  
+  
+  /**
+   * The bean which displays the frames.
+   */
+  private ImageBean           bean;
+  
+  
+  /**
+   * The reader to decode the frames. Shared with the ImageBean.
+   */
+  private ImageReader         reader;
+  
+  
+  /**
+   * Frames already decoded by the ImageBean.
+   */
+  private FrameCache          cache;
+  
+  
+  /**
+   * Number of frames of the image.
+   */
+  private int                 numFrames;
+  
+  
+  /**
+   * The ColorModel to window the frames. null, if the frames should be displayed
+   * with their own ColorModel.
+   */
+  private ColorModel          colorModel;
+  
+  
+  /**
+   * The type of the display images, e.g. BufferedImage.TYPE_BYTE_GRAY.
+   */
+  private int                 displayType;
+  
+  
+  /**
+   * Number of display images in the ring buffer.
+   */
+  private int                 bufferSize;
+  
+  
+  /**
+   * The ring buffer of display images. A new buffer is used for each playback.
+   */
+  private RingBuffer          ringBuffer = null;
+  
+  
+  /**
+   * The thread which fills the ring buffer.
+   */
+  private Producer            producer = null;
+  
+  
+  /**
+   * The timer which takes the frames out of the ring buffer.
+   */
+  private javax.swing.Timer   timer;
+  
+  
+  /**
+   * Number of stall events since start.
+   */
+  private int                 stalls = 0;
+  
+  
+  /**
+   * Achieved frames per second in the last measuring interval.
+   */
+  private float               achievedFps = 0.0f;
+  
+  
+  /**
+   * Number of displayed frames in the current measuring interval.
+   */
+  private int                 fpsCount = 0;
+  
+  
+  /**
+   * Start time of the current measuring interval.
+   */
+  private long                fpsStart = 0;
+
+  
+  /**
+   * Creates a new CinePlayer.
+   * @param bean the bean which displays the frames.
+   * @param reader the ImageReader. The input must be set.
+   * @param cache frames already decoded.
+   * @param numFrames the number of frames of the image.
+   * @param colorModel the ColorModel to window the frames. null, if the frames
+   *                   should be displayed with their own ColorModel.
+   * @param monochrome true, if the display images may be gray scale images.
+   * @param bufferSize number of display images in the ring buffer.
+   */
+  public CinePlayer(ImageBean bean, ImageReader reader, FrameCache cache, int numFrames,
+                    ColorModel colorModel, boolean monochrome, int bufferSize) {
+    this.bean = bean;
+    this.reader = reader;
+    this.cache = cache;
+    this.numFrames = numFrames;
+    this.colorModel = colorModel;
+    displayType = monochrome ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+    this.bufferSize = Math.max(3, bufferSize);
+    timer = new javax.swing.Timer(100, this);
+  }
+  
+  
+  /**
+   * Starts the playback.
+   * @param startFrame the first frame to play.
+   * @param fps the frame rate in frames per second.
+   */
+  public void start(int startFrame, float fps) {
+    if (producer != null) return;
+    
+    stalls = 0;
+    achievedFps = 0.0f;
+    fpsCount = 0;
+    fpsStart = System.currentTimeMillis();
+    
+    // Ein eigener Ring Buffer fuer jede Wiedergabe: Ein Producer einer
+    // vorhergehenden Wiedergabe kann ihn nicht mehr fuellen.
+    ringBuffer = new RingBuffer(bufferSize);
+    producer = new Producer(startFrame, ringBuffer);
+    producer.start();
+    
+    timer.setDelay(Math.max(1, Math.round(1000.0f / fps)));
+    timer.setInitialDelay(0);
+    timer.start();
+  }
+  
+  
+  /**
+   * Stops the playback. A frame, which is currently decoded, is finished
+   * before the producer thread terminates.
+   */
+  public void stop() {
+    timer.stop();
+    if (producer != null) {
+      ringBuffer.shutdown();
+      producer = null;
+    }
+  }
+  
+  
+  /**
+   * Tests, if the playback is running.
+   * @return true, if the playback is running.
+   */
+  public boolean isPlaying() {
+    return producer != null;
+  }
+  
+  
+  /**
+   * Sets a new ColorModel to window the frames. Frames already in the ring
+   * buffer keep their window.
+   * @param cm the new ColorModel.
+   */
+  public synchronized void setColorModel(ColorModel cm) {
+    colorModel = cm;
+  }
+  
+  
+  /**
+   * Gets the ColorModel to window the frames.
+   * @return the ColorModel.
+   */
+  private synchronized ColorModel getColorModel() {
+    return colorModel;
+  }
+  
+  
+  /**
+   * Gets the achieved frames per second in the last measuring interval.
+   * @return the frames per second.
+   */
+  public float getAchievedFps() {
+    return achievedFps;
+  }
+  
+  
+  /**
+   * Gets the number of stall events since the start of the playback. A stall
+   * occurs, if a frame is due but not yet decoded.
+   * @return the number of stalls.
+   */
+  public int getStalls() {
+    return stalls;
+  }
+  
+  
+  /**
+   * Called by the Timer in the event-dispatch thread, if the next frame is due.
+   * @param e the ActionEvent.
+   */
+  public void actionPerformed(ActionEvent e) {
+    BufferedImage   display;
+    int             frame;
+    long            now;
+    float           oldFps;
+    
+    // Wiedergabe bereits beendet
+    if (producer == null) return;
+    
+    // Naechsten Frame aus dem Ring Buffer holen
+    synchronized (ringBuffer) {
+      display = ringBuffer.poll();
+      frame = ringBuffer.getPolledFrame();
+    }
+    
+    if (display == null) {
+      // Frame ist noch nicht dekodiert
+      stalls++;
+      bean.cineStalled(stalls);
+    } else {
+      fpsCount++;
+      bean.showCineFrame(frame, display);
+    }
+    
+    // Die erreichte Framerate einmal pro Sekunde bestimmen
+    now = System.currentTimeMillis();
+    if (now - fpsStart >= 1000) {
+      oldFps = achievedFps;
+      achievedFps = fpsCount * 1000.0f / (now - fpsStart);
+      fpsCount = 0;
+      fpsStart = now;
+      bean.cineFpsMeasured(oldFps, achievedFps);
+    }
+  }
+  
+  
+  /**
+   * Draws a decoded frame windowed into a display image.
+   * @param bi the decoded frame.
+   * @param target a display image to reuse. May be null.
+   * @return the display image.
+   */
+  private BufferedImage render(BufferedImage bi, BufferedImage target) {
+    BufferedImage   windowed;
+    ColorModel      cm;
+    Graphics2D      g;
+    
+    // Das Window mit dem aktuellen ColorModel anwenden
+    cm = getColorModel();
+    if (cm == null) {
+      windowed = bi;
+    } else {
+      windowed = new BufferedImage(cm, bi.getRaster(), false, null);
+    }
+    
+    // Display Image wiederverwenden, wenn es passt
+    if ((target == null) || (target.getWidth() != bi.getWidth()) || (target.getHeight() != bi.getHeight())) {
+      target = new BufferedImage(bi.getWidth(), bi.getHeight(), displayType);
+    }
+    
+    g = target.createGraphics();
+    g.drawImage(windowed, 0, 0, null);
+    g.dispose();
+    
+    return target;
+  }
+
+
+  /**
+   * The thread which decodes the frames in a loop and fills the ring buffer.
+   */
+  class Producer extends Thread {
+    
+    /**
+     * The next frame to decode.
+     */
+    private int           frame;
+    
+    
+    /**
+     * The ring buffer to fill.
+     */
+    private RingBuffer    buffer;
+    
+    
+    /**
+     * Creates a new Producer.
+     * @param startFrame the first frame to decode.
+     * @param buffer the ring buffer to fill.
+     */
+    public Producer(int startFrame, RingBuffer buffer) {
+      super("CineProducer");
+      frame = startFrame;
+      this.buffer = buffer;
+      setDaemon(true);
+    }
+    
+    
+    /**
+     * The only method one can call in a Thread. Invoke by Producer.start().
+     */
+    public void run() {
+      BufferedImage   bi;
+      BufferedImage   target;
+      int             errors = 0;
+      
+      try {
+        while (true) {
+          
+          // Auf einen freien Platz im Ring Buffer warten
+          target = buffer.acquire();
+          if (!buffer.isOpen()) return;
+          
+          try {
+            // Frame aus dem Cache holen oder dekodieren
+            bi = cache.get(frame);
+            if (bi == null) {
+              synchronized (reader) {
+                if (!buffer.isOpen()) return;
+                bi = reader.read(frame);
+              }
+            }
+            
+            buffer.commit(frame, render(bi, target));
+            errors = 0;
+          } catch (Exception e) {
+            // Fehlerhaften Frame ueberspringen. Der Platz im Ring Buffer bleibt frei.
+            System.err.println("*** Warning: Can't decode frame " + frame + ": " + e.getMessage());
+            
+            // Kein Frame ist dekodierbar: Wiedergabe beenden
+            if (++errors >= numFrames) {
+              javax.swing.SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                  if (producer != null) bean.stopCine();
+                }
+              });
+              return;
+            }
+          }
+          frame = (frame + 1) % numFrames;
+        }
+      } catch (InterruptedException ignore) {}
+    }
+    
+  }
+
+
+  /**
+   * A ring buffer of display images. The slot of the image which was polled
+   * last is not overwritten, because this image is displayed by the ImageBean.
+   * Therefore at most capacity - 1 images are buffered.
+   */
+  static class RingBuffer {
+    
+    private BufferedImage[]   slots;
+    private int[]             frames;
+    private int               head = 0;
+    private int               count = 0;
+    private int               polledFrame = -1;
+    private boolean           open = true;
+    
+    
+    /**
+     * Creates a new RingBuffer.
+     * @param capacity the number of slots.
+     */
+    public RingBuffer(int capacity) {
+      slots = new BufferedImage[capacity];
+      frames = new int[capacity];
+    }
+    
+    
+    /**
+     * Closes the buffer. A waiting producer returns.
+     */
+    public synchronized void shutdown() {
+      open = false;
+      notifyAll();
+    }
+    
+    
+    /**
+     * Tests, if the buffer is open.
+     * @return true, if the buffer is open.
+     */
+    public synchronized boolean isOpen() {
+      return open;
+    }
+    
+    
+    /**
+     * Waits for a free slot.
+     * @return the image of the free slot to reuse. May be null.
+     */
+    public synchronized BufferedImage acquire() throws InterruptedException {
+      while (open && (count >= slots.length - 1)) {
+        wait();
+      }
+      return slots[(head + count) % slots.length];
+    }
+    
+    
+    /**
+     * Puts a display image into the slot returned by acquire.
+     * @param frame the frame number.
+     * @param image the display image.
+     */
+    public synchronized void commit(int frame, BufferedImage image) {
+      int tail = (head + count) % slots.length;
+      
+      if (!open) return;
+      slots[tail] = image;
+      frames[tail] = frame;
+      count++;
+    }
+    
+    
+    /**
+     * Takes the next display image out of the buffer. Does not wait.
+     * @return the display image or null, if the buffer is empty.
+     */
+    public synchronized BufferedImage poll() {
+      BufferedImage   image;
+      
+      if (count == 0) return null;
+      
+      image = slots[head];
+      polledFrame = frames[head];
+      head = (head + 1) % slots.length;
+      count--;
+      notifyAll();
+      return image;
+    }
+    
+    
+    /**
+     * Gets the frame number of the image returned by the last poll.
+     * @return the frame number.
+     */
+    public synchronized int getPolledFrame() {
+      return polledFrame;
+    }
+    
+  }
+  
+}
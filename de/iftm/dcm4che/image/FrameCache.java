@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.image;
+
+import java.awt.image.*;
+import java.util.*;
+
+
+/**
+ * A bounded cache for the decoded frames of a multiframe image. If the cache
+ * is full the least recently used frame is removed. All methods are
+ * synchronized, because the cache is filled by a background thread and read
+ * by the event-dispatch thread.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.2
+ */
+public class FrameCache {
+
+  
+  /**
+   * Maximum number of frames in the cache.
+   */
+  private int               capacity;
+  
+  
+  /**
+   * The frames. Key is the frame number as Integer, value the BufferedImage.
+   * The map is in access order, i.e. the first entry is the least recently used.
+   */
+  private LinkedHashMap     frameMap;
+  
+  
+  /**
+   * Creates a new FrameCache.
+   * @param capacity the maximum number of frames to hold.
+   */
+  public FrameCache(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    
+    frameMap = new LinkedHashMap(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        return size() > FrameCache.this.capacity;
+      }
+    };
+  }
+  
+  
+  /**
+   * Gets a frame from the cache.
+   * @param frame the frame number.
+   * @return the frame or null, if the frame is not in the cache.
+   */
+  public synchronized BufferedImage get(int frame) {
+    return (BufferedImage) frameMap.get(new Integer(frame));
+  }
+  
+  
+  /**
+   * Puts a frame into the cache.
+   * @param frame the frame number.
+   * @param bi the decoded frame.
+   */
+  public synchronized void put(int frame, BufferedImage bi) {
+    if (bi == null) return;
+    frameMap.put(new Integer(frame), bi);
+  }
+  
+  
+  /**
+   * Tests, if a frame is in the cache. The access order is not changed.
+   * @param frame the frame number.
+   * @return true, if the frame is in the cache.
+   */
+  public synchronized boolean contains(int frame) {
+    return frameMap.containsKey(new Integer(frame));
+  }
+  
+  
+  /**
+   * Removes all frames from the cache.
+   */
+  public synchronized void clear() {
+    frameMap.clear();
+  }
+  
+  
+  /**
+   * Sets the maximum number of frames. Surplus frames are removed.
+   * @param capacity the maximum number of frames to hold.
+   */
+  public synchronized void setCapacity(int capacity) {
+    Iterator  iter;
+    
+    this.capacity = Math.max(1, capacity);
+    
+    // Ueberzaehlige Frames entfernen, die zuletzt verwendeten bleiben erhalten
+    iter = frameMap.keySet().iterator();
+    while (frameMap.size() > this.capacity && iter.hasNext()) {
+      iter.next();
+      iter.remove();
+    }
+  }
+  
+  
+  /**
+   * Gets the maximum number of frames.
+   * @return the maximum number of frames.
+   */
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+  
+}
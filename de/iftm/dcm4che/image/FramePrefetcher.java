@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.image;
+
+import java.awt.image.*;
+import javax.imageio.*;
+
+
+/**
+ * Thread to decode the frames around the currently displayed frame of a
+ * multiframe image in the background. The decoded frames are put into a
+ * FrameCache.<br>
+ * The ImageReader is shared with the ImageBean. Each access to the reader must
+ * be synchronized on the reader object, because an ImageReader is not thread
+ * safe.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.2
+ */
+class FramePrefetcher extends Thread {
+
+  
+  /**
+   * The reader to decode the frames. Shared with the ImageBean.
+   */
+  private ImageReader     reader;
+  
+  
+  /**
+   * The cache to fill.
+   */
+  private FrameCache      cache;
+  
+  
+  /**
+   * Number of frames of the image.
+   */
+  private int             numFrames;
+  
+  
+  /**
+   * Number of frames to prefetch on each side of the current frame.
+   */
+  private int             radius;
+  
+  
+  /**
+   * The frame around which the frames should be prefetched. -1 = no request.
+   */
+  private int             center = -1;
+  
+  
+  /**
+   * The frame around which the frames were prefetched the last time.
+   */
+  private int             handled = -1;
+  
+  
+  /**
+   * False, if the thread should terminate.
+   */
+  private boolean         running = true;
+
+  
+  /**
+   * Creates a new FramePrefetcher. The thread is a daemon thread with low
+   * priority. Invoke by FramePrefetcher.start().
+   * @param reader the ImageReader. The input must be set.
+   * @param cache the cache to fill.
+   * @param numFrames the number of frames of the image.
+   * @param radius the number of frames to prefetch on each side of the current frame.
+   */
+  public FramePrefetcher(ImageReader reader, FrameCache cache, int numFrames, int radius) {
+    super("FramePrefetcher");
+    this.reader = reader;
+    this.cache = cache;
+    this.numFrames = numFrames;
+    this.radius = radius;
+    
+    setDaemon(true);
+    setPriority(Thread.MIN_PRIORITY);
+  }
+  
+  
+  /**
+   * Request to prefetch the frames around a given frame. A running prefetch
+   * for an other frame is abandoned.
+   * @param frame the current frame.
+   */
+  public synchronized void request(int frame) {
+    center = frame;
+    notifyAll();
+  }
+  
+  
+  /**
+   * Terminates the thread. A frame, which is currently decoded, is finished
+   * before the thread terminates.
+   */
+  public synchronized void shutdown() {
+    running = false;
+    notifyAll();
+  }
+  
+  
+  /**
+   * The only method one can call in a Thread. Invoke by FramePrefetcher.start().
+   */
+  public void run() {
+    int   c;
+    
+    while (true) {
+      
+      // Auf den naechsten Auftrag warten
+      synchronized (this) {
+        while (running && (center == handled)) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (!running) return;
+        c = center;
+        handled = c;
+      }
+      
+      // Kein Auftrag, z.B. waehrend der Cine Wiedergabe
+      if (c < 0) continue;
+      
+      // Frames abwechselnd hinter und vor dem aktuellen Frame dekodieren. Die
+      // naechstgelegenen Frames zuerst.
+      for (int d = 1; d <= radius; d++) {
+        if (isOutdated(c)) break;
+        prefetch(c + d);
+        if (isOutdated(c)) break;
+        prefetch(c - d);
+      }
+    }
+  }
+  
+  
+  /**
+   * Tests, if the current job is outdated.
+   * @param c the frame of the current job.
+   * @return true, if a new job is waiting or the thread should terminate.
+   */
+  private synchronized boolean isOutdated(int c) {
+    return !running || (center != c);
+  }
+  
+  
+  /**
+   * Decodes a frame and puts it into the cache.
+   * @param frame the frame number.
+   */
+  private void prefetch(int frame) {
+    BufferedImage   bi;
+    
+    if ((frame < 0) || (frame >= numFrames)) return;
+    if (cache.contains(frame)) return;
+    
+    try {
+      synchronized (reader) {
+        // Input koennte inzwischen geschlossen worden sein
+        synchronized (this) {
+          if (!running) return;
+        }
+        bi = reader.read(frame);
+        
+        // Noch unter dem Lock des Readers einfuegen. closeInput leert den
+        // Cache erst, nachdem es den Lock erhalten hat. Ein Frame des alten
+        // Files kann so nicht in den Cache des neuen Files gelangen.
+        synchronized (this) {
+          if (!running) return;
+        }
+        cache.put(frame, bi);
+      }
+    } catch (Exception ignore) {}
+  }
+  
+}
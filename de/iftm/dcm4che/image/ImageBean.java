@@ -98,6 +98,36 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
 	 */
 	public final static int MOUSE_POLICY_ZOOM = 2;
 
+
+	/**
+	 * Default number of frames of a multiframe image to hold in the frame cache.
+	 */
+	public final static int DEFAULT_FRAME_CACHE_SIZE = 16;
+
+
+	/**
+	 * Default number of frames to prefetch on each side of the current frame.
+	 */
+	public final static int DEFAULT_PREFETCH_RADIUS = 2;
+
+
+	/**
+	 * Default frame rate for cine playback, if the Dataset defines none.
+	 */
+	public final static float DEFAULT_CINE_RATE = 15.0f;
+
+
+	/**
+	 * Default number of pixels, above which an image is decoded tile by tile.
+	 */
+	public final static long DEFAULT_TILE_THRESHOLD = 4096L * 4096L;
+
+
+	/**
+	 * Maximum edge length of the overview of a tiled image.
+	 */
+	private final static int OVERVIEW_SIZE = 1024;
+
   
   private Color                   imageBackground = BACKGROUND_GRAY;
 	private Dataset                 theDataset  = null;
@@ -110,6 +140,120 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
   private int                     curFrame    = -1;
 
 
+	/**
+	 * The reader of the current input. It stays open to navigate through the
+	 * frames. Shared with the FramePrefetcher: Synchronize on the reader object.
+	 */
+	private ImageReader             dcmImageReader = null;
+
+
+	/**
+	 * The stream of the current input.
+	 */
+	private ImageInputStream        inputStream = null;
+
+
+	/**
+	 * True, if the inputStream was opened by this bean and must be closed by it.
+	 */
+	private boolean                 ownsInputStream = false;
+
+
+	/**
+	 * Cache for the decoded frames of the current input.
+	 */
+	private FrameCache              frameCache = new FrameCache(DEFAULT_FRAME_CACHE_SIZE);
+
+
+	/**
+	 * Thread to decode the frames around the current frame in the background.
+	 */
+	private FramePrefetcher         prefetcher = null;
+
+
+	/**
+	 * Number of frames to prefetch on each side of the current frame.
+	 */
+	private int                     prefetchRadius = DEFAULT_PREFETCH_RADIUS;
+
+
+	/**
+	 * Plays the frames of the current input as a cine loop.
+	 */
+	private CinePlayer              cinePlayer = null;
+
+
+	/**
+	 * Frame rate for cine playback in frames per second.
+	 */
+	private float                   cineRate = DEFAULT_CINE_RATE;
+
+
+	/**
+	 * Number of pre-rendered display images for cine playback.
+	 */
+	private int                     cineBufferSize = CinePlayer.DEFAULT_BUFFER_SIZE;
+
+
+	/**
+	 * Time budget in milliseconds for the pixel statistics, which are used to
+	 * choose the default window.
+	 */
+	private long                    statisticsBudget = PixelStatistics.DEFAULT_TIME_BUDGET;
+
+
+	/**
+	 * Decodes the visible tiles of very large images. null, if the image is
+	 * decoded as a whole.
+	 */
+	private TileSource              tileSource = null;
+
+
+	/**
+	 * Number of pixels, above which an image is decoded tile by tile.
+	 */
+	private long                    tileThreshold = DEFAULT_TILE_THRESHOLD;
+
+
+	/**
+	 * Width and height of the current frame in source pixels.
+	 */
+	private int                     imageWidth = 0;
+	private int                     imageHeight = 0;
+
+
+	/**
+	 * The ColorModel of the current window. Used to display the tiles of a
+	 * tiled image. null, if windowing is not possible.
+	 */
+	private ColorModel              displayColorModel = null;
+
+
+	/**
+	 * If true, the frames are decoded with source subsampling to about the size
+	 * of the panel until full resolution is needed.
+	 */
+	private boolean                 previewMode = false;
+
+
+	/**
+	 * The subsampling of the current frame. 1, if decoded in full resolution.
+	 */
+	private int                     previewSubsampling = 1;
+
+
+	/**
+	 * True, if the current input was switched to full resolution.
+	 */
+	private boolean                 fullResolution = false;
+
+
+	/**
+	 * Time in milliseconds to decode the current frame.
+	 */
+	private long                    decodeTime = 0;
+
+
 	/**
 	 * Indicates, how the image should be displayed.
 	 */
@@ -280,6 +424,48 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
   }
 
 
+	/**
+	 * Sets the window from the histogram of the pixel values. The window spans
+	 * the range between the lower and upper percentile of PixelStatistics.
+	 * @return true, if the window was set. false, if the statistics could not
+	 *         be computed within the time budget.
+	 */
+  private boolean setStatisticsWindow() {
+    PixelStatistics   stat;
+    int               low;
+    int               high;
+    
+    stat = PixelStatistics.getStatistics(theDataset, origImage.getRaster(), statisticsBudget);
+    if (stat == null) return false;
+    
+    low = (int) cmParam.toMeasureValue(stat.getWindowLow());
+    high = (int) cmParam.toMeasureValue(stat.getWindowHigh());
+    setWindow((low + high) >> 1, Math.max(1, high - low));
+    return true;
+  }
+
+
+	/**
+	 * Sets the time budget for the pixel statistics, which are used to choose
+	 * the default window, if the Dataset defines none. If the budget is 
+	 * exceeded the window spans the range of possible pixel values.
+	 * Default value is 250 ms.
+	 * @param budget the time budget in milliseconds.
+	 */
+  public void setStatisticsBudget(long budget) {
+    statisticsBudget = Math.max(0, budget);
+  }
+
+
+	/**
+	 * Gets the time budget for the pixel statistics.
+	 * @return the time budget in milliseconds.
+	 */
+  public long getStatisticsBudget() {
+    return statisticsBudget;
+  }
+
+
 	/**
 	 * Sets the input stream.
 	 * @param iis the ImageInputStream.
@@ -308,8 +494,10 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
 
 
 	/**
-	 * Sets the input stream.
-	 * @param iis the ImageInputStream.
+	 * Sets the input file. The file stays open until a new input is set, to
+	 * allow the navigation through the frames of a multiframe image.
+	 * @param f the input File.
+   * @param frame the frame number to read.
 	 */
 	public void setInput(File f, int frame) throws IOException {
     ImageInputStream    iis;
@@ -320,14 +508,17 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
       return;
     }
     
-    // ImageInputStream oeffnen
+    // ImageInputStream oeffnen. Der Stream bleibt bis zum naechsten setInput
+    // geoeffnet.
     iis = ImageIO.createImageInputStream(f);
     
     // Bild einlesen
-    setInput(iis);
-    
-    // Stream schliessen
-    iis.close();
+    try {
+      setInput(iis, frame, true);
+    } catch (IOException e) {
+      iis.close();
+      throw e;
+    }
 
   }
 
@@ -348,20 +539,34 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
     // iOutpuStream wieder auf den Anfang setzen
     stream.seek(0);
     
-    // Stream bearbeiten
-    setInput(stream, frame);
-    
-    // Stream schliessen
-    stream.close();
+    // Stream bearbeiten. Der Stream bleibt bis zum naechsten setInput geoeffnet.
+    try {
+      setInput(stream, frame, true);
+    } catch (IOException e) {
+      stream.close();
+      throw e;
+    }
  	} 
 
 
 	/**
-	 * Sets the input stream.
+	 * Sets the input stream. The stream is not closed by this bean, but it must
+	 * stay open as long as frames of a multiframe image should be navigated.
 	 * @param iiStream the ImageInputStream.
    * @param frame the frame number to read
 	 */
 	public void setInput(ImageInputStream iiStream, int frame) throws IOException {    
+    setInput(iiStream, frame, false);
+  }
+
+
+	/**
+	 * Sets the input stream.
+	 * @param iiStream the ImageInputStream.
+   * @param frame the frame number to read
+   * @param owned true, if the stream must be closed by this bean.
+	 */
+	private void setInput(ImageInputStream iiStream, int frame, boolean owned) throws IOException {    
     String        pmi;
     int           bits;
     int           size;
@@ -369,10 +574,13 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
     int           min;
     int           max;
 		Iterator      readers;
-    ImageReader   dcmImageReader;
+    ImageReader   reader;
 
     if (frame < 0) return;
     
+    // Den bisherigen Input schliessen
+    closeInput();
+    
     // Wenn kein Input gesetzt, dann Default-Image darstellen
     if (iiStream == null) {
       setDefaultImage();
@@ -384,11 +592,11 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
     // DcmImageReader holen
     readers = ImageIO.getImageReadersByFormatName("DICOM");
     while (true) {
-      dcmImageReader = (ImageReader) readers.next();
-      if (dcmImageReader == null) {
+      reader = (ImageReader) readers.next();
+      if (reader == null) {
         throw new UnsupportedOperationException("No DcmImageReader found" + this);
       }
-      // if (dcmImageReader instanceof DcmImageReader) {
+      // if (reader instanceof DcmImageReader) {
       //   break;
       // }
       break;
@@ -396,16 +604,43 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
 
     cmFactory = ColorModelFactory.getInstance();
     
-    dcmImageReader.setInput(iiStream, false);
-		theDataset = ((DcmMetadata) dcmImageReader.getStreamMetadata()).getDataset();
-		numFrames  = dcmImageReader.getNumImages(true);
+    reader.setInput(iiStream, false);
+		theDataset = ((DcmMetadata) reader.getStreamMetadata()).getDataset();
+		numFrames  = reader.getNumImages(true);
+    
+    if (frame >= numFrames) frame = 0;
+    
+    // Sehr grosse Bilder werden kachelweise dekodiert
+    imageWidth = reader.getWidth(frame);
+    imageHeight = reader.getHeight(frame);
+    if ((long) imageWidth * imageHeight > tileThreshold) {
+      tileSource = new TileSource(reader, imageWidth, imageHeight);
+      tileSource.setRepaintComponent(imagePanel);
+    }
 
-    theImage = origImage = dcmImageReader.read(frame);
+    theImage = origImage = readFrame(reader, frame);
     
     // ImageInputStream wieder auf den Anfang setzen
     iiStream.seek(0);
+    
+    // Reader und Stream fuer die Navigation durch die Frames merken
+    dcmImageReader = reader;
+    inputStream = iiStream;
+    ownsInputStream = owned;
+    frameCache.put(frame, origImage);
 
     curFrame = frame;
+    
+    // Framerate fuer die Cine Wiedergabe
+    cineRate = getFrameRate(theDataset);
+    
+    // Bei Multiframe Images die benachbarten Frames im Hintergrund dekodieren.
+    // Nicht in der Vorschau, da der Prefetch in voller Aufloesung dekodiert.
+    if ((numFrames > 1) && (tileSource == null) && !previewMode) {
+      prefetcher = new FramePrefetcher(dcmImageReader, frameCache, numFrames, prefetchRadius);
+      prefetcher.start();
+      prefetcher.request(curFrame);
+    }
 
     pmi = theDataset.getString(Tags.PhotometricInterpretation, null);
 		if ("MONOCHROME1".equals(pmi) || "MONOCHROME2".equals(pmi)) {
@@ -428,7 +663,7 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
       
 			if (cmParam.getNumberOfWindows() > 0) {
         setWindow((int) cmParam.getWindowCenter(0), (int) cmParam.getWindowWidth(0));
-			} else {
+			} else if (!setStatisticsWindow()) {
         setDefaultWindow();
       }
       
@@ -447,6 +682,547 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
   }
 
 
+	/**
+	 * Closes the current input: Stops the FramePrefetcher, clears the frame
+	 * cache and closes the stream if it was opened by this bean.
+	 */
+	private void closeInput() {
+    
+    // Cine Wiedergabe beenden
+    if (cinePlayer != null) {
+      cinePlayer.stop();
+      cinePlayer = null;
+    }
+    
+    // Prefetch beenden
+    if (prefetcher != null) {
+      prefetcher.shutdown();
+      prefetcher = null;
+    }
+    
+    // Dekodieren der Kacheln beenden
+    if (tileSource != null) {
+      tileSource.shutdown();
+      tileSource = null;
+    }
+    
+    // Warten, bis ein laufender Dekodiervorgang beendet ist
+    if (dcmImageReader != null) {
+      synchronized (dcmImageReader) {
+        if (ownsInputStream) {
+          try {
+            inputStream.close();
+          } catch (Exception ignore) {}
+        }
+        dcmImageReader.dispose();
+      }
+    }
+    
+    dcmImageReader = null;
+    inputStream = null;
+    ownsInputStream = false;
+    displayColorModel = null;
+    previewSubsampling = 1;
+    fullResolution = false;
+    frameCache.clear();
+    numFrames = 0;
+    curFrame = -1;
+  }
+
+
+	/**
+	 * Displays a frame of the current input. The frame is taken from the frame
+	 * cache if possible. The frames around the new frame are prefetched in the
+	 * background. The current window is preserved.
+	 * @param frame the frame number. Possible values are between 0 and 
+	 *              getNumberOfFrames() - 1.
+	 * @exception  IOException  in a case of I/O error
+	 */
+	public void setFrame(int frame) throws IOException {
+    
+    // Kein Input gesetzt
+    if (dcmImageReader == null) return;
+    if ((frame < 0) || (frame >= numFrames)) return;
+    if (frame == curFrame) return;
+    
+    // Waehrend der Cine Wiedergabe nicht moeglich
+    if (isCinePlaying()) return;
+    
+    displayFrame(frame);
+  }
+
+
+	/**
+	 * Displays a frame of the current input.
+	 * @param frame the frame number.
+	 * @exception  IOException  in a case of I/O error
+	 */
+	private void displayFrame(int frame) throws IOException {
+    BufferedImage   bi;
+    int             oldFrame;
+    
+    // Frame aus dem Cache holen oder dekodieren
+    bi = frameCache.get(frame);
+    if (bi == null) {
+      bi = readFrame(dcmImageReader, frame);
+      frameCache.put(frame, bi);
+    }
+    
+    oldFrame = curFrame;
+    curFrame = frame;
+    theImage = origImage = bi;
+    
+    // Benachbarte Frames im Hintergrund dekodieren
+    if (prefetcher != null) prefetcher.request(curFrame);
+    
+    // Bild mit dem aktuellen Window neu darstellen
+    if (windowingPossible) {
+      windowChanged();
+    } else {
+      imageChanged();
+    }
+    
+    firePropertyChange("frame", oldFrame, curFrame);
+  }
+
+
+	/**
+	 * Decodes a frame. For a tiled image only an overview is decoded with 
+	 * source subsampling.
+	 * @param reader the reader with the input set.
+	 * @param frame the frame number.
+	 * @return the decoded frame.
+	 * @exception  IOException  in a case of I/O error
+	 */
+	private BufferedImage readFrame(ImageReader reader, int frame) throws IOException {
+    BufferedImage   bi;
+    long            start;
+    long            oldTime;
+    int             size;
+    
+    start = System.currentTimeMillis();
+    
+    if (tileSource != null) {
+      
+      // Uebersicht eines gekachelten Bildes
+      bi = TileSource.readRegion(reader, frame, null, TileSource.getSubsampling(imageWidth, imageHeight, OVERVIEW_SIZE));
+      
+    } else if (previewMode && !fullResolution) {
+      
+      // Vorschau etwa in der Groesse des Panels
+      size = Math.max(getWidth(), getHeight());
+      if (size <= 0) size = Math.max(getPreferredSize().width, getPreferredSize().height);
+      previewSubsampling = TileSource.getSubsampling(imageWidth, imageHeight, Math.max(size, 16));
+      bi = TileSource.readRegion(reader, frame, null, previewSubsampling);
+      
+    } else {
+      
+      previewSubsampling = 1;
+      synchronized (reader) {
+        bi = reader.read(frame);
+      }
+    }
+    
+    oldTime = decodeTime;
+    decodeTime = System.currentTimeMillis() - start;
+    firePropertyChange("decodeTime", new Long(oldTime), new Long(decodeTime));
+    
+    return bi;
+  }
+
+
+	/**
+	 * Sets the preview mode. In preview mode the frames are decoded with source
+	 * subsampling to about the size of the panel. So the time to display a
+	 * frame depends on the size of the panel and not on the size of the image.
+	 * The current input is decoded in full resolution, as soon as the size 
+	 * policy is not SIZE_POLICY_FIT or the zoom factor is larger than 1.0.
+	 * It takes effect with the next input.
+	 * Default value is false.
+	 * @param preview true, to enable the preview mode.
+	 */
+	public void setPreviewMode(boolean preview) {
+    previewMode = preview;
+  }
+
+
+	/**
+	 * Gets the preview mode.
+	 * @return true, if the preview mode is enabled.
+	 */
+	public boolean isPreviewMode() {
+    return previewMode;
+  }
+
+
+	/**
+	 * Gets the subsampling of the displayed frame.
+	 * @return the subsampling. 1, if the frame is displayed in full resolution.
+	 */
+	public int getPreviewSubsampling() {
+    return previewSubsampling;
+  }
+
+
+	/**
+	 * Gets the time to decode the displayed frame. With each decoding the 
+	 * property change "decodeTime" is fired.
+	 * @return the time in milliseconds.
+	 */
+	public long getDecodeTime() {
+    return decodeTime;
+  }
+
+
+	/**
+	 * Registers the text to display in a tool tip. The text is also set for
+	 * the panel displaying the image, because it receives the mouse events.
+	 * @param text the string to display.
+	 */
+	public void setToolTipText(String text) {
+    super.setToolTipText(text);
+    if (imagePanel != null) imagePanel.setToolTipText(text);
+  }
+
+
+	/**
+	 * Decodes the current frame in full resolution, if it is displayed as a
+	 * preview and the size policy or zoom factor requires more details.
+	 */
+	private void upgradeResolution() {
+    BufferedImage   bi;
+    
+    if (dcmImageReader == null) return;
+    if (previewSubsampling <= 1) return;
+    if ((sizePolicy == SIZE_POLICY_FIT) && (zoom <= 1.0)) return;
+    
+    fullResolution = true;
+    try {
+      bi = readFrame(dcmImageReader, curFrame);
+    } catch (IOException e) {
+      return;
+    }
+    
+    // Die Vorschauen der anderen Frames verwerfen
+    frameCache.clear();
+    frameCache.put(curFrame, bi);
+    
+    origImage = bi;
+    if (displayColorModel != null) {
+      theImage = new BufferedImage(displayColorModel, origImage.getRaster(), false, null);
+    } else {
+      theImage = origImage;
+    }
+  }
+
+
+	/**
+	 * Tests, if the current image is decoded tile by tile. In this case only
+	 * an overview is returned by getImage and the visible tiles are decoded
+	 * in the background as the user pans and zooms.
+	 * @return true, if the image is tiled.
+	 */
+	public boolean isTiled() {
+    return tileSource != null;
+  }
+
+
+	/**
+	 * Sets the number of pixels, above which an image is decoded tile by tile.
+	 * It takes effect with the next input.
+	 * Default value is 4096 x 4096.
+	 * @param pixels the number of pixels.
+	 */
+	public void setTileThreshold(long pixels) {
+    tileThreshold = pixels;
+  }
+
+
+	/**
+	 * Gets the number of pixels, above which an image is decoded tile by tile.
+	 * @return the number of pixels.
+	 */
+	public long getTileThreshold() {
+    return tileThreshold;
+  }
+
+
+	/**
+	 * Displays the next frame of a multiframe image. Nothing happens, if the
+	 * last frame is displayed.
+	 * @exception  IOException  in a case of I/O error
+	 */
+	public void nextFrame() throws IOException {
+    setFrame(curFrame + 1);
+  }
+
+
+	/**
+	 * Displays the previous frame of a multiframe image. Nothing happens, if the
+	 * first frame is displayed.
+	 * @exception  IOException  in a case of I/O error
+	 */
+	public void previousFrame() throws IOException {
+    setFrame(curFrame - 1);
+  }
+
+
+	/**
+	 * Gets the number of the currently displayed frame.
+	 * @return the frame number or -1, if no input is set.
+	 */
+	public int getFrame() {
+    return curFrame;
+  }
+
+
+	/**
+	 * Gets the number of frames of the current input.
+	 * @return the number of frames or 0, if no input is set.
+	 */
+	public int getNumberOfFrames() {
+    return numFrames;
+  }
+
+
+	/**
+	 * Sets the maximum number of decoded frames to hold in the frame cache.
+	 * Default value is DEFAULT_FRAME_CACHE_SIZE.
+	 * @param size the number of frames.
+	 */
+	public void setFrameCacheSize(int size) {
+    frameCache.setCapacity(size);
+  }
+
+
+	/**
+	 * Gets the maximum number of decoded frames to hold in the frame cache.
+	 * @return the number of frames.
+	 */
+	public int getFrameCacheSize() {
+    return frameCache.getCapacity();
+  }
+
+
+	/**
+	 * Sets the number of frames to prefetch on each side of the current frame.
+	 * The value takes effect with the next input. Default value is 
+	 * DEFAULT_PREFETCH_RADIUS.
+	 * @param radius the number of frames. 0 disables the prefetch.
+	 */
+	public void setPrefetchRadius(int radius) {
+    prefetchRadius = Math.max(0, radius);
+  }
+
+
+	/**
+	 * Gets the number of frames to prefetch on each side of the current frame.
+	 * @return the number of frames.
+	 */
+	public int getPrefetchRadius() {
+    return prefetchRadius;
+  }
+
+
+	/**
+	 * Starts the cine playback of a multiframe image at the current frame. The
+	 * frames are decoded and windowed ahead of time by a background thread.
+	 * The frame rate is given by getCineRate(). During playback the frame
+	 * cannot be set and the zoom is ignored. The bean fires the property 
+	 * changes "cineFps" with the achieved frames per second once per second 
+	 * and "cineStalls" with the number of stalls, if a frame is due but not yet
+	 * decoded.
+	 */
+	public void startCine() {
+    ColorModel  cm = null;
+    
+    if (dcmImageReader == null) return;
+    if (numFrames < 2) return;
+    if (isCinePlaying()) return;
+    if (tileSource != null) return;
+    
+    // Der Prefetch wird waehrend der Wiedergabe nicht benoetigt
+    if (prefetcher != null) prefetcher.request(-1);
+    
+    if (windowingPossible && (cmParam != null)) {
+      cm = cmFactory.getColorModel(cmParam);
+    }
+    
+    cinePlayer = new CinePlayer(this, dcmImageReader, frameCache, numFrames, cm, windowingPossible, cineBufferSize);
+    cinePlayer.start((curFrame + 1) % numFrames, cineRate);
+    firePropertyChange("cinePlaying", false, true);
+  }
+
+
+	/**
+	 * Stops the cine playback. The last displayed frame becomes the current
+	 * frame.
+	 */
+	public void stopCine() {
+    if (!isCinePlaying()) return;
+    
+    cinePlayer.stop();
+    cinePlayer = null;
+    
+    // Aktuellen Frame wieder mit dem Original dekodierten Bild darstellen
+    try {
+      displayFrame(curFrame);
+    } catch (IOException ignore) {}
+    firePropertyChange("cinePlaying", true, false);
+  }
+
+
+	/**
+	 * Tests, if the cine playback is running.
+	 * @return true, if the cine playback is running.
+	 */
+	public boolean isCinePlaying() {
+    return (cinePlayer != null) && cinePlayer.isPlaying();
+  }
+
+
+	/**
+	 * Sets the frame rate for the cine playback. The value is overwritten by
+	 * the next input. It takes effect with the next start of the playback.
+	 * @param fps the frame rate in frames per second.
+	 */
+	public void setCineRate(float fps) {
+    if (fps > 0.0f) cineRate = fps;
+  }
+
+
+	/**
+	 * Gets the frame rate for the cine playback. After setting an input it is
+	 * derived from the Dataset: FrameTime, CineRate or RecommendedDisplayFrameRate.
+	 * If none of them is present DEFAULT_CINE_RATE is used.
+	 * @return the frame rate in frames per second.
+	 */
+	public float getCineRate() {
+    return cineRate;
+  }
+
+
+	/**
+	 * Gets the achieved frames per second of the running cine playback,
+	 * measured over the last second.
+	 * @return the frames per second or 0.0, if the playback is not running.
+	 */
+	public float getCineFps() {
+    if (!isCinePlaying()) return 0.0f;
+    return cinePlayer.getAchievedFps();
+  }
+
+
+	/**
+	 * Gets the number of stalls of the running cine playback. A stall occurs,
+	 * if a frame is due but not yet decoded.
+	 * @return the number of stalls or 0, if the playback is not running.
+	 */
+	public int getCineStalls() {
+    if (!isCinePlaying()) return 0;
+    return cinePlayer.getStalls();
+  }
+
+
+	/**
+	 * Sets the number of pre-rendered display images for the cine playback.
+	 * It takes effect with the next start of the playback.
+	 * Default value is 16.
+	 * @param size the number of images.
+	 */
+	public void setCineBufferSize(int size) {
+    cineBufferSize = Math.max(3, size);
+  }
+
+
+	/**
+	 * Gets the number of pre-rendered display images for the cine playback.
+	 * @return the number of images.
+	 */
+	public int getCineBufferSize() {
+    return cineBufferSize;
+  }
+
+
+	/**
+	 * Called by the CinePlayer in the event-dispatch thread to display the next
+	 * frame.
+	 * @param frame the frame number.
+	 * @param display the pre-rendered display image.
+	 */
+	void showCineFrame(int frame, BufferedImage display) {
+    int   oldFrame = curFrame;
+    
+    curFrame = frame;
+    theImage = display;
+    imagePanel.repaint();
+    
+    firePropertyChange("frame", oldFrame, curFrame);
+  }
+
+
+	/**
+	 * Called by the CinePlayer in the event-dispatch thread, if a frame is due
+	 * but not yet decoded.
+	 * @param stalls the number of stalls since start of the playback.
+	 */
+	void cineStalled(int stalls) {
+    firePropertyChange("cineStalls", stalls - 1, stalls);
+  }
+
+
+	/**
+	 * Called by the CinePlayer in the event-dispatch thread once per second.
+	 * @param oldFps the frames per second of the previous interval.
+	 * @param newFps the frames per second of the last interval.
+	 */
+	void cineFpsMeasured(float oldFps, float newFps) {
+    firePropertyChange("cineFps", new Float(oldFps), new Float(newFps));
+  }
+
+
+	/**
+	 * Derives the frame rate for cine playback from the Dataset. The attributes
+	 * FrameTime, CineRate and RecommendedDisplayFrameRate are evaluated in
+	 * this order.
+	 * @param ds the Dataset.
+	 * @return the frame rate in frames per second.
+	 */
+	private float getFrameRate(Dataset ds) {
+    String  s;
+    float   f;
+    
+    // FrameTime: Zeit zwischen zwei Frames in ms
+    try {
+      s = ds.getString(Tags.FrameTime);
+      if (s != null) {
+        f = Float.parseFloat(s.trim());
+        if (f > 0.0f) return 1000.0f / f;
+      }
+    } catch (Exception ignore) {}
+    
+    // CineRate: Frames pro Sekunde
+    try {
+      s = ds.getString(Tags.CineRate);
+      if (s != null) {
+        f = Float.parseFloat(s.trim());
+        if (f > 0.0f) return f;
+      }
+    } catch (Exception ignore) {}
+    
+    // RecommendedDisplayFrameRate: Frames pro Sekunde
+    try {
+      s = ds.getString(Tags.RecommendedDisplayFrameRate);
+      if (s != null) {
+        f = Float.parseFloat(s.trim());
+        if (f > 0.0f) return f;
+      }
+    } catch (Exception ignore) {}
+    
+    return DEFAULT_CINE_RATE;
+  }
+
+
 	/**
    *
 	 */
@@ -457,7 +1233,11 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
     switch (sizePolicy) {
       
       case SIZE_POLICY_ORIGINAL:
-        imagePanel.setPreferredSize(new Dimension(origImage.getWidth(), origImage.getHeight()));
+        if (tileSource != null) {
+          imagePanel.setPreferredSize(new Dimension((int) (imageWidth * zoom), (int) (imageHeight * zoom)));
+        } else {
+          imagePanel.setPreferredSize(new Dimension(origImage.getWidth(), origImage.getHeight()));
+        }
         break;
       
       case SIZE_POLICY_FIT:
@@ -465,7 +1245,11 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
         break;
       
       case SIZE_POLICY_SCROLL:
-        imagePanel.setPreferredSize(new Dimension(theImage.getWidth(), theImage.getHeight()));
+        if (tileSource != null) {
+          imagePanel.setPreferredSize(new Dimension((int) (imageWidth * zoom), (int) (imageHeight * zoom)));
+        } else {
+          imagePanel.setPreferredSize(new Dimension(theImage.getWidth(), theImage.getHeight()));
+        }
         break;
         
     }
@@ -506,6 +1290,9 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
 			scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_NEVER);
 		} 
     
+    // Ausserhalb von SIZE_POLICY_FIT genuegt die Vorschau nicht
+    upgradeResolution();
+    
     // Bild unter neuer Policy darstellen
     imageChanged();
 
@@ -563,6 +1350,14 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
     
 		cmParam = cmParam.update(windowCenter, windowWidth, cmParam.isInverse());
 		cm  = cmFactory.getColorModel(cmParam);
+    displayColorModel = cm;
+    
+    // Waehrend der Cine Wiedergabe werden die Frames vom CinePlayer gefenstert
+    if (isCinePlaying()) {
+      cinePlayer.setColorModel(cm);
+      return;
+    }
+    
 		theImage = new BufferedImage(cm, theImage.getRaster(), false, null);
     
     imageChanged();
@@ -620,6 +1415,18 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
     // origImage wird in setInput gesetzt
     if (origImage == null) return;
     
+    // Waehrend der Cine Wiedergabe nicht moeglich
+    if (isCinePlaying()) return;
+    
+    // Bei gekachelten Bildern wird beim Zeichnen skaliert
+    if (tileSource != null) {
+      imageChanged();
+      return;
+    }
+    
+    // Bei Vergroesserung die Vorschau durch die volle Aufloesung ersetzen
+    upgradeResolution();
+    
 		op = new AffineTransformOp(AffineTransform.getScaleInstance(zoom, zoom),
                                AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
 		theImage = op.filter(origImage, op.createCompatibleDestImage(origImage, theImage.getColorModel()));
@@ -925,6 +1732,11 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
         h = (int) (scale * theImage.getHeight());
         g.drawImage(theImage, (getWidth() - w) / 2, (getHeight() - h) / 2, w, h, null);
         
+      } else if (tileSource != null) {
+        
+        // Sichtbare Kacheln darstellen
+        paintTiles(g);
+        
       } else {
         
         // Bild in Originalgroesse darstellen
@@ -933,6 +1745,59 @@ public class ImageBean extends javax.swing.JPanel implements java.io.Serializabl
       }
 		}
 
+
+		/**
+		 * Paints the visible tiles of a tiled image with the current zoom. Tiles,
+		 * which are not yet decoded, are requested from the TileSource. Until
+		 * they are available the overview is displayed.
+		 * @param  g  the graphics context.
+		 */
+		private void paintTiles(Graphics g) {
+      Rectangle       clip;
+      Rectangle       r;
+      BufferedImage   tile;
+      int             s;
+      int             n;
+      int             tx0, tx1, ty0, ty1;
+      int             x0, y0, x1, y1;
+      
+      clip = g.getClipBounds();
+      if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+      
+      // Uebersicht als Platzhalter
+      g.drawImage(theImage, 0, 0, (int) (imageWidth * zoom), (int) (imageHeight * zoom), null);
+      
+      // Sichtbare Kacheln in Quellpixeln bestimmen
+      s = TileSource.getSubsampling(zoom);
+      n = tileSource.getTileSize() * s;
+      tx0 = Math.max(0, (int) (clip.x / zoom) / n);
+      ty0 = Math.max(0, (int) (clip.y / zoom) / n);
+      tx1 = Math.min((imageWidth - 1) / n, (int) ((clip.x + clip.width) / zoom) / n);
+      ty1 = Math.min((imageHeight - 1) / n, (int) ((clip.y + clip.height) / zoom) / n);
+      
+      // Nicht mehr sichtbare Kacheln nicht mehr dekodieren
+      tileSource.clearPending();
+      
+      for (int ty = ty0; ty <= ty1; ty++) {
+        for (int tx = tx0; tx <= tx1; tx++) {
+          tile = tileSource.peekTile(curFrame, tx, ty, s);
+          if (tile == null) continue;
+          
+          // Kachel mit dem aktuellen Window darstellen
+          if (displayColorModel != null) {
+            tile = new BufferedImage(displayColorModel, tile.getRaster(), false, null);
+          }
+          
+          r = tileSource.getTileRegion(tx, ty, s);
+          x0 = (int) (r.x * zoom);
+          y0 = (int) (r.y * zoom);
+          x1 = (int) ((r.x + r.width) * zoom);
+          y1 = (int) ((r.y + r.height) * zoom);
+          g.drawImage(tile, x0, y0, x1 - x0, y1 - y0, null);
+        }
+      }
+    }
+
 	}
 
 }
@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.image;
+
+import java.awt.image.*;
+import java.util.*;
+
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * Statistics of the stored pixel values of a monochrome image: minimum,
+ * maximum, histogram and percentiles. The histogram is computed in parallel
+ * over row chunks of the raster. The computation is abandoned, if it exceeds
+ * a given time budget.<br>
+ * The statistics are used to choose a default window for images, which define
+ * no window in the Dataset. The results are cached by SOPInstanceUID.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.9
+ */
+public class PixelStatistics {
+
+  
+  /**
+   * Default time budget for the computation in milliseconds.
+   */
+  public final static long    DEFAULT_TIME_BUDGET = 250;
+  
+  
+  /**
+   * Percentile for the lower border of the default window.
+   */
+  public final static double  LOWER_PERCENTILE = 0.005;
+  
+  
+  /**
+   * Percentile for the upper border of the default window.
+   */
+  public final static double  UPPER_PERCENTILE = 0.995;
+  
+  
+  /**
+   * Number of statistics held in the cache.
+   */
+  private final static int    CACHE_SIZE = 64;
+  
+  
+  /**
+   * Minimum number of pixels per thread. Smaller images are processed in
+   * the calling thread.
+   */
+  private final static int    MIN_PIXELS_PER_THREAD = 256 * 256;
+  
+  
+  /**
+   * The cached statistics. Key is the SOPInstanceUID.
+   */
+  private static LinkedHashMap  cache = new LinkedHashMap(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+  
+  
+  /**
+   * The histogram. Index 0 corresponds to the pixel value offset.
+   */
+  private int[]   histogram;
+  
+  
+  /**
+   * The pixel value of the first histogram bin.
+   */
+  private int     offset;
+  
+  
+  /**
+   * Number of pixels in the histogram.
+   */
+  private long    count;
+  
+  
+  /**
+   * Smallest pixel value.
+   */
+  private int     min;
+  
+  
+  /**
+   * Largest pixel value.
+   */
+  private int     max;
+  
+  
+  /**
+   * Creates new PixelStatistics from a histogram.
+   * @param histogram the histogram.
+   * @param offset the pixel value of the first bin.
+   */
+  private PixelStatistics(int[] histogram, int offset) {
+    this.histogram = histogram;
+    this.offset = offset;
+    
+    count = 0;
+    min = Integer.MAX_VALUE;
+    max = Integer.MIN_VALUE;
+    for (int i = 0; i < histogram.length; i++) {
+      if (histogram[i] == 0) continue;
+      count += histogram[i];
+      if (i + offset < min) min = i + offset;
+      if (i + offset > max) max = i + offset;
+    }
+  }
+  
+  
+  /**
+   * Returns the statistics of the first frame of an image. The statistics
+   * are taken from the cache, if an image with the same SOPInstanceUID was
+   * processed before. The attributes BitsStored, PixelRepresentation and
+   * PixelPaddingValue of the Dataset are evaluated. Padding pixels are not
+   * counted.
+   * @param ds the Dataset of the image.
+   * @param raster the raster of the first frame with the stored pixel values.
+   * @param budget the time budget in milliseconds.
+   * @return the statistics or null, if the statistics could not be computed
+   *         within the time budget or the image contains no valid pixels.
+   */
+  public static PixelStatistics getStatistics(Dataset ds, Raster raster, long budget) {
+    PixelStatistics   stat;
+    String            uid = null;
+    int               bits;
+    boolean           signed;
+    int               padding;
+    
+    try {
+      uid = ds.getString(Tags.SOPInstanceUID, null);
+      bits = ds.getInt(Tags.BitsStored, 8);
+      signed = ds.getInt(Tags.PixelRepresentation, 0) != 0;
+      padding = ds.getInt(Tags.PixelPaddingValue, Integer.MIN_VALUE);
+    } catch (Exception e) {
+      return null;
+    }
+    
+    if (uid != null) {
+      synchronized (cache) {
+        stat = (PixelStatistics) cache.get(uid);
+      }
+      if (stat != null) return stat;
+    }
+    
+    stat = compute(raster, bits, signed, padding, budget);
+    
+    if ((stat != null) && (uid != null)) {
+      synchronized (cache) {
+        cache.put(uid, stat);
+      }
+    }
+    
+    return stat;
+  }
+  
+  
+  /**
+   * Computes the statistics of a raster. The first band of the raster is
+   * evaluated.
+   * @param raster the raster with the stored pixel values.
+   * @param bits the number of bits stored. Must be in the range 1..16.
+   * @param signed true, if the pixel values are signed.
+   * @param padding the pixel padding value, which is not counted.
+   *        Integer.MIN_VALUE, if all pixels should be counted.
+   * @param budget the time budget in milliseconds.
+   * @return the statistics or null, if the statistics could not be computed
+   *         within the time budget or the image contains no valid pixels.
+   */
+  public static PixelStatistics compute(Raster raster, int bits, boolean signed, int padding, long budget) {
+    HistogramWorker[] workers;
+    int               numWorkers;
+    int               height;
+    int               rows;
+    int               offset;
+    int[]             histogram;
+    long              deadline;
+    
+    if ((bits < 1) || (bits > 16)) return null;
+    
+    deadline = System.currentTimeMillis() + budget;
+    offset = signed ? -(1 << (bits - 1)) : 0;
+    
+    // Padding Value wie die Pixelwerte auf BitsStored abbilden
+    if (padding != Integer.MIN_VALUE) {
+      padding &= (1 << bits) - 1;
+      if (signed && (padding >= -offset)) padding -= (1 << bits);
+    }
+    height = raster.getHeight();
+    
+    // Anzahl der Threads nach Bildgroesse und Prozessoren bestimmen
+    numWorkers = (int) Math.min((long) Runtime.getRuntime().availableProcessors(), 
+                                (long) raster.getWidth() * height / MIN_PIXELS_PER_THREAD);
+    numWorkers = Math.max(1, Math.min(numWorkers, height));
+    
+    // Das Bild zeilenweise auf die Threads verteilen
+    workers = new HistogramWorker[numWorkers];
+    rows = (height + numWorkers - 1) / numWorkers;
+    for (int i = 0; i < numWorkers; i++) {
+      workers[i] = new HistogramWorker(raster, i * rows, Math.min(height, (i + 1) * rows), 
+                                       bits, signed, padding, deadline);
+    }
+    
+    // Der letzte Teil wird im aufrufenden Thread berechnet
+    for (int i = 0; i < numWorkers - 1; i++) {
+      workers[i].start();
+    }
+    workers[numWorkers - 1].run();
+    
+    for (int i = 0; i < numWorkers - 1; i++) {
+      try {
+        workers[i].join(Math.max(1, deadline - System.currentTimeMillis()));
+      } catch (InterruptedException e) {
+        return null;
+      }
+    }
+    
+    // Teilergebnisse zusammenfassen
+    histogram = new int[1 << bits];
+    for (int i = 0; i < numWorkers; i++) {
+      if (!workers[i].isComplete()) return null;
+      int[] h = workers[i].getHistogram();
+      for (int j = 0; j < histogram.length; j++) {
+        histogram[j] += h[j];
+      }
+    }
+    
+    PixelStatistics stat = new PixelStatistics(histogram, offset);
+    if (stat.count == 0) return null;
+    
+    return stat;
+  }
+  
+  
+  /**
+   * Returns the smallest pixel value.
+   * @return the smallest pixel value.
+   */
+  public int getMin() {
+    return min;
+  }
+  
+  
+  /**
+   * Returns the largest pixel value.
+   * @return the largest pixel value.
+   */
+  public int getMax() {
+    return max;
+  }
+  
+  
+  /**
+   * Returns the number of counted pixels.
+   * @return the number of pixels.
+   */
+  public long getCount() {
+    return count;
+  }
+  
+  
+  /**
+   * Returns the number of pixels with a given value.
+   * @param value the pixel value.
+   * @return the number of pixels.
+   */
+  public int getFrequency(int value) {
+    if ((value < offset) || (value - offset >= histogram.length)) return 0;
+    return histogram[value - offset];
+  }
+  
+  
+  /**
+   * Returns the pixel value, below which a given fraction of the pixels lies.
+   * @param p the fraction in the range 0.0 .. 1.0.
+   * @return the pixel value.
+   */
+  public int getPercentile(double p) {
+    long  limit;
+    long  sum = 0;
+    
+    if (p <= 0.0) return min;
+    if (p >= 1.0) return max;
+    
+    limit = (long) Math.ceil(p * count);
+    for (int i = min - offset; i <= max - offset; i++) {
+      sum += histogram[i];
+      if (sum >= limit) return i + offset;
+    }
+    return max;
+  }
+  
+  
+  /**
+   * Returns the lower border of the default window as pixel value.
+   * @return the pixel value.
+   */
+  public int getWindowLow() {
+    return getPercentile(LOWER_PERCENTILE);
+  }
+  
+  
+  /**
+   * Returns the upper border of the default window as pixel value. The value
+   * is always larger than getWindowLow().
+   * @return the pixel value.
+   */
+  public int getWindowHigh() {
+    return Math.max(getPercentile(UPPER_PERCENTILE), getWindowLow() + 1);
+  }
+  
+  
+  /**
+   * Clears the cache of the statistics.
+   */
+  public static void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+  
+  
+  /**
+   * Computes the histogram of a range of rows. The computation is abandoned,
+   * if the deadline is exceeded.
+   */
+  private static class HistogramWorker extends Thread {
+    
+    private Raster    raster;
+    private int       firstRow;
+    private int       endRow;
+    private int       bits;
+    private boolean   signed;
+    private int       padding;
+    private long      deadline;
+    private int[]     histogram;
+    private boolean   complete = false;
+    
+    
+    /**
+     * Creates a new HistogramWorker.
+     * @param raster the raster.
+     * @param firstRow the first row to process, relative to the raster.
+     * @param endRow the row after the last row to process.
+     * @param bits the number of bits stored.
+     * @param signed true, if the pixel values are signed.
+     * @param padding the pixel padding value.
+     * @param deadline the time, at which the computation is abandoned.
+     */
+    HistogramWorker(Raster raster, int firstRow, int endRow, int bits, boolean signed, int padding, long deadline) {
+      this.raster = raster;
+      this.firstRow = firstRow;
+      this.endRow = endRow;
+      this.bits = bits;
+      this.signed = signed;
+      this.padding = padding;
+      this.deadline = deadline;
+      setDaemon(true);
+    }
+    
+    
+    /**
+     * The only method one can call in a Thread. Invoke by HistogramWorker.start().
+     */
+    public void run() {
+      int[]   h = new int[1 << bits];
+      int     w = raster.getWidth();
+      int[]   line = new int[w];
+      int     mask = (1 << bits) - 1;
+      int     signBit = 1 << (bits - 1);
+      int     x0 = raster.getMinX();
+      int     y0 = raster.getMinY();
+      int     offset = signed ? -signBit : 0;
+      int     v;
+      
+      for (int y = firstRow; y < endRow; y++) {
+        
+        // Zeitbudget alle 64 Zeilen pruefen
+        if (((y & 63) == 0) && (System.currentTimeMillis() > deadline)) return;
+        
+        raster.getSamples(x0, y0 + y, w, 1, 0, line);
+        for (int x = 0; x < w; x++) {
+          // Auf BitsStored maskieren und ggf. das Vorzeichen erweitern
+          v = line[x] & mask;
+          if (signed && ((v & signBit) != 0)) v -= (1 << bits);
+          if (v == padding) continue;
+          h[v - offset]++;
+        }
+      }
+      
+      synchronized (this) {
+        histogram = h;
+        complete = true;
+      }
+    }
+    
+    
+    /**
+     * Tests, if the histogram was computed completely.
+     * @return true, if complete.
+     */
+    synchronized boolean isComplete() {
+      return complete;
+    }
+    
+    
+    /**
+     * Returns the computed histogram.
+     * @return the histogram.
+     */
+    synchronized int[] getHistogram() {
+      return histogram;
+    }
+  }
+  
+}
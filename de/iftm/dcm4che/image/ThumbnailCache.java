@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.image;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import javax.imageio.*;
+import javax.imageio.stream.*;
+
+import org.dcm4che.image.*;
+import org.dcm4che.imageio.plugins.*;
+import org.dcm4che.data.*;
+import org.dcm4che.dict.*;
+
+
+/**
+ * A cache of thumbnails of DICOM images, keyed by the SOPInstanceUID. The
+ * thumbnails are held in memory and stored as PNG files in a directory, so 
+ * they survive the application.<br>
+ * A thumbnail is taken from the IconImageSequence of the directory record or
+ * the file, if present. Otherwise the image is decoded with subsampling and
+ * windowed.<br>
+ * The directory is bounded by the number and the total size of the PNG files.
+ * If a bound is exceeded, the least recently used files are deleted.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.27
+ */
+public class ThumbnailCache {
+  
+  
+  /**
+   * The default edge length of the thumbnails.
+   */
+  public final static int   DEFAULT_SIZE = 64;
+  
+  
+  /**
+   * The default number of thumbnails held in memory.
+   */
+  public final static int   DEFAULT_CAPACITY = 512;
+  
+  
+  /**
+   * The time budget for the pixel statistics of a thumbnail in milliseconds.
+   */
+  private final static long STATISTICS_BUDGET = 50;
+  
+  
+  /**
+   * The maximum number of PNG files in the directory.
+   */
+  private final static int  MAX_DISK_FILES = 10000;
+  
+  
+  /**
+   * The maximum total size of the PNG files in the directory in bytes.
+   */
+  private final static long MAX_DISK_BYTES = 32L * 1024 * 1024;
+  
+  
+  /**
+   * The shared cache in the directory "user.home/.dcmie/thumbnails".
+   */
+  private static ThumbnailCache   defaultCache = null;
+  
+  
+  /**
+   * The directory of the PNG files. null, if the thumbnails are held in
+   * memory only.
+   */
+  private File            dir;
+  
+  
+  /**
+   * The edge length of the thumbnails.
+   */
+  private int             size;
+  
+  
+  /**
+   * The thumbnails in memory. Key is the SOPInstanceUID, value the 
+   * BufferedImage. The map is in access order.
+   */
+  private LinkedHashMap   memory;
+  
+  
+  /**
+   * The number and total size of the PNG files in the directory. -1, until
+   * the directory is scanned for the first time. Guarded by the lock of dir.
+   */
+  private int             diskFiles = -1;
+  private long            diskBytes = 0;
+  
+  
+  /**
+   * Creates a new ThumbnailCache.
+   * @param dir the directory of the PNG files. null, if the thumbnails should
+   *        be held in memory only.
+   * @param size the edge length of the thumbnails.
+   * @param capacity the maximum number of thumbnails held in memory.
+   */
+  public ThumbnailCache(File dir, int size, final int capacity) {
+    this.dir = dir;
+    this.size = size;
+    
+    if (dir != null) dir.mkdirs();
+    
+    memory = new LinkedHashMap(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+  
+  
+  /**
+   * Returns the shared cache in the directory "user.home/.dcmie/thumbnails".
+   * @return the cache.
+   */
+  public static synchronized ThumbnailCache getDefault() {
+    if (defaultCache == null) {
+      File d = new File(new File(System.getProperty("user.home"), ".dcmie"), "thumbnails");
+      defaultCache = new ThumbnailCache(d, DEFAULT_SIZE, DEFAULT_CAPACITY);
+    }
+    return defaultCache;
+  }
+  
+  
+  /**
+   * Returns the edge length of the thumbnails.
+   * @return the edge length.
+   */
+  public int getSize() {
+    return size;
+  }
+  
+  
+  /**
+   * Gets a thumbnail from memory or from disk.
+   * @param uid the SOPInstanceUID.
+   * @return the thumbnail or null, if it is not in the cache.
+   */
+  public BufferedImage get(String uid) {
+    BufferedImage   bi;
+    File            f;
+    
+    if (uid == null) return null;
+    
+    synchronized (this) {
+      bi = (BufferedImage) memory.get(uid);
+    }
+    if ((bi != null) || (dir == null)) return bi;
+    
+    f = getFile(uid);
+    if (!f.exists()) return null;
+    try {
+      bi = ImageIO.read(f);
+    } catch (IOException e) {
+      return null;
+    }
+    if (bi == null) return null;
+    
+    // Als zuletzt benutzt markieren, damit der File nicht geloescht wird
+    f.setLastModified(System.currentTimeMillis());
+    
+    synchronized (this) {
+      memory.put(uid, bi);
+    }
+    return bi;
+  }
+  
+  
+  /**
+   * Puts a thumbnail into the cache. Errors writing the PNG file are ignored.
+   * @param uid the SOPInstanceUID.
+   * @param bi the thumbnail.
+   */
+  public void put(String uid, BufferedImage bi) {
+    File  f;
+    long  oldLength;
+    
+    if ((uid == null) || (bi == null)) return;
+    
+    synchronized (this) {
+      memory.put(uid, bi);
+    }
+    if (dir == null) return;
+    
+    f = getFile(uid);
+    synchronized (dir) {
+      if (diskFiles < 0) scanDisk();
+      oldLength = f.length();
+      try {
+        ImageIO.write(bi, "png", f);
+      } catch (Exception ignore) {}
+      
+      if (oldLength == 0) {
+        if (f.length() > 0) diskFiles++;
+      } else {
+        if (f.length() == 0) diskFiles--;
+      }
+      diskBytes += f.length() - oldLength;
+      if ((diskFiles > MAX_DISK_FILES) || (diskBytes > MAX_DISK_BYTES)) trimDisk();
+    }
+  }
+  
+  
+  /**
+   * Returns the thumbnail of an image. The thumbnail is taken from the cache,
+   * from the icon of the directory record, from the IconImageSequence of the
+   * file or decoded from the image with subsampling, in this order. The
+   * method blocks until the thumbnail is available.
+   * @param f the DICOM file.
+   * @param uid the SOPInstanceUID or null, if not known.
+   * @param icon the item of the IconImageSequence of the directory record or
+   *        null.
+   * @return the thumbnail or null, if the file could not be decoded.
+   */
+  public BufferedImage getThumbnail(File f, String uid, Dataset icon) {
+    BufferedImage     bi;
+    ImageInputStream  iis = null;
+    ImageReader       reader = null;
+    Dataset           ds;
+    
+    // Aus dem Cache
+    bi = get(uid);
+    if (bi != null) return bi;
+    
+    // Aus dem Icon des Directory Records
+    if ((uid != null) && (icon != null)) {
+      bi = fromIcon(icon);
+      if (bi != null) {
+        put(uid, bi);
+        return bi;
+      }
+    }
+    
+    if (f == null) return null;
+    
+    try {
+      iis = ImageIO.createImageInputStream(f);
+      Iterator readers = ImageIO.getImageReadersByFormatName("DICOM");
+      if (!readers.hasNext()) return null;
+      reader = (ImageReader) readers.next();
+      reader.setInput(iis, false);
+      ds = ((DcmMetadata) reader.getStreamMetadata()).getDataset();
+      
+      // Der Cache koennte das Bild unter der UID des Headers enthalten
+      if (uid == null) {
+        uid = ds.getString(Tags.SOPInstanceUID, null);
+        bi = get(uid);
+        if (bi != null) return bi;
+      }
+      
+      // Aus der IconImageSequence des Files
+      icon = ds.getItem(Tags.IconImageSeq);
+      if (icon != null) bi = fromIcon(icon);
+      
+      // Sonst das Bild mit Unterabtastung dekodieren
+      if (bi == null) bi = decode(reader, ds);
+    } catch (Exception e) {
+      return null;
+    } finally {
+      if (reader != null) reader.dispose();
+      try {
+        if (iis != null) iis.close();
+      } catch (Exception ignore) {}
+    }
+    
+    put(uid, bi);
+    return bi;
+  }
+  
+  
+  /**
+   * Creates a thumbnail from an item of the IconImageSequence. Only
+   * MONOCHROME1 and MONOCHROME2 icons with 8 bits allocated are supported.
+   * @param icon the item.
+   * @return the thumbnail or null, if the icon is not supported.
+   */
+  private BufferedImage fromIcon(Dataset icon) {
+    DcmElement      pixelData;
+    ByteBuffer      bb;
+    String          pmi;
+    int             rows, columns;
+    byte[]          pixels;
+    BufferedImage   bi;
+    
+    try {
+      pmi = icon.getString(Tags.PhotometricInterpretation, "MONOCHROME2");
+      rows = icon.getInt(Tags.Rows, 0);
+      columns = icon.getInt(Tags.Columns, 0);
+      if (icon.getInt(Tags.BitsAllocated, 8) != 8) return null;
+    } catch (Exception e) {
+      return null;
+    }
+    if (!"MONOCHROME1".equals(pmi) && !"MONOCHROME2".equals(pmi)) return null;
+    
+    pixelData = icon.get(Tags.PixelData);
+    if ((pixelData == null) || (rows <= 0) || (columns <= 0)) return null;
+    bb = pixelData.getByteBuffer();
+    if ((bb == null) || (bb.remaining() < rows * columns)) return null;
+    
+    pixels = new byte[rows * columns];
+    bb.duplicate().get(pixels);
+    if ("MONOCHROME1".equals(pmi)) {
+      for (int i = 0; i < pixels.length; i++) {
+        pixels[i] = (byte) ~pixels[i];
+      }
+    }
+    
+    bi = new BufferedImage(columns, rows, BufferedImage.TYPE_BYTE_GRAY);
+    bi.getRaster().setDataElements(0, 0, columns, rows, pixels);
+    return scale(bi);
+  }
+  
+  
+  /**
+   * Decodes the first frame of an image with subsampling. Monochrome images
+   * are windowed with the window of the Dataset or the window of the pixel
+   * statistics.
+   * @param reader the reader with the input set.
+   * @param ds the Dataset of the image.
+   * @return the thumbnail.
+   * @exception  IOException  in a case of I/O error
+   */
+  private BufferedImage decode(ImageReader reader, Dataset ds) throws IOException {
+    BufferedImage       bi;
+    ColorModelFactory   cmFactory;
+    ColorModelParam     cmParam;
+    PixelStatistics     stat;
+    String              pmi;
+    int                 s;
+    float               low, high;
+    
+    s = TileSource.getSubsampling(reader.getWidth(0), reader.getHeight(0), size);
+    bi = TileSource.readRegion(reader, 0, null, s);
+    
+    pmi = ds.getString(Tags.PhotometricInterpretation, null);
+    if ("MONOCHROME1".equals(pmi) || "MONOCHROME2".equals(pmi)) {
+      cmFactory = ColorModelFactory.getInstance();
+      cmParam = cmFactory.makeParam(ds);
+      if (cmParam.getNumberOfWindows() == 0) {
+        stat = PixelStatistics.compute(bi.getRaster(), ds.getInt(Tags.BitsStored, 8),
+                                       ds.getInt(Tags.PixelRepresentation, 0) != 0,
+                                       ds.getInt(Tags.PixelPaddingValue, Integer.MIN_VALUE),
+                                       STATISTICS_BUDGET);
+        if (stat != null) {
+          low = cmParam.toMeasureValue(stat.getWindowLow());
+          high = cmParam.toMeasureValue(stat.getWindowHigh());
+          cmParam = cmParam.update((low + high) / 2, Math.max(1, high - low), cmParam.isInverse());
+        }
+      }
+      bi = new BufferedImage(cmFactory.getColorModel(cmParam), bi.getRaster(), false, null);
+    }
+    
+    return scale(bi);
+  }
+  
+  
+  /**
+   * Scales an image to fit into the thumbnail size. The aspect ratio is kept.
+   * The result is an 8 bit gray or RGB image, which can be stored as PNG.
+   * @param src the image.
+   * @return the thumbnail.
+   */
+  private BufferedImage scale(BufferedImage src) {
+    double          f = Math.min(1.0, (double) size / Math.max(src.getWidth(), src.getHeight()));
+    int             w = Math.max(1, (int) Math.round(src.getWidth() * f));
+    int             h = Math.max(1, (int) Math.round(src.getHeight() * f));
+    boolean         gray = src.getType() == BufferedImage.TYPE_BYTE_GRAY;
+    BufferedImage   dst;
+    Graphics2D      g;
+    
+    if (gray && (f == 1.0)) return src;
+    
+    dst = new BufferedImage(w, h, gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+    g = dst.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(src, 0, 0, w, h, null);
+    g.dispose();
+    return dst;
+  }
+  
+  
+  /**
+   * Returns the PNG file of a thumbnail.
+   * @param uid the SOPInstanceUID.
+   * @return the file.
+   */
+  private File getFile(String uid) {
+    return new File(dir, uid + ".png");
+  }
+  
+  
+  /**
+   * Counts the PNG files in the directory. Must be called with the lock of
+   * dir held.
+   */
+  private void scanDisk() {
+    File[]  files = dir.listFiles();
+    
+    diskFiles = 0;
+    diskBytes = 0;
+    if (files == null) return;
+    
+    for (int i = 0; i < files.length; i++) {
+      if (files[i].getName().endsWith(".png")) {
+        diskFiles++;
+        diskBytes += files[i].length();
+      }
+    }
+  }
+  
+  
+  /**
+   * Deletes the least recently used PNG files, until the directory holds at
+   * most 3/4 of the bounds. The files are not deleted one by one at each put,
+   * because the directory has to be listed. Must be called with the lock of
+   * dir held.
+   */
+  private void trimDisk() {
+    File[]      files = dir.listFiles();
+    Vector      v = new Vector();
+    DiskFile[]  a;
+    
+    if (files == null) return;
+    
+    for (int i = 0; i < files.length; i++) {
+      if (files[i].getName().endsWith(".png")) {
+        v.add(new DiskFile(files[i]));
+      }
+    }
+    a = (DiskFile[]) v.toArray(new DiskFile[v.size()]);
+    Arrays.sort(a);
+    
+    diskFiles = a.length;
+    diskBytes = 0;
+    for (int i = 0; i < a.length; i++) {
+      diskBytes += a[i].length;
+    }
+    
+    // Die aeltesten Files zuerst loeschen
+    for (int i = 0; i < a.length; i++) {
+      if ((diskFiles <= MAX_DISK_FILES / 4 * 3) && (diskBytes <= MAX_DISK_BYTES / 4 * 3)) break;
+      if (a[i].file.delete()) {
+        diskFiles--;
+        diskBytes -= a[i].length;
+      }
+    }
+  }
+  
+  
+  /**
+   * A PNG file of the directory, ordered by the time of the last use.
+   */
+  private static class DiskFile implements Comparable {
+    
+    File    file;
+    long    time;
+    long    length;
+    
+    DiskFile(File file) {
+      this.file = file;
+      time = file.lastModified();
+      length = file.length();
+    }
+    
+    public int compareTo(Object o) {
+      long t = ((DiskFile) o).time;
+      return (time < t) ? -1 : ((time == t) ? 0 : 1);
+    }
+  }
+  
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.image;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+import javax.swing.*;
+import javax.swing.event.*;
+
+import org.dcm4che.data.*;
+
+
+/**
+ * A horizontal strip with the thumbnails of a series. The thumbnails are 
+ * taken from a ThumbnailCache. Missing thumbnails are created by a background
+ * thread, only for the cells, which are painted. The most recently requested
+ * thumbnails are created first, so scrolling never blocks the event-dispatch
+ * thread.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.27
+ */
+public class ThumbnailStrip extends JPanel {
+  
+  
+  /**
+   * The maximum number of pending requests. Older requests are discarded.
+   */
+  private final static int  MAX_PENDING = 64;
+  
+  
+  /**
+   * The cache of the thumbnails.
+   */
+  private ThumbnailCache    cache;
+  
+  
+  /**
+   * The list showing the thumbnails.
+   */
+  private JList             list;
+  
+  
+  /**
+   * The model of the list. The elements are Items.
+   */
+  private DefaultListModel  model = new DefaultListModel();
+  
+  
+  /**
+   * The items, whose thumbnails are requested. The last item is created first.
+   */
+  private Vector            pending = new Vector();
+  
+  
+  /**
+   * The thread, which creates the thumbnails. null, until the first request.
+   */
+  private Thread            loader = null;
+  
+  
+  /**
+   * Creates a new ThumbnailStrip using the default ThumbnailCache.
+   */
+  public ThumbnailStrip() {
+    this(ThumbnailCache.getDefault());
+  }
+  
+  
+  /**
+   * Creates a new ThumbnailStrip.
+   * @param cache the cache of the thumbnails.
+   */
+  public ThumbnailStrip(ThumbnailCache cache) {
+    int   cell = cache.getSize() + 8;
+    
+    this.cache = cache;
+    
+    list = new JList(model);
+    list.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+    list.setVisibleRowCount(1);
+    list.setFixedCellWidth(cell);
+    list.setFixedCellHeight(cell);
+    list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    list.setCellRenderer(new ThumbnailRenderer());
+    
+    JScrollPane scroll = new JScrollPane(list, JScrollPane.VERTICAL_SCROLLBAR_NEVER, 
+                                         JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
+    setLayout(new BorderLayout());
+    add(scroll, BorderLayout.CENTER);
+    setPreferredSize(new Dimension(4 * cell, cell + scroll.getHorizontalScrollBar().getPreferredSize().height + 4));
+  }
+  
+  
+  /**
+   * Shows the thumbnails of images. Pending requests for the previous images
+   * are discarded.
+   * @param files the DICOM files.
+   * @param uids the SOPInstanceUIDs or null, if not known. Single elements
+   *        may be null.
+   * @param icons the items of the IconImageSequence of the directory records
+   *        or null. Single elements may be null.
+   */
+  public void setImages(File[] files, String[] uids, Dataset[] icons) {
+    Item  item;
+    
+    clear();
+    if (files == null) return;
+    
+    for (int i = 0; i < files.length; i++) {
+      item = new Item();
+      item.file = files[i];
+      item.uid = (uids != null) ? uids[i] : null;
+      item.icon = (icons != null) ? icons[i] : null;
+      model.addElement(item);
+    }
+  }
+  
+  
+  /**
+   * Removes all thumbnails.
+   */
+  public void clear() {
+    synchronized (this) {
+      pending.clear();
+    }
+    model.clear();
+  }
+  
+  
+  /**
+   * Returns the index of the selected thumbnail.
+   * @return the index or -1, if no thumbnail is selected.
+   */
+  public int getSelectedIndex() {
+    return list.getSelectedIndex();
+  }
+  
+  
+  /**
+   * Selects a thumbnail and scrolls it into view.
+   * @param index the index or -1 to clear the selection.
+   */
+  public void setSelectedIndex(int index) {
+    if (index < 0) {
+      list.clearSelection();
+    } else {
+      list.setSelectedIndex(index);
+      list.ensureIndexIsVisible(index);
+    }
+  }
+  
+  
+  /**
+   * Adds a listener for the selection of thumbnails.
+   * @param l the listener.
+   */
+  public void addListSelectionListener(ListSelectionListener l) {
+    list.addListSelectionListener(l);
+  }
+  
+  
+  /**
+   * Removes a listener for the selection of thumbnails.
+   * @param l the listener.
+   */
+  public void removeListSelectionListener(ListSelectionListener l) {
+    list.removeListSelectionListener(l);
+  }
+  
+  
+  /**
+   * Requests the thumbnail of an item. Called by the renderer in the 
+   * event-dispatch thread.
+   * @param item the item.
+   */
+  private synchronized void request(Item item) {
+    
+    // Anforderung ans Ende stellen, damit sie zuerst bearbeitet wird
+    pending.remove(item);
+    pending.add(item);
+    while (pending.size() > MAX_PENDING) {
+      ((Item) pending.remove(0)).requested = false;
+    }
+    item.requested = true;
+    
+    if (loader == null) {
+      loader = new Thread("ThumbnailStrip") {
+        public void run() {
+          loadThumbnails();
+        }
+      };
+      loader.setDaemon(true);
+      loader.setPriority(Thread.MIN_PRIORITY);
+      loader.start();
+    }
+    notifyAll();
+  }
+  
+  
+  /**
+   * Creates the requested thumbnails. Executed by the background thread.
+   */
+  private void loadThumbnails() {
+    Item            item;
+    BufferedImage   bi;
+    
+    while (true) {
+      
+      // Auf die naechste Anforderung warten
+      synchronized (this) {
+        while (pending.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        item = (Item) pending.remove(pending.size() - 1);
+      }
+      
+      bi = cache.getThumbnail(item.file, item.uid, item.icon);
+      
+      final Item    done = item;
+      final Icon    icon = (bi != null) ? new ImageIcon(bi) : null;
+      SwingUtilities.invokeLater(new Runnable() {
+        public void run() {
+          done.thumbnail = icon;
+          done.failed = (icon == null);
+          list.repaint();
+        }
+      });
+    }
+  }
+  
+  
+  /**
+   * An image of the strip.
+   */
+  private static class Item {
+    
+    /** The DICOM file. */
+    File        file;
+    
+    /** The SOPInstanceUID or null. */
+    String      uid;
+    
+    /** The icon of the directory record or null. */
+    Dataset     icon;
+    
+    /** The thumbnail. null, until it is created. */
+    Icon        thumbnail = null;
+    
+    /** True, if the thumbnail is requested. */
+    boolean     requested = false;
+    
+    /** True, if the thumbnail could not be created. */
+    boolean     failed = false;
+  }
+  
+  
+  /**
+   * Renders the thumbnail of an item. Missing thumbnails are requested.
+   */
+  private class ThumbnailRenderer extends DefaultListCellRenderer {
+    
+    public ThumbnailRenderer() {
+      setHorizontalAlignment(SwingConstants.CENTER);
+      setVerticalAlignment(SwingConstants.CENTER);
+    }
+    
+    public Component getListCellRendererComponent(JList list, Object value, int index, 
+                                                  boolean isSelected, boolean cellHasFocus) {
+      Item  item = (Item) value;
+      
+      super.getListCellRendererComponent(list, null, index, isSelected, cellHasFocus);
+      
+      if (item.thumbnail != null) {
+        setIcon(item.thumbnail);
+        setText(null);
+      } else {
+        setIcon(null);
+        setText(item.failed ? "?" : "...");
+        if (!item.failed && !item.requested) request(item);
+      }
+      setToolTipText((item.file != null) ? item.file.getName() : null);
+      return this;
+    }
+  }
+  
+}
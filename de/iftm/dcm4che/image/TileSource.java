@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.dcm4che.image;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.*;
+
+import javax.imageio.*;
+
+
+/**
+ * Decodes very large images tile by tile. Only the source regions of the
+ * requested tiles are decoded by ImageReadParam.setSourceRegion. At low zoom 
+ * factors the tiles are decoded with source subsampling. The decoded tiles
+ * are held in a LRU cache.<br>
+ * Tiles can be read synchronously by getTile or requested by peekTile. In
+ * the later case missing tiles are decoded by a background thread, which
+ * repaints a given component after each tile.<br>
+ * All accesses to the ImageReader are synchronized on the reader.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.9
+ */
+public class TileSource {
+
+  
+  /**
+   * Default edge length of the tiles in decoded pixels.
+   */
+  public final static int DEFAULT_TILE_SIZE = 512;
+  
+  
+  /**
+   * Default number of tiles held in the cache.
+   */
+  public final static int DEFAULT_CACHE_SIZE = 64;
+  
+  
+  /**
+   * Maximum number of pending tile requests. Older requests are dropped.
+   */
+  private final static int MAX_PENDING = 64;
+  
+  
+  /**
+   * The reader for the image.
+   */
+  private ImageReader     reader;
+  
+  
+  /**
+   * Width of the image in pixels.
+   */
+  private int             width;
+  
+  
+  /**
+   * Height of the image in pixels.
+   */
+  private int             height;
+  
+  
+  /**
+   * Edge length of the tiles in decoded pixels.
+   */
+  private int             tileSize;
+  
+  
+  /**
+   * Maximum number of tiles in the cache.
+   */
+  private int             cacheSize;
+  
+  
+  /**
+   * The decoded tiles. Key is a String built by getKey, value the 
+   * BufferedImage. The map is in access order.
+   */
+  private LinkedHashMap   tileMap;
+  
+  
+  /**
+   * Keys of the tiles requested by peekTile but not yet decoded. The last
+   * request is decoded first.
+   */
+  private Vector          pending = new Vector();
+  
+  
+  /**
+   * The component to repaint, if a requested tile is decoded.
+   */
+  private Component       repaintComponent = null;
+  
+  
+  /**
+   * The thread decoding the requested tiles.
+   */
+  private Thread          loader = null;
+  
+  
+  /**
+   * False, if the TileSource was shut down.
+   */
+  private boolean         running = true;
+  
+  
+  /**
+   * Creates a new TileSource.
+   * @param reader the reader with the input set.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param tileSize the edge length of the tiles in decoded pixels.
+   * @param cacheSize the maximum number of tiles in the cache.
+   */
+  public TileSource(ImageReader reader, int width, int height, int tileSize, int cacheSize) {
+    this.reader = reader;
+    this.width = width;
+    this.height = height;
+    this.tileSize = Math.max(16, tileSize);
+    this.cacheSize = Math.max(1, cacheSize);
+    
+    tileMap = new LinkedHashMap(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry eldest) {
+        return size() > TileSource.this.cacheSize;
+      }
+    };
+  }
+  
+  
+  /**
+   * Creates a new TileSource with default tile and cache size.
+   * @param reader the reader with the input set.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   */
+  public TileSource(ImageReader reader, int width, int height) {
+    this(reader, width, height, DEFAULT_TILE_SIZE, DEFAULT_CACHE_SIZE);
+  }
+  
+  
+  /**
+   * Reads a region of a frame.
+   * @param reader the reader with the input set.
+   * @param frame the frame number.
+   * @param region the region in source pixels. null for the whole image.
+   * @param subsampling the subsampling in both directions. 1 = no subsampling.
+   * @return the decoded region.
+   * @exception  IOException  in a case of I/O error
+   */
+  public static BufferedImage readRegion(ImageReader reader, int frame, Rectangle region, int subsampling) throws IOException {
+    ImageReadParam  param;
+    
+    param = reader.getDefaultReadParam();
+    if (region != null) {
+      param.setSourceRegion(region);
+    }
+    if (subsampling > 1) {
+      param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+    }
+    
+    synchronized (reader) {
+      return reader.read(frame, param);
+    }
+  }
+  
+  
+  /**
+   * Returns the subsampling, which decodes the image with about the given
+   * edge length.
+   * @param width the width of the image.
+   * @param height the height of the image.
+   * @param size the maximum edge length of the decoded image.
+   * @return the subsampling.
+   */
+  public static int getSubsampling(int width, int height, int size) {
+    int   s = 1;
+    
+    while ((Math.max(width, height) / s) > size) s *= 2;
+    return s;
+  }
+  
+  
+  /**
+   * Returns the subsampling for a zoom factor. This is the largest power of two
+   * which is less or equal 1/zoom.
+   * @param zoom the zoom factor.
+   * @return the subsampling.
+   */
+  public static int getSubsampling(double zoom) {
+    int   s = 1;
+    
+    while ((s * 2) * zoom <= 1.0) s *= 2;
+    return s;
+  }
+  
+  
+  /**
+   * Returns the width of the image.
+   * @return the width in pixels.
+   */
+  public int getWidth() {
+    return width;
+  }
+  
+  
+  /**
+   * Returns the height of the image.
+   * @return the height in pixels.
+   */
+  public int getHeight() {
+    return height;
+  }
+  
+  
+  /**
+   * Returns the edge length of the tiles in decoded pixels. With subsampling
+   * s a tile covers tileSize * s source pixels.
+   * @return the edge length.
+   */
+  public int getTileSize() {
+    return tileSize;
+  }
+  
+  
+  /**
+   * Returns the source region of a tile, clipped to the image.
+   * @param tx the column of the tile.
+   * @param ty the row of the tile.
+   * @param subsampling the subsampling.
+   * @return the region in source pixels.
+   */
+  public Rectangle getTileRegion(int tx, int ty, int subsampling) {
+    int   n = tileSize * subsampling;
+    
+    return new Rectangle(tx * n, ty * n, n, n).intersection(new Rectangle(0, 0, width, height));
+  }
+  
+  
+  /**
+   * Returns a tile. The tile is decoded in the calling thread, if it is not
+   * in the cache.
+   * @param frame the frame number.
+   * @param tx the column of the tile.
+   * @param ty the row of the tile.
+   * @param subsampling the subsampling.
+   * @return the tile.
+   * @exception  IOException  in a case of I/O error
+   */
+  public BufferedImage getTile(int frame, int tx, int ty, int subsampling) throws IOException {
+    BufferedImage   bi;
+    String          key = getKey(frame, tx, ty, subsampling);
+    
+    synchronized (this) {
+      bi = (BufferedImage) tileMap.get(key);
+    }
+    if (bi != null) return bi;
+    
+    bi = readRegion(reader, frame, getTileRegion(tx, ty, subsampling), subsampling);
+    synchronized (this) {
+      tileMap.put(key, bi);
+    }
+    return bi;
+  }
+  
+  
+  /**
+   * Returns a tile from the cache. If the tile is not in the cache, it is
+   * requested from the background thread and null is returned. After the
+   * tile is decoded the repaint component is repainted.
+   * @param frame the frame number.
+   * @param tx the column of the tile.
+   * @param ty the row of the tile.
+   * @param subsampling the subsampling.
+   * @return the tile or null, if it is not yet decoded.
+   */
+  public synchronized BufferedImage peekTile(int frame, int tx, int ty, int subsampling) {
+    BufferedImage   bi;
+    String          key = getKey(frame, tx, ty, subsampling);
+    
+    bi = (BufferedImage) tileMap.get(key);
+    if (bi != null) return bi;
+    if (!running) return null;
+    
+    // Anforderung ans Ende stellen, damit sie zuerst bearbeitet wird
+    pending.remove(key);
+    pending.add(key);
+    while (pending.size() > MAX_PENDING) pending.remove(0);
+    
+    if (loader == null) {
+      loader = new Thread() {
+        public void run() {
+          loadTiles();
+        }
+      };
+      loader.setDaemon(true);
+      loader.setPriority(Thread.MIN_PRIORITY);
+      loader.start();
+    }
+    notifyAll();
+    return null;
+  }
+  
+  
+  /**
+   * Sets the component, which is repainted after a requested tile is decoded.
+   * @param c the component.
+   */
+  public synchronized void setRepaintComponent(Component c) {
+    repaintComponent = c;
+  }
+  
+  
+  /**
+   * Discards all pending tile requests, e.g. if the visible region changed.
+   */
+  public synchronized void clearPending() {
+    pending.clear();
+  }
+  
+  
+  /**
+   * Stops the background thread and clears the cache. A tile, which is
+   * currently decoded, is finished before the thread terminates.
+   */
+  public synchronized void shutdown() {
+    running = false;
+    pending.clear();
+    tileMap.clear();
+    notifyAll();
+  }
+  
+  
+  /**
+   * Decodes the requested tiles. Executed by the background thread.
+   */
+  private void loadTiles() {
+    String          key;
+    StringTokenizer st;
+    int             frame, tx, ty, s;
+    BufferedImage   bi;
+    Component       c;
+    
+    while (true) {
+      
+      // Auf die naechste Anforderung warten
+      synchronized (this) {
+        while (running && pending.isEmpty()) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (!running) return;
+        key = (String) pending.remove(pending.size() - 1);
+      }
+      
+      st = new StringTokenizer(key, "/");
+      frame = Integer.parseInt(st.nextToken());
+      s = Integer.parseInt(st.nextToken());
+      tx = Integer.parseInt(st.nextToken());
+      ty = Integer.parseInt(st.nextToken());
+      
+      try {
+        synchronized (reader) {
+          // Input koennte inzwischen geschlossen worden sein
+          synchronized (this) {
+            if (!running) return;
+          }
+          bi = readRegion(reader, frame, getTileRegion(tx, ty, s), s);
+        }
+      } catch (Exception e) {
+        continue;
+      }
+      
+      synchronized (this) {
+        if (!running) return;
+        tileMap.put(key, bi);
+        c = repaintComponent;
+      }
+      if (c != null) c.repaint();
+    }
+  }
+  
+  
+  /**
+   * Returns the key of a tile in the cache.
+   * @param frame the frame number.
+   * @param tx the column of the tile.
+   * @param ty the row of the tile.
+   * @param subsampling the subsampling.
+   * @return the key.
+   */
+  private String getKey(int frame, int tx, int ty, int subsampling) {
+    return frame + "/" + subsampling + "/" + tx + "/" + ty;
+  }
+  
+}
@@ -34,6 +34,7 @@ import org.dcm4che.image.*;
 import org.dcm4che.imageio.plugins.*;
 
 import de.iftm.dcm4che.*;
+import de.iftm.dcm4che.image.*;
 import de.iftm.dcm4che.dcmie.*;
 import de.iftm.dcm4che.dcmie.imp.*;
 import de.iftm.ij.plugins.dcmie.*;
@@ -209,6 +210,13 @@ public class FileImporter extends Thread {
           float width = cmParam.getWindowWidth(0);
           min = (double) cmParam.toPixelValue(center - width/2);
           max = (double) cmParam.toPixelValue(center + width/2);
+        } else {
+          // Kein Window definiert: Aus dem Histogramm der Pixelwerte bestimmen
+          PixelStatistics stat = PixelStatistics.getStatistics(ds, bi.getRaster(), PixelStatistics.DEFAULT_TIME_BUDGET);
+          if (stat != null) {
+            min = stat.getWindowLow();
+            max = stat.getWindowHigh();
+          }
         }
       } catch (Exception e) {
         return null;
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2002 Thomas Hacklaender, mailto:hacklaender@iftm.de
+ *
+ * IFTM Institut fuer Telematik in der Medizin GmbH, www.iftm.de
+ *
+ * This library is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ * http://www.gnu.org/copyleft/copyleft.html
+ */
+package de.iftm.javax.imageio.stream;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+import javax.imageio.stream.*;
+
+
+/**
+ * An ImageInputStream which reads a file through a read-only memory mapping.
+ * In contrast to a FileImageInputStream no system call is necessary for a
+ * seek or read and in contrast to a copy into a byte array the operating
+ * system pages in only the parts of the file which are actually read.<br>
+ * The file must be smaller than 2 GByte.
+ *
+ * @author   Thomas Hacklaender
+ * @version  2002.9.16
+ */
+public class MappedImageInputStream extends ImageInputStreamImpl {
+  
+  
+  /**
+   * The mapped file.
+   */
+  private MappedByteBuffer  buffer;
+  
+  
+  /**
+   * The length of the file.
+   */
+  private long              length;
+  
+  
+  /**
+   * Creates a new MappedImageInputStream.
+   * @param f the file to map.
+   * @exception  IOException  in a case of I/O error
+   */
+  public MappedImageInputStream(File f) throws IOException {
+    FileInputStream   fis = null;
+    FileChannel       channel;
+    
+    try {
+      fis = new FileInputStream(f);
+      channel = fis.getChannel();
+      length = channel.size();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("File too large to map: " + f);
+      }
+      // Die Abbildung bleibt auch nach dem Schliessen des Kanals gueltig
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    } finally {
+      try {
+        if (fis != null) fis.close();
+      } catch (Exception ignore) {}
+    }
+  }
+  
+  
+  /**
+   * Reads a single byte from the stream.
+   * @return the byte or -1, if the end of the stream is reached.
+   * @exception  IOException  in a case of I/O error
+   */
+  public int read() throws IOException {
+    checkClosed();
+    bitOffset = 0;
+    
+    if (streamPos >= length) return -1;
+    return buffer.get((int) streamPos++) & 0xff;
+  }
+  
+  
+  /**
+   * Reads up to len bytes from the stream.
+   * @param b the buffer into which the data is read.
+   * @param off the start offset in the buffer.
+   * @param len the maximum number of bytes to read.
+   * @return the number of bytes read or -1, if the end of the stream is reached.
+   * @exception  IOException  in a case of I/O error
+   */
+  public int read(byte[] b, int off, int len) throws IOException {
+    int   n;
+    
+    checkClosed();
+    bitOffset = 0;
+    
+    if (len == 0) return 0;
+    if (streamPos >= length) return -1;
+    
+    n = (int) Math.min((long) len, length - streamPos);
+    buffer.position((int) streamPos);
+    buffer.get(b, off, n);
+    streamPos += n;
+    return n;
+  }
+  
+  
+  /**
+   * Returns the length of the file.
+   * @return the length in bytes.
+   */
+  public long length() {
+    return length;
+  }
+  
+  
+  /**
+   * Closes the stream. The mapping is released by the garbage collector.
+   * @exception  IOException  in a case of I/O error
+   */
+  public void close() throws IOException {
+    super.close();
+    buffer = null;
+  }
+  
+}